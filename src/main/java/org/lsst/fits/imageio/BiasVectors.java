@@ -0,0 +1,68 @@
+package org.lsst.fits.imageio;
+
+import java.awt.Rectangle;
+import org.lsst.fits.imageio.bias.BiasCorrection.CorrectionFactors;
+
+/**
+ * The bias correction factors for the datasec region of a segment, evaluated
+ * one row at a time. Separable correction factors are materialised once as a
+ * serial (per row) and parallel (per column) vector, so the per pixel
+ * correction is a single array access rather than a call through the
+ * {@link CorrectionFactors} interface. Other correction factors are evaluated
+ * into a row vector as each row is requested.
+ *
+ * Instances are not thread safe.
+ */
+final class BiasVectors {
+
+    private final CorrectionFactors factors;
+    private final Rectangle datasec;
+    private final int[] serial;
+    private final int[] parallel;
+
+    BiasVectors(CorrectionFactors factors, Rectangle datasec) {
+        this.factors = factors;
+        this.datasec = datasec;
+        this.parallel = new int[datasec.width];
+        if (factors.isSeparable()) {
+            this.serial = new int[datasec.height];
+            if (datasec.width > 0 && datasec.height > 0) {
+                int x0 = factors.correctionFactor(datasec.x, datasec.y);
+                for (int i = 0; i < datasec.width; i++) {
+                    parallel[i] = factors.correctionFactor(datasec.x + i, datasec.y);
+                }
+                for (int j = 0; j < datasec.height; j++) {
+                    serial[j] = factors.correctionFactor(datasec.x, datasec.y + j) - x0;
+                }
+            }
+        } else {
+            this.serial = null;
+        }
+    }
+
+    /**
+     * The part of the correction which is constant along the given row.
+     *
+     * @param y The row, in segment coordinates
+     * @return The correction to add to each element of {@link #parallel(int)}
+     */
+    int serial(int y) {
+        return serial == null ? 0 : serial[y - datasec.y];
+    }
+
+    /**
+     * The correction for each column of the datasec for the given row. The
+     * returned array is reused and is only valid until the next call.
+     *
+     * @param y The row, in segment coordinates
+     * @return The corrections, element 0 corresponds to datasec.x
+     */
+    int[] parallel(int y) {
+        if (serial == null) {
+            for (int i = 0; i < datasec.width; i++) {
+                parallel[i] = factors.correctionFactor(datasec.x + i, y);
+            }
+        }
+        return parallel;
+    }
+}
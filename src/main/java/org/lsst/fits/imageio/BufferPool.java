@@ -0,0 +1,142 @@
+package org.lsst.fits.imageio;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of reusable buffers, organized by type and exact size. Since all the
+ * segments of a camera image have the same dimensions, in steady state almost
+ * every request can be satisfied from a previously released buffer, which
+ * avoids both the cost of zeroing new buffers and the delay before direct
+ * memory is returned by the garbage collector.
+ *
+ * The total size of the buffers held in the pool is bounded, buffers released
+ * when the pool is full are simply dropped and left to the garbage collector.
+ */
+class BufferPool {
+
+    private static final Logger LOG = Logger.getLogger(BufferPool.class.getName());
+    private static final BufferPool INSTANCE = new BufferPool(Long.getLong("org.lsst.fits.imageio.bufferPoolSizeBytes", 500_000_000L));
+
+    private enum Kind {
+        DIRECT_BYTE, INT, FLOAT
+    };
+
+    private record SizeClass(Kind kind, int capacity) {}
+
+    private final Map<SizeClass, Queue<Buffer>> pool = new ConcurrentHashMap<>();
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final long maxPooledBytes;
+
+    BufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    static BufferPool instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get a big-endian direct byte buffer
+     *
+     * @param capacity The required capacity (in bytes)
+     * @return The buffer, cleared and ready for use
+     */
+    ByteBuffer acquireDirect(int capacity) {
+        ByteBuffer result = (ByteBuffer) poll(new SizeClass(Kind.DIRECT_BYTE, capacity));
+        if (result == null) {
+            result = ByteBuffer.allocateDirect(capacity);
+        }
+        result.clear();
+        return result.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Get a heap int buffer.
+     *
+     * @param capacity The required capacity (in ints)
+     * @return The buffer, cleared and ready for use
+     */
+    IntBuffer acquireInt(int capacity) {
+        IntBuffer result = (IntBuffer) poll(new SizeClass(Kind.INT, capacity));
+        if (result == null) {
+            result = IntBuffer.allocate(capacity);
+        }
+        result.clear();
+        return result;
+    }
+
+    /**
+     * Get a heap float buffer.
+     *
+     * @param capacity The required capacity (in floats)
+     * @return The buffer, cleared and ready for use
+     */
+    FloatBuffer acquireFloat(int capacity) {
+        FloatBuffer result = (FloatBuffer) poll(new SizeClass(Kind.FLOAT, capacity));
+        if (result == null) {
+            result = FloatBuffer.allocate(capacity);
+        }
+        result.clear();
+        return result;
+    }
+
+    /**
+     * Return a buffer to the pool. The buffer must have been obtained from one
+     * of the acquire methods, and must not be used by the caller after it has
+     * been released.
+     *
+     * @param buffer The buffer to release
+     */
+    void release(Buffer buffer) {
+        SizeClass sizeClass;
+        if (buffer instanceof ByteBuffer && buffer.isDirect()) {
+            sizeClass = new SizeClass(Kind.DIRECT_BYTE, buffer.capacity());
+        } else if (buffer instanceof IntBuffer && buffer.hasArray()) {
+            sizeClass = new SizeClass(Kind.INT, buffer.capacity());
+        } else if (buffer instanceof FloatBuffer && buffer.hasArray()) {
+            sizeClass = new SizeClass(Kind.FLOAT, buffer.capacity());
+        } else {
+            return;
+        }
+        long bytes = sizeInBytes(sizeClass);
+        if (pooledBytes.addAndGet(bytes) > maxPooledBytes) {
+            pooledBytes.addAndGet(-bytes);
+            LOG.log(Level.FINE, "Buffer pool full, dropping buffer {0}", sizeClass);
+            return;
+        }
+        pool.computeIfAbsent(sizeClass, (k) -> new ConcurrentLinkedQueue<>()).add(buffer);
+    }
+
+    long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    private Buffer poll(SizeClass sizeClass) {
+        Queue<Buffer> queue = pool.get(sizeClass);
+        Buffer result = queue == null ? null : queue.poll();
+        if (result != null) {
+            pooledBytes.addAndGet(-sizeInBytes(sizeClass));
+        }
+        return result;
+    }
+
+    private static long sizeInBytes(SizeClass sizeClass) {
+        return sizeClass.kind == Kind.DIRECT_BYTE ? sizeClass.capacity : 4L * sizeClass.capacity;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool{" + "pooledBytes=" + pooledBytes + ", maxPooledBytes=" + maxPooledBytes + '}';
+    }
+}
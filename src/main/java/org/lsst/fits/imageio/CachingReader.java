@@ -1,31 +1,44 @@
 package org.lsst.fits.imageio;
 
 import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import com.github.benmanes.caffeine.cache.Weigher;
-import java.awt.Graphics2D;
 import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBuffer;
-import java.awt.image.LookupOp;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -33,13 +46,18 @@ import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import javax.imageio.stream.ImageInputStream;
 import nom.tam.fits.FitsException;
-import nom.tam.fits.Header;
 import nom.tam.fits.TruncatedFileException;
-import nom.tam.util.BufferedFile;
+import org.lsst.fits.imageio.ReadTrace.CacheState;
+import org.lsst.fits.imageio.ReadTrace.Event;
+import org.lsst.fits.imageio.ReadTrace.SegmentTrace;
+import org.lsst.fits.imageio.SubsampledRenderer.LevelLookup;
+import org.lsst.fits.imageio.SubsampledRenderer.Rendered;
 import org.lsst.fits.imageio.bias.BiasCorrection;
 import org.lsst.fits.imageio.bias.BiasCorrection.CorrectionFactors;
 import org.lsst.fits.imageio.bias.NullBiasCorrection;
 import org.lsst.fits.imageio.cmap.RGBColorMap;
+import org.lsst.fits.imageio.metrics.Metrics;
+import org.lsst.fits.imageio.metrics.Metrics.Stage;
 
 /**
  * This is the main component of the camera image reader. It makes extensive use
@@ -60,13 +78,40 @@ public class CachingReader {
      */
     private final AsyncLoadingCache<Segment, RawData> rawDataCache;
 
-    // Note: Using a long array as a hash key is probably a bad idea, since presambly it requires scanning all the 
-    // values to compute the hash.
-    private record SegmentBiasCorrectionAndCounts(Segment segment, BiasCorrection biasCorrection, long[] counts) {}
-    private final AsyncLoadingCache<SegmentBiasCorrectionAndCounts, BufferedImage> bufferedImageCache;
+    // Images are stored as 8 bit levels, the color map is only applied when the image is drawn. The
+    // scale is null for images scaled by their own histogram. Global scales are interned, and compared by digest
+    private record SegmentBiasCorrectionAndScale(Segment segment, BiasCorrection biasCorrection, GlobalScale scale) {}
+    private final AsyncLoadingCache<SegmentBiasCorrectionAndScale, BufferedImage> bufferedImageCache;
+
+    /**
+     * Caches binned (lower resolution) versions of the segment images, used
+     * when reading subsampled images. The factor is a power of 2.
+     */
+    private record SegmentPyramidLevel(Segment segment, BiasCorrection biasCorrection, GlobalScale scale, int factor) {}
+    private final AsyncLoadingCache<SegmentPyramidLevel, BufferedImage> pyramidCache;
+
+    /**
+     * Caches the tables used to convert pixel values to levels when rendering
+     * subsampled images directly. For global scales the table does not depend
+     * on the segment, so the segment is <code>null</code> in the key.
+     */
+    private final AsyncLoadingCache<SegmentBiasCorrectionAndScale, LevelLookup> levelLookupCache;
 
     private record SegmentListAndBiasCorrection(List<Segment> segments, BiasCorrection biasCorrection) {}
-    private final AsyncLoadingCache<SegmentListAndBiasCorrection, long[]> globalScalingCache;
+    private final AsyncLoadingCache<SegmentListAndBiasCorrection, GlobalScale> globalScalingCache;
+    /**
+     * Caches global scales estimated from a sample of the rows of each
+     * segment, used to draw a first approximation of a globally scaled image
+     * while the exact scale is computed.
+     */
+    private final AsyncLoadingCache<SegmentListAndBiasCorrection, GlobalScale> approximateGlobalScalingCache;
+
+    /**
+     * The images whose global scale has been precomputed, identified by their
+     * list of files
+     */
+    private record LinesAndBiasCorrection(List<String> lines, BiasCorrection biasCorrection) {}
+    private final Cache<LinesAndBiasCorrection, Boolean> precomputedImages;
 
     private record SegmentAndBiasCorrection(Segment segment, BiasCorrection biasCorrection) {}
     private final AsyncLoadingCache<SegmentAndBiasCorrection, CorrectionFactors> biasCorrectionCache;
@@ -77,10 +122,81 @@ public class CachingReader {
     private final LoadingCache<ImageInputStream, List<String>> linesCache;
 
     private static final Logger LOG = Logger.getLogger(CachingReader.class.getName());
+    // The weight of memory mapped raw data, by default 1000 files of 16 segments fit in the default raw data cache
+    private static final int MAPPED_RAW_DATA_WEIGHT = Integer.getInteger("org.lsst.fits.imageio.mappedRawDataWeight", 64 * 1024);
+    // When set (the default) subsampled reads use binned images from the pyramidCache
+    private static final boolean USE_PYRAMID = Boolean.parseBoolean(System.getProperty("org.lsst.fits.imageio.usePyramid", "true"));
+    // The coarsest pyramid level, 4 = binned by 16
+    private static final int MAX_PYRAMID_LEVEL = Integer.getInteger("org.lsst.fits.imageio.maxPyramidLevel", 4);
+    // When set (the default) subsampled reads which do not match a pyramid level only render the pixels needed
+    private static final boolean DIRECT_SUBSAMPLING = Boolean.parseBoolean(System.getProperty("org.lsst.fits.imageio.directSubsampling", "true"));
+    // Loading, rendering and compositing run on a dedicated pool, sized by org.lsst.fits.imageio.pipelineThreads
+    private static final Executor DEFAULT_EXECUTOR = createExecutor("CachingReader-", Integer.getInteger("org.lsst.fits.imageio.pipelineThreads", Runtime.getRuntime().availableProcessors()));
+    // Runs loads which every read that wanted them has abandoned, so they do not hold up the pipeline
+    private static final Executor BACKGROUND_EXECUTOR = createExecutor("CachingReader-background-", 1);
+    // One row in this many is decoded when estimating an approximate global scale
+    private static final int GLOBAL_SCALE_SAMPLE_STRIDE = Integer.getInteger("org.lsst.fits.imageio.globalScaleSampleStride", 32);
+    // How long entries made with an approximate global scale are kept after they were last used
+    private static final long APPROXIMATE_ENTRY_EXPIRY_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("org.lsst.fits.imageio.approximateEntryExpirySeconds", 60L));
+    // Bias corrected datasec values of the segment currently being scaled
+    private static final ThreadLocal<int[]> CORRECTED_SCRATCH = ThreadLocal.withInitial(() -> new int[0]);
+
+    /**
+     * The executor used by the cache loaders, and to composite segments. None
+     * of the tasks run on it ever wait for another future to complete, so it
+     * cannot be starved by tasks waiting on work queued behind them.
+     */
+    private final Executor executor;
+
+    /**
+     * The executor to which loads which are no longer wanted are deferred.
+     */
+    private final Executor backgroundExecutor;
+
+    /**
+     * The number of reads waiting for each segment to be drawn. A count of
+     * zero means that every read which wanted the segment has been cancelled.
+     * Keyed by segment equality, since a segment read again from its file (for
+     * example after its headers were evicted) is the same segment. Bounded, so
+     * the zero counts left by cancelled reads are eventually dropped, dropping
+     * a count only means its segment's loads are no longer deferred.
+     */
+    private final ConcurrentMap<Segment, Integer> demand = Caffeine.newBuilder().maximumSize(10_000).<Segment, Integer>build().asMap();
+
+    /**
+     * The tasks deferred to the background executor for each segment, which
+     * have not started yet, so they can be moved back to the pipeline if a
+     * read wants the segment again.
+     */
+    private final ConcurrentMap<Segment, List<DeferredTask>> deferred = new ConcurrentHashMap<>();
 
     public CachingReader() {
+        this(DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Create a reader which uses the given executor for loading and drawing
+     * segments.
+     *
+     * @param pipelineExecutor The executor to use
+     */
+    CachingReader(Executor pipelineExecutor) {
+        this(pipelineExecutor, BACKGROUND_EXECUTOR);
+    }
+
+    /**
+     * Create a reader which uses the given executors for loading and drawing
+     * segments, and for loads abandoned by every read which wanted them.
+     *
+     * @param pipelineExecutor The executor to use
+     * @param backgroundExecutor The executor for abandoned loads
+     */
+    CachingReader(Executor pipelineExecutor, Executor backgroundExecutor) {
+        this.executor = pipelineExecutor;
+        this.backgroundExecutor = backgroundExecutor;
 
         segmentCache = Caffeine.newBuilder()
+                .executor(pipelineExecutor)
                 .maximumSize(Integer.getInteger("org.lsst.fits.imageio.segmentCacheSize", 10_000))
                 .recordStats()
                 .buildAsync((SegmentCacheKey key) -> {
@@ -89,80 +205,141 @@ public class CachingReader {
                     }, "Loading %s took %dms", key.line);
                 });
 
-        Weigher<Segment, RawData> rawDataWeigher = (Segment k1, RawData rawData) -> rawData.getBuffer().capacity() * 4;
+        // Memory mapped data lives in the OS page cache, so only counts a nominal weight against the cache size,
+        // which still bounds the number of entries, and hence of file mappings kept alive by them
+        Weigher<Segment, RawData> rawDataWeigher = (Segment k1, RawData rawData) -> rawData.isMemoryMapped() ? MAPPED_RAW_DATA_WEIGHT : rawData.getBuffer().capacity() * 4;
         rawDataCache = Caffeine.newBuilder()
+                .executor(pipelineExecutor)
                 .weigher(rawDataWeigher)
                 .maximumWeight(Long.getLong("org.lsst.fits.imageio.rawDataCacheSizeBytes", 1_000_000_000L))
+                // Drop the cache's reference, buffers are recycled once any in progress users are done
+                .removalListener((Segment segment, RawData rawData, RemovalCause cause) -> {
+                    if (rawData != null) {
+                        rawData.release();
+                    }
+                })
                 .recordStats()
-                .buildAsync((Segment segment, Executor executor) -> segment.readRawDataAsync(executor));
+                .buildAsync((Segment segment, Executor executor) -> segment.readRawDataAsync(deferrable(segment)));
 
         biasCorrectionCache = Caffeine.newBuilder()
+                .executor(pipelineExecutor)
                 .maximumSize(Integer.getInteger("org.lsst.fits.imageio.biasCorrectionCacheSize", 10_000))
                 .recordStats()
                 .buildAsync((SegmentAndBiasCorrection key, Executor executor) -> {
                     Segment segment = key.segment;
-                    return rawDataCache.get(segment).thenApply(rawData -> {
-                        if (rawData.getBuffer() instanceof IntBuffer intBuffer) {
-                            return key.biasCorrection.compute(intBuffer, segment);
-                        } else {
-                            return new NullBiasCorrection().compute(null, segment);
+                    return retainRawData(segment).thenApplyAsync(rawData -> {
+                        try {
+                            if (rawData.getBuffer() instanceof IntBuffer intBuffer) {
+                                return Timed.execute(Stage.BIAS, () -> key.biasCorrection.compute(intBuffer, segment), "Bias correction for segment %s took %dms", segment);
+                            } else {
+                                return new NullBiasCorrection().compute(null, segment);
+                            }
+                        } finally {
+                            rawData.release();
                         }
-                    });
+                    }, executor);
                 });
 
-        Weigher<SegmentBiasCorrectionAndCounts, BufferedImage> buffedImageWeigher = (SegmentBiasCorrectionAndCounts k1, BufferedImage bi) -> bi.getHeight() * bi.getWidth() * 4;
+        // Images are 8 bit, one byte per pixel
+        Weigher<SegmentBiasCorrectionAndScale, BufferedImage> buffedImageWeigher = (SegmentBiasCorrectionAndScale k1, BufferedImage bi) -> bi.getHeight() * bi.getWidth();
         bufferedImageCache = Caffeine.newBuilder()
+                .executor(pipelineExecutor)
                 .weigher(buffedImageWeigher)
                 .maximumWeight(Long.getLong("org.lsst.fits.imageio.bufferedImageCacheSizeBytes", 5_000_000_000L))
+                .expireAfter(expireApproximate(SegmentBiasCorrectionAndScale::scale))
                 .recordStats()
-                .buildAsync((SegmentBiasCorrectionAndCounts key, Executor executor) -> {
-                    return rawDataCache.get(key.segment).thenApply(rawData -> {
-                        return biasCorrectionCache.get(new SegmentAndBiasCorrection(key.segment, key.biasCorrection)).thenApply(factors -> {
-                            return Timed.execute(() -> {
-                                if (rawData.getBuffer() instanceof IntBuffer) {
-                                    return createBufferedImage((RawData<IntBuffer>) rawData, factors, key.counts);
-                                } else {
-                                    return createBufferedImage((RawData<FloatBuffer>) rawData);
-                                }
-                            }, "Loading buffered image for segment %s took %dms", key.segment);
-                        }).join();
+                .buildAsync((SegmentBiasCorrectionAndScale key, Executor executor) -> {
+                    DiskImageCache diskCache = DiskImageCache.instance();
+                    if (diskCache == null) {
+                        return renderBufferedImage(key);
+                    }
+                    // Try the disk cache before reading and rendering the segment
+                    return CompletableFuture.supplyAsync(() -> diskCache.get(key.segment, key.biasCorrection, key.scale), executor).thenCompose(bi -> {
+                        if (bi != null) {
+                            return CompletableFuture.completedFuture(bi);
+                        }
+                        return renderBufferedImage(key).thenApply(rendered -> {
+                            // Images drawn with an approximate scale are only wanted until the exact one is known
+                            if (!isApproximate(key.scale)) {
+                                diskCache.put(key.segment, key.biasCorrection, key.scale, rendered);
+                            }
+                            return rendered;
+                        });
+                    });
+                });
+
+        pyramidCache = Caffeine.newBuilder()
+                .executor(pipelineExecutor)
+                .weigher((SegmentPyramidLevel k1, BufferedImage bi) -> bi.getHeight() * bi.getWidth())
+                .maximumWeight(Long.getLong("org.lsst.fits.imageio.pyramidCacheSizeBytes", 1_000_000_000L))
+                .expireAfter(expireApproximate(SegmentPyramidLevel::scale))
+                .recordStats()
+                .buildAsync((SegmentPyramidLevel key, Executor executor) -> {
+                    return withRawDataAndFactors(key.segment, key.biasCorrection, deferrable(key.segment), (rawData, factors) -> {
+                        return Timed.execute(Stage.RENDER, () -> {
+                            // The type of the buffer has been checked, so the casts are safe
+                            if (rawData.getBuffer() instanceof IntBuffer) {
+                                @SuppressWarnings("unchecked")
+                                RawData<IntBuffer> intData = (RawData<IntBuffer>) rawData;
+                                return createBinnedImage(intData, factors, key.scale, key.factor);
+                            } else {
+                                @SuppressWarnings("unchecked")
+                                RawData<FloatBuffer> floatData = (RawData<FloatBuffer>) rawData;
+                                return createBinnedImage(floatData, key.factor);
+                            }
+                        }, "Loading %dx binned image for segment %s took %dms", key.factor, key.segment);
+                    });
+                });
+
+        levelLookupCache = Caffeine.newBuilder()
+                .executor(pipelineExecutor)
+                .weigher((SegmentBiasCorrectionAndScale k1, LevelLookup lookup) -> lookup.levels().length)
+                .maximumWeight(Long.getLong("org.lsst.fits.imageio.levelLookupCacheSizeBytes", 100_000_000L))
+                .expireAfter(expireApproximate(SegmentBiasCorrectionAndScale::scale))
+                .recordStats()
+                .buildAsync((SegmentBiasCorrectionAndScale key, Executor executor) -> {
+                    if (key.scale != null) {
+                        return CompletableFuture.supplyAsync(() -> LevelLookup.create(new ScalingUtils(key.scale.counts())), executor);
+                    }
+                    return withRawDataAndFactors(key.segment, key.biasCorrection, deferrable(key.segment), (rawData, factors) -> {
+                        return LevelLookup.create(histogram(key.segment.getDataSec(), (IntBuffer) rawData.getBuffer(), key.segment, factors));
                     });
                 });
 
         globalScalingCache = Caffeine.newBuilder()
+                .executor(pipelineExecutor)
                 .maximumSize(Integer.getInteger("org.lsst.fits.imageio.globalScalingCacheSize", 10_000))
                 .recordStats()
                 .buildAsync((SegmentListAndBiasCorrection key, Executor executor) -> {
-                    LOG.log(Level.FINE, "Building global scale for {0} {1} {2}", new Object[]{key.hashCode(), key.segments.hashCode(), key.biasCorrection.hashCode()});
-                    List<CompletableFuture<ScalingUtils>> histograms = new ArrayList<>();
-                    for (Segment segment : key.segments) {
-                        histograms.add(rawDataCache.get(segment).thenApply((rawData) -> {
-                            return biasCorrectionCache.get(new SegmentAndBiasCorrection(segment, key.biasCorrection)).thenApply(correctionFactors -> {
-                                IntBuffer intData = (IntBuffer) rawData.getBuffer();
-                                return histogram(segment.getDataSec(), intData, segment, correctionFactors);
-                            }).join(); // Not clear doing a join inside the loop is optimal
-                        }));
+                    GlobalScaleStore store = GlobalScaleStore.instance();
+                    if (store == null) {
+                        return computeGlobalScale(key);
                     }
-                    return CompletableFuture.allOf(histograms.toArray(CompletableFuture[]::new)).thenApply((v) -> {
-                        try {
-                            long[] counts = new long[1 << 18];
-                            for (CompletableFuture<ScalingUtils> future : histograms) {
-                                ScalingUtils su = future.get();
-                                LOG.log(Level.FINE, "Adding bins with max {0}", su.getHighestOccupiedBin());
-                                for (int i = su.getLowestOccupiedBin(); i <= su.getHighestOccupiedBin(); i++) {
-                                    counts[i] += su.getCount(i);
-                                }
-                            }
-                            return counts;
-                        } catch (ExecutionException | InterruptedException x) {
-                            throw new RuntimeException("Error computing global scale", x);
+                    // Try the store before reading every segment of the image
+                    return CompletableFuture.supplyAsync(() -> store.get(key.segments, key.biasCorrection), executor).thenCompose(scale -> {
+                        if (scale != null) {
+                            return CompletableFuture.completedFuture(scale);
                         }
+                        return computeGlobalScale(key).thenApply(computed -> {
+                            store.put(key.segments, key.biasCorrection, computed);
+                            return computed;
+                        });
                     });
-
                 });
 
+        approximateGlobalScalingCache = Caffeine.newBuilder()
+                .executor(pipelineExecutor)
+                .maximumSize(Integer.getInteger("org.lsst.fits.imageio.globalScalingCacheSize", 10_000))
+                .recordStats()
+                .buildAsync((SegmentListAndBiasCorrection key, Executor executor) -> computeApproximateGlobalScale(key));
+
+        precomputedImages = Caffeine.newBuilder()
+                .maximumSize(Integer.getInteger("org.lsst.fits.imageio.globalScalingCacheSize", 10_000))
+                .build();
+
         linesCache = Caffeine.newBuilder()
                 .maximumSize(Integer.getInteger("org.lsst.fits.imageio.linesCacheSize", 10_000))
+                .recordStats()
                 .build((ImageInputStream in) -> {
                     return Timed.execute(() -> {
                         List<String> lines = new ArrayList<>();
@@ -180,27 +357,16 @@ public class CachingReader {
                         return lines;
                     }, "Read lines in %dms");
                 });
-        // Report stats every minute
-        Timer timer = new Timer(true);
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                report();
-            }
-        }, 60_000, 60_000);
-    }
-
-    void report() {
-        LoadingCache<SegmentCacheKey, List<Segment>> s1 = segmentCache.synchronous();
-        LOG.log(Level.INFO, "segment Cache size {0} stats {1}", new Object[]{s1.estimatedSize(), s1.stats()});
-        LoadingCache<Segment, RawData> s2 = rawDataCache.synchronous();
-        LOG.log(Level.INFO, "rawData Cache size {0} stats {1}", new Object[]{s2.estimatedSize(), s2.stats()});
-        LoadingCache<SegmentBiasCorrectionAndCounts, BufferedImage> s3 = bufferedImageCache.synchronous();
-        LOG.log(Level.INFO, "bufferedImage Cache size {0} stats {1}", new Object[]{s3.estimatedSize(), s3.stats()});
-        LoadingCache<SegmentListAndBiasCorrection, long[]> s4 = globalScalingCache.synchronous();
-        LOG.log(Level.INFO, "globalScaling Cache size {0} stats {1}", new Object[]{s4.estimatedSize(), s4.stats()});
-        LoadingCache<SegmentAndBiasCorrection, CorrectionFactors> s5 = biasCorrectionCache.synchronous();
-        LOG.log(Level.INFO, "biasCorrection Cache size {0} stats {1}", new Object[]{s5.estimatedSize(), s5.stats()});
+        Metrics metrics = Metrics.instance();
+        metrics.registerCache("segment", segmentCache);
+        metrics.registerCache("rawData", rawDataCache);
+        metrics.registerCache("bufferedImage", bufferedImageCache);
+        metrics.registerCache("pyramid", pyramidCache);
+        metrics.registerCache("levelLookup", levelLookupCache);
+        metrics.registerCache("globalScaling", globalScalingCache);
+        metrics.registerCache("approximateGlobalScaling", approximateGlobalScalingCache);
+        metrics.registerCache("biasCorrection", biasCorrectionCache);
+        metrics.registerCache("lines", linesCache);
     }
 
     int preReadImage(ImageInputStream fileInput) {
@@ -208,112 +374,644 @@ public class CachingReader {
         return lines == null ? 0 : lines.size();
     }
 
-    void readImage(ImageInputStream fileInput, Rectangle sourceRegion, Graphics2D g, RGBColorMap cmap, BiasCorrection bc, boolean showBiasRegion, char wcsLetter, long[] globalScale, Map<String, Map<String, Object>> wcsOverride) throws IOException {
+    /**
+     * Start loading, or if necessary computing, the global scale of an image
+     * in the background, the first time the image is seen, so that it is
+     * ready by the time a globally scaled read is requested.
+     *
+     * @param fileInput The image
+     * @param bc The bias correction
+     * @param wcsLetter The WCS to use when reading the segments
+     */
+    void precomputeGlobalScale(ImageInputStream fileInput, BiasCorrection bc, char wcsLetter) {
+        List<String> lines = linesCache.get(fileInput);
+        if (precomputedImages.asMap().putIfAbsent(new LinesAndBiasCorrection(lines, bc), Boolean.TRUE) != null) {
+            return;
+        }
+        List<CompletableFuture<List<Segment>>> segmentsCompletables = lines.stream()
+                .map((line) -> segmentCache.get(new SegmentCacheKey(line, wcsLetter, null)))
+                .collect(Collectors.toList());
+        CompletableFuture.allOf(segmentsCompletables.toArray(CompletableFuture[]::new))
+                .thenCompose(v -> globalScalingCache.get(new SegmentListAndBiasCorrection(concatenate(segmentsCompletables), bc)))
+                .whenComplete((scale, x) -> {
+                    if (x != null) {
+                        LOG.log(Level.WARNING, "Error precomputing global scale", x);
+                    } else {
+                        LOG.log(Level.FINE, "Global scale {0} ready for image of {1} files", new Object[]{scale, lines.size()});
+                    }
+                });
+    }
+
+    void readImage(ImageInputStream fileInput, Rectangle sourceRegion, Compositor compositor, RGBColorMap cmap, BiasCorrection bc, boolean showBiasRegion, char wcsLetter, GlobalScale globalScale, Map<String, Map<String, Object>> wcsOverride, int subsampling, boolean boxFilter, ReadTrace trace) throws IOException {
+        await(readImageAsync(fileInput, sourceRegion, compositor, cmap, bc, showBiasRegion, wcsLetter, globalScale, wcsOverride, subsampling, boxFilter, trace));
+    }
+
+    /**
+     * Start reading an image. Only the list of files is read by the calling
+     * thread, everything else is done by the pipeline executor, and each
+     * segment is drawn by the compositor as soon as it is ready.
+     *
+     * @return A future which completes once every segment has been drawn.
+     * Cancelling it abandons the draws which have not been done yet.
+     * @see PendingDraws
+     */
+    CompletableFuture<Void> readImageAsync(ImageInputStream fileInput, Rectangle sourceRegion, Compositor compositor, RGBColorMap cmap, BiasCorrection bc, boolean showBiasRegion, char wcsLetter, GlobalScale globalScale, Map<String, Map<String, Object>> wcsOverride, int subsampling, boolean boxFilter, ReadTrace trace) {
+        Queue<CompletableFuture<Void>> segmentsCompletables = new ConcurrentLinkedQueue<>();
+        PendingDraws<Void> draws = new PendingDraws<>();
+        List<String> lines;
         try {
-            Queue<CompletableFuture<Void>> segmentsCompletables = new ConcurrentLinkedQueue<>();
-            Queue<CompletableFuture<Void>> bufferedImageCompletables = new ConcurrentLinkedQueue<>();
-            List<String> lines = linesCache.get(fileInput);
-            lines.stream().map((line) -> segmentCache.get(new SegmentCacheKey(line, wcsLetter, wcsOverride))).forEach((CompletableFuture<List<Segment>> futureSegments) -> {
-                segmentsCompletables.add(futureSegments.thenAccept((List<Segment> segments) -> {
-                    List<Segment> segmentsToRead = computeSegmentsToRead(segments, sourceRegion);
-                    segmentsToRead.stream().forEach((Segment segment) -> {
-                        CompletableFuture<BufferedImage> fbi = bufferedImageCache.get(new SegmentBiasCorrectionAndCounts(segment, bc, globalScale));
-                        bufferedImageCompletables.add(fbi.thenAccept((BufferedImage bi) -> {
-                            Timed.execute(() -> {
-                                // g2=g is the graphics we are writing into
-                                Graphics2D g2 = (Graphics2D) g.create();
-                                g2.transform(segment.getWCSTranslation(showBiasRegion));
-                                BufferedImage subimage;
-                                if (showBiasRegion) {
-                                    subimage = bi;
-                                } else {
-                                    Rectangle datasec = segment.getDataSec();
-                                    subimage = bi.getSubimage(datasec.x, datasec.y, datasec.width, datasec.height);
-                                }
-                                if (cmap != CameraImageReader.DEFAULT_COLOR_MAP) {
-                                    LookupOp op = cmap.getLookupOp();
-                                    subimage = op.filter(subimage, null);
-                                }
-                                g2.drawImage(subimage, 0, 0, null);
-                                g2.dispose();
-                                return null;
-                            }, "drawImage for segment %s took %dms", segment);
-                        }));
-                    });
-                }));
+            lines = linesCache.get(fileInput);
+        } catch (CompletionException x) {
+            return CompletableFuture.failedFuture(x.getCause());
+        }
+        lines.stream().map((line) -> new SegmentCacheKey(line, wcsLetter, wcsOverride)).forEach((SegmentCacheKey key) -> {
+            CacheState headers = CacheState.of(segmentCache.asMap().get(key));
+            segmentsCompletables.add(segmentCache.get(key).thenAccept((List<Segment> segments) -> {
+                long headersTime = trace.now();
+                List<Segment> segmentsToRead = computeSegmentsToRead(segments, sourceRegion);
+                segmentsToRead.stream().forEach((Segment segment) -> {
+                    draws.draw(segment, () -> drawSegment(segment, compositor, cmap, bc, globalScale, showBiasRegion, subsampling, boxFilter, draws, trace.segment(segment, headers, headersTime)));
+                });
+            }));
+        });
+        LOG.log(Level.INFO, "Waiting for {0} files", segmentsCompletables.size());
+        // Every draw has been started once all of the files have been read
+        return draws.completeWith(CompletableFuture.allOf(segmentsCompletables.toArray(CompletableFuture[]::new)).thenCompose(v -> draws.all()));
+    }
+
+    /**
+     * Read an image scaled using the global scale of the whole image, computing
+     * it if necessary.
+     *
+     * @param approximate If true, and the exact global scale is not already
+     * available, the image is drawn using a scale estimated from a sample of
+     * the rows of each segment, while the exact scale continues to be computed
+     * in the background.
+     * @return A future which completes with the exact global scale, once it is
+     * available. If it is already complete the image was drawn with it,
+     * otherwise the image can be read again once it completes to refine it.
+     */
+    CompletableFuture<GlobalScale> readImageWithOnTheFlyGlobalScale(ImageInputStream fileInput, Rectangle sourceRegion, Compositor compositor, RGBColorMap cmap, BiasCorrection bc, boolean showBiasRegion, char wcsLetter, Map<String, Map<String, Object>> wcsOverride, int subsampling, boolean boxFilter, boolean approximate, ReadTrace trace) throws IOException {
+        return await(readImageWithOnTheFlyGlobalScaleAsync(fileInput, sourceRegion, compositor, cmap, bc, showBiasRegion, wcsLetter, wcsOverride, subsampling, boxFilter, approximate, trace));
+    }
+
+    /**
+     * Start reading an image scaled using the global scale of the whole image.
+     *
+     * @return A future which completes once every segment has been drawn, with
+     * the future exact global scale, as returned by
+     * {@link #readImageWithOnTheFlyGlobalScale(javax.imageio.stream.ImageInputStream, java.awt.Rectangle, org.lsst.fits.imageio.Compositor, org.lsst.fits.imageio.cmap.RGBColorMap, org.lsst.fits.imageio.bias.BiasCorrection, boolean, char, java.util.Map, int, boolean, boolean, org.lsst.fits.imageio.ReadTrace)}.
+     * Cancelling it abandons the draws which have not been done yet, but not
+     * the computation of the global scale.
+     * @see PendingDraws
+     */
+    CompletableFuture<CompletableFuture<GlobalScale>> readImageWithOnTheFlyGlobalScaleAsync(ImageInputStream fileInput, Rectangle sourceRegion, Compositor compositor, RGBColorMap cmap, BiasCorrection bc, boolean showBiasRegion, char wcsLetter, Map<String, Map<String, Object>> wcsOverride, int subsampling, boolean boxFilter, boolean approximate, ReadTrace trace) {
+        List<CompletableFuture<List<Segment>>> segmentsCompletables = new ArrayList<>();
+        PendingDraws<CompletableFuture<GlobalScale>> draws = new PendingDraws<>();
+        List<String> lines;
+        try {
+            lines = linesCache.get(fileInput);
+        } catch (CompletionException x) {
+            return CompletableFuture.failedFuture(x.getCause());
+        }
+        Map<Segment, CacheState> headers = new ConcurrentHashMap<>();
+        Map<Segment, Long> headersTimes = new ConcurrentHashMap<>();
+        lines.stream().map((line) -> new SegmentCacheKey(line, wcsLetter, wcsOverride)).forEach((SegmentCacheKey key) -> {
+            CacheState state = CacheState.of(segmentCache.asMap().get(key));
+            segmentsCompletables.add(segmentCache.get(key).thenApply((List<Segment> segments) -> {
+                long headersTime = trace.now();
+                segments.forEach(segment -> {
+                    headers.put(segment, state);
+                    headersTimes.put(segment, headersTime);
+                });
+                return segments;
+            }));
+        });
+        LOG.log(Level.INFO, "Waiting for {0} files", segmentsCompletables.size());
+        return draws.completeWith(CompletableFuture.allOf(segmentsCompletables.toArray(CompletableFuture[]::new)).thenCompose(v -> {
+            List<Segment> allSegments = concatenate(segmentsCompletables);
+            SegmentListAndBiasCorrection key = new SegmentListAndBiasCorrection(allSegments, bc);
+            boolean useApproximation = approximate && !isDone(globalScalingCache.getIfPresent(key));
+            CompletableFuture<GlobalScale> scale = useApproximation ? trace.globalScale(approximateGlobalScalingCache, key) : trace.globalScale(globalScalingCache, key);
+            LOG.log(Level.INFO, "Waiting for global scale");
+            return scale.thenCompose((GlobalScale globalScale) -> {
+                List<Segment> segmentsToRead = computeSegmentsToRead(allSegments, sourceRegion);
+                segmentsToRead.stream().forEach((Segment segment) -> {
+                    draws.draw(segment, () -> drawSegment(segment, compositor, cmap, bc, globalScale, showBiasRegion, subsampling, boxFilter, draws, trace.segment(segment, headers.get(segment), headersTimes.get(segment))));
+                });
+                return draws.all();
+            }).thenApply(drawn -> {
+                // Only started once the approximate image has been drawn, so its reads are not queued ahead of those needed to draw it
+                return useApproximation ? globalScalingCache.get(key) : scale;
             });
-            LOG.log(Level.INFO, "Waiting for {0} files", segmentsCompletables.size());
-            CompletableFuture.allOf(segmentsCompletables.toArray(CompletableFuture[]::new)).join();
-            LOG.log(Level.INFO, "Waiting for {0} buffered images", bufferedImageCompletables.size());
-            CompletableFuture.allOf(bufferedImageCompletables.toArray(CompletableFuture[]::new)).join();
+        }));
+    }
+
+    /**
+     * Wait for a read to complete
+     *
+     * @throws IOException If the read failed
+     */
+    static <T> T await(CompletableFuture<T> read) throws IOException {
+        try {
+            T result = read.join();
             LOG.log(Level.INFO, "Done waiting");
+            return result;
         } catch (CompletionException x) {
             Throwable cause = x.getCause();
             if (cause instanceof IOException iOException) {
                 throw iOException;
+            } else if (cause instanceof TimeoutException) {
+                throw new IOException("Image reading did not complete before its deadline", cause);
             } else {
                 throw new IOException("Unexpected exception during image reading", cause);
             }
         }
     }
 
-    void readImageWithOnTheFlyGlobalScale(ImageInputStream fileInput, Rectangle sourceRegion, Graphics2D g, RGBColorMap cmap, BiasCorrection bc, boolean showBiasRegion, char wcsLetter, Map<String, Map<String, Object>> wcsOverride) throws IOException {
+    /**
+     * The segment draws of one read. The read is complete once all of the
+     * draws are done. If the read is cancelled, or fails, first, any draws
+     * which are still pending are cancelled, and no more are started. Only
+     * the draws themselves are cancelled, never the cache entries they are
+     * waiting for, which may be shared with other reads. Instead the segments
+     * whose draws were cancelled are recorded, so that loads which are no
+     * longer wanted by any read can be deferred.
+     *
+     * @param <T> The result of the read
+     * @see #deferrable(org.lsst.fits.imageio.Segment)
+     */
+    private final class PendingDraws<T> {
 
-        try {
-            Queue<CompletableFuture<Void>> segmentsCompletables = new ConcurrentLinkedQueue<>();
-            Queue<CompletableFuture<Void>> bufferedImageCompletables = new ConcurrentLinkedQueue<>();
-            Queue<CompletableFuture<Void>> globalScaleCompletable = new ConcurrentLinkedQueue<>();
-            List<String> lines = linesCache.get(fileInput);
-            List<Segment> allSegments = new ArrayList<>();
-            lines.stream().map((line) -> segmentCache.get(new SegmentCacheKey(line, wcsLetter, wcsOverride))).forEach((CompletableFuture<List<Segment>> futureSegments) -> {
-                segmentsCompletables.add(futureSegments.thenAccept((List<Segment> segments) -> {
-                    allSegments.addAll(segments);
-                }));
+        private final CompletableFuture<T> read = new CompletableFuture<>();
+        private final Queue<CompletableFuture<Void>> draws = new ConcurrentLinkedQueue<>();
+
+        PendingDraws() {
+            read.whenComplete((result, x) -> {
+                if (x != null) {
+                    draws.forEach(draw -> draw.cancel(false));
+                }
             });
-            LOG.log(Level.INFO, "Waiting for {0} files", segmentsCompletables.size());
-            CompletableFuture.allOf(segmentsCompletables.toArray(CompletableFuture[]::new)).join();
+        }
 
-            globalScaleCompletable.add(globalScalingCache.get(new SegmentListAndBiasCorrection(allSegments, bc)).thenAccept((long[] globalScale) -> {
-                List<Segment> segmentsToRead = computeSegmentsToRead(allSegments, sourceRegion);
-                segmentsToRead.stream().forEach((Segment segment) -> {
-                    CompletableFuture<BufferedImage> fbi = bufferedImageCache.get(new SegmentBiasCorrectionAndCounts(segment, bc, globalScale));
-                    bufferedImageCompletables.add(fbi.thenAccept((BufferedImage bi) -> {
-                        Timed.execute(() -> {
-                            // g2=g is the graphics we are writing into
-                            Graphics2D g2 = (Graphics2D) g.create();
-                            g2.transform(segment.getWCSTranslation(showBiasRegion));
-                            BufferedImage subimage;
-                            if (showBiasRegion) {
-                                subimage = bi;
-                            } else {
-                                Rectangle datasec = segment.getDataSec();
-                                subimage = bi.getSubimage(datasec.x, datasec.y, datasec.width, datasec.height);
-                            }
-                            if (cmap != CameraImageReader.DEFAULT_COLOR_MAP) {
-                                LookupOp op = cmap.getLookupOp();
-                                subimage = op.filter(subimage, null);
-                            }
-                            g2.drawImage(subimage, 0, 0, null);
-                            g2.dispose();
-                            return null;
-                        }, "drawImage for segment %s took %dms", segment);
-                    }));
+        /**
+         * @return <code>true</code> if the read was cancelled or failed before
+         * all of its draws were done
+         */
+        boolean isAbandoned() {
+            return read.isCompletedExceptionally();
+        }
+
+        /**
+         * Start drawing a segment, unless the read has been abandoned.
+         *
+         * @param segment The segment
+         * @param drawer Starts the draw
+         */
+        void draw(Segment segment, Supplier<CompletableFuture<Void>> drawer) {
+            if (isAbandoned()) {
+                return;
+            }
+            if (demand.merge(segment, 1, Integer::sum) == 1) {
+                resumeDeferred(segment);
+            }
+            CompletableFuture<Void> draw = drawer.get();
+            draws.add(draw);
+            draw.whenComplete((v, x) -> {
+                // Leave a count of zero if this was the last read which wanted the segment, and it gave up
+                demand.computeIfPresent(segment, (s, n) -> n > 1 ? n - 1 : draw.isCancelled() ? 0 : null);
+            });
+            if (isAbandoned()) {
+                draw.cancel(false);
+            }
+        }
+
+        /**
+         * @return A future which completes when all the draws started so far
+         * are done
+         */
+        CompletableFuture<Void> all() {
+            LOG.log(Level.INFO, "Waiting for {0} buffered images", draws.size());
+            return CompletableFuture.allOf(draws.toArray(CompletableFuture[]::new));
+        }
+
+        /**
+         * Complete the read with the given result.
+         *
+         * @param result The future result, once all of the draws are done
+         * @return The future for the read
+         */
+        CompletableFuture<T> completeWith(CompletableFuture<T> result) {
+            result.whenComplete((r, x) -> {
+                if (x == null) {
+                    read.complete(r);
+                } else {
+                    read.completeExceptionally(x instanceof CompletionException ? x.getCause() : x);
+                }
+            });
+            return read;
+        }
+    }
+
+    private static boolean isApproximate(GlobalScale scale) {
+        return scale != null && scale.isApproximate();
+    }
+
+    /**
+     * Create an expiry for a cache whose keys may include a global scale.
+     * Entries made with an approximate scale are dropped once they have not
+     * been used for a while, since once the exact scale is known they are no
+     * longer wanted, rather than occupying the cache until they are evicted.
+     * Other entries never expire.
+     *
+     * @param <K> The type of key
+     * @param <V> The type of value
+     * @param scale Gets the global scale of a key, which may be
+     * <code>null</code>
+     * @return The expiry
+     */
+    private static <K, V> Expiry<K, V> expireApproximate(Function<K, GlobalScale> scale) {
+        return new Expiry<K, V>() {
+            @Override
+            public long expireAfterCreate(K key, V value, long currentTime) {
+                return isApproximate(scale.apply(key)) ? APPROXIMATE_ENTRY_EXPIRY_NANOS : Long.MAX_VALUE;
+            }
+
+            @Override
+            public long expireAfterUpdate(K key, V value, long currentTime, long currentDuration) {
+                return expireAfterCreate(key, value, currentTime);
+            }
+
+            @Override
+            public long expireAfterRead(K key, V value, long currentTime, long currentDuration) {
+                return expireAfterCreate(key, value, currentTime);
+            }
+        };
+    }
+
+    private static boolean isDone(CompletableFuture<?> future) {
+        return future != null && future.isDone() && !future.isCompletedExceptionally();
+    }
+
+    /**
+     * Draw one segment into its region of the destination. When the image is being subsampled
+     * the coarsest pyramid level which still has at least the requested
+     * resolution is drawn, rather than the full resolution image.
+     *
+     * @param subsampling The subsampling of the image being read
+     * @param boxFilter If true, and the segment is rendered directly at the
+     * subsampled resolution, each pixel is the average of the pixels it covers
+     * @param read The draws of the read, nothing is drawn if it has been
+     * cancelled
+     * @param trace The trace of the segment
+     * @return A future which completes once the segment has been drawn
+     */
+    private CompletableFuture<Void> drawSegment(Segment segment, Compositor compositor, RGBColorMap cmap, BiasCorrection bc, GlobalScale globalScale, boolean showBiasRegion, int subsampling, boolean boxFilter, PendingDraws<?> read, SegmentTrace trace) {
+        int factor = showBiasRegion ? 1 : pyramidFactor(subsampling);
+        if (DIRECT_SUBSAMPLING && !showBiasRegion && factor != subsampling && segment.getBitpix() == 32) {
+            return drawSubsampledSegment(segment, compositor, cmap, bc, globalScale, boxFilter, read, trace);
+        }
+        // The state of the entries needed to create the image, before its loader requests them
+        CacheState rawData = CacheState.of(rawDataCache.asMap().get(segment));
+        CacheState factors = CacheState.of(biasCorrectionCache.asMap().get(new SegmentAndBiasCorrection(segment, bc)));
+        CompletableFuture<BufferedImage> fbi;
+        CompletableFuture<BufferedImage> cached;
+        if (factor == 1) {
+            SegmentBiasCorrectionAndScale key = new SegmentBiasCorrectionAndScale(segment, bc, globalScale);
+            cached = trace.cache("bufferedImage", bufferedImageCache, key);
+            fbi = bufferedImageCache.get(key).thenApply((BufferedImage bi) -> {
+                if (showBiasRegion) {
+                    return bi;
+                } else {
+                    Rectangle datasec = segment.getDataSec();
+                    return bi.getSubimage(datasec.x, datasec.y, datasec.width, datasec.height);
+                }
+            });
+        } else {
+            SegmentPyramidLevel key = new SegmentPyramidLevel(segment, bc, globalScale, factor);
+            cached = trace.cache("pyramid", pyramidCache, key);
+            fbi = pyramidCache.get(key);
+        }
+        if (CacheState.of(cached) != CacheState.HIT) {
+            trace.cache("rawData", rawData);
+            trace.cache("biasCorrection", factors);
+            CompletableFuture<RawData> futureRawData = rawDataCache.asMap().get(segment);
+            if (futureRawData != null) {
+                // The loader may run before this is called back, so use the time the data was loaded
+                futureRawData.thenAccept(raw -> trace.event(Event.RAW_DATA, raw.getLoadTime()));
+            }
+        }
+        trace.eventWhenComplete(Event.IMAGE, fbi);
+        return fbi.thenAcceptAsync((BufferedImage bi) -> {
+            if (read.isAbandoned()) {
+                return;
+            }
+            trace.event(Event.STARTED);
+            Timed.execute(Stage.COMPOSITE, () -> {
+                AffineTransform imageToWCS = new AffineTransform(segment.getWCSTranslation(showBiasRegion));
+                imageToWCS.scale(factor, factor);
+                BufferedImage colored = withColorMap(bi, cmap);
+                if (factor == 1) {
+                    compositor.draw(colored, imageToWCS);
+                } else {
+                    Rectangle datasec = segment.getDataSec();
+                    compositor.draw(colored, imageToWCS, datasec.getWidth() / factor, datasec.getHeight() / factor);
+                }
+                return null;
+            }, "drawImage for segment %s took %dms", segment);
+            trace.event(Event.DRAWN);
+        }, executor);
+    }
+
+    /**
+     * Draw a segment by rendering only the pixels which will appear in the
+     * destination, directly from the raw data.
+     */
+    private CompletableFuture<Void> drawSubsampledSegment(Segment segment, Compositor compositor, RGBColorMap cmap, BiasCorrection bc, GlobalScale globalScale, boolean boxFilter, PendingDraws<?> read, SegmentTrace trace) {
+        SegmentBiasCorrectionAndScale lookupKey = new SegmentBiasCorrectionAndScale(globalScale == null ? segment : null, bc, globalScale);
+        SegmentAndBiasCorrection factorsKey = new SegmentAndBiasCorrection(segment, bc);
+        trace.cache("levelLookup", levelLookupCache, lookupKey);
+        trace.cache("rawData", rawDataCache, segment);
+        trace.cache("biasCorrection", biasCorrectionCache, factorsKey);
+        CompletableFuture<LevelLookup> lookup = levelLookupCache.get(lookupKey);
+        CompletableFuture<CorrectionFactors> correctionFactors = biasCorrectionCache.get(factorsKey);
+        trace.eventWhenComplete(Event.IMAGE, CompletableFuture.allOf(lookup, correctionFactors));
+        return retainRawData(segment).thenCompose(rawData -> {
+            trace.event(Event.RAW_DATA, rawData.getLoadTime());
+            return lookup.thenAcceptBothAsync(correctionFactors, (LevelLookup levelLookup, CorrectionFactors factors) -> {
+                // The render is not cached, so is not worth doing for a cancelled read
+                if (read.isAbandoned()) {
+                    return;
+                }
+                trace.event(Event.STARTED);
+                AffineTransform segmentToDevice = compositor.getTransform();
+                segmentToDevice.concatenate(segment.getWCSTranslation(false));
+                Rendered rendered = Timed.execute(Stage.RENDER, () -> {
+                    return SubsampledRenderer.render((IntBuffer) rawData.getBuffer(), segment, factors, levelLookup, segmentToDevice, compositor.getBounds(), boxFilter);
+                }, "subsampled render for segment %s took %dms", segment);
+                trace.event(Event.RENDERED);
+                if (rendered != null) {
+                    Timed.execute(Stage.COMPOSITE, () -> {
+                        compositor.drawDevice(withColorMap(rendered.image(), cmap), rendered.bounds().x, rendered.bounds().y);
+                        return null;
+                    }, "subsampled draw for segment %s took %dms", segment);
+                }
+                trace.event(Event.DRAWN);
+            }, executor).whenComplete((v, x) -> rawData.release());
+        });
+    }
+
+    /**
+     * Choose the pyramid level to use for the given subsampling
+     *
+     * @param subsampling The requested subsampling
+     * @return The binning factor of the level, or 1 for the full resolution
+     * image
+     */
+    static int pyramidFactor(int subsampling) {
+        if (!USE_PYRAMID || subsampling <= 1) {
+            return 1;
+        }
+        return Math.min(Integer.highestOneBit(subsampling), 1 << MAX_PYRAMID_LEVEL);
+    }
+
+    /**
+     * Get the raw data for a segment, with a reference added so that its buffer
+     * cannot be recycled while in use, even if it is evicted from the cache.
+     * The caller must call {@link RawData#release()} when done.
+     *
+     * @param segment The segment to read
+     * @return The future retained raw data
+     */
+    private CompletableFuture<RawData> retainRawData(Segment segment) {
+        return rawDataCache.get(segment).thenCompose((rawData) -> {
+            if (rawData.retain()) {
+                return CompletableFuture.completedFuture(rawData);
+            } else {
+                // Evicted and released before we got to it, so read it again
+                return retainRawData(segment);
+            }
+        });
+    }
+
+    /**
+     * Create the image for a segment, from its (bias corrected) raw data.
+     *
+     * @param key The segment, bias correction and scale to use
+     * @return The future image
+     */
+    private CompletableFuture<BufferedImage> renderBufferedImage(SegmentBiasCorrectionAndScale key) {
+        return withRawDataAndFactors(key.segment, key.biasCorrection, deferrable(key.segment), (rawData, factors) -> {
+            return Timed.execute(Stage.RENDER, () -> {
+                // The type of the buffer has been checked, so the casts are safe
+                if (rawData.getBuffer() instanceof IntBuffer) {
+                    @SuppressWarnings("unchecked")
+                    RawData<IntBuffer> intData = (RawData<IntBuffer>) rawData;
+                    return createBufferedImage(intData, factors, key.scale);
+                } else {
+                    @SuppressWarnings("unchecked")
+                    RawData<FloatBuffer> floatData = (RawData<FloatBuffer>) rawData;
+                    return createBufferedImage(floatData);
+                }
+            }, "Loading buffered image for segment %s took %dms", key.segment);
+        });
+    }
+
+    /**
+     * Apply a function to the raw data and correction factors of a segment,
+     * once both are available. The two are requested
+     * at the same time, and the raw data is retained until the function
+     * completes (or either input fails), so the function can use its buffer.
+     *
+     * @param segment The segment
+     * @param bc The bias correction
+     * @param functionExecutor The executor on which to apply the function
+     * @param function The function to apply
+     * @return The future result of the function
+     */
+    private <T> CompletableFuture<T> withRawDataAndFactors(Segment segment, BiasCorrection bc, Executor functionExecutor, BiFunction<RawData, CorrectionFactors, T> function) {
+        CompletableFuture<CorrectionFactors> futureFactors = biasCorrectionCache.get(new SegmentAndBiasCorrection(segment, bc));
+        return retainRawData(segment).thenCompose(rawData -> {
+            return futureFactors.thenApplyAsync(factors -> function.apply(rawData, factors), functionExecutor).whenComplete((result, x) -> rawData.release());
+        });
+    }
+
+    /**
+     * Get an executor for loading and rendering the data of a segment for
+     * drawing. If, by the time a task gets to run, every read which wanted the
+     * segment has been cancelled, the task is passed on to the background
+     * executor rather than holding up the reads which are still wanted. The
+     * task still runs, so the cache entry it is loading (which may be shared)
+     * still completes, and is there if the segment is wanted again. If a read
+     * wants the segment again before the task has started, it is moved back
+     * to the pipeline executor.
+     *
+     * @param segment The segment being loaded
+     * @return The executor
+     */
+    private Executor deferrable(Segment segment) {
+        return (Runnable task) -> executor.execute(() -> {
+            if (isUnwanted(segment)) {
+                DeferredTask deferredTask = new DeferredTask(segment, task);
+                deferred.compute(segment, (s, tasks) -> {
+                    List<DeferredTask> result = tasks == null ? new ArrayList<>() : tasks;
+                    result.add(deferredTask);
+                    return result;
                 });
+                backgroundExecutor.execute(deferredTask);
+                // A read may have wanted the segment again before the task was recorded
+                if (!isUnwanted(segment)) {
+                    resumeDeferred(segment);
+                }
+            } else {
+                task.run();
+            }
+        });
+    }
+
+    /**
+     * @return <code>true</code> if every read which wanted the segment has
+     * been cancelled
+     */
+    private boolean isUnwanted(Segment segment) {
+        Integer wanted = demand.get(segment);
+        return wanted != null && wanted == 0;
+    }
+
+    /**
+     * Move the tasks deferred for a segment back to the pipeline executor.
+     * Each task is run by whichever executor gets to it first.
+     *
+     * @param segment The segment which is wanted again
+     */
+    private void resumeDeferred(Segment segment) {
+        List<DeferredTask> tasks = deferred.remove(segment);
+        if (tasks != null) {
+            LOG.log(Level.FINE, "Resuming {0} deferred tasks for {1}", new Object[]{tasks.size(), segment});
+            tasks.forEach(executor::execute);
+        }
+    }
+
+    /**
+     * A task deferred to the background executor, which may also be moved
+     * back to the pipeline executor, but only runs once.
+     */
+    private final class DeferredTask implements Runnable {
+
+        private final Segment segment;
+        private final Runnable task;
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        DeferredTask(Segment segment, Runnable task) {
+            this.segment = segment;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            if (started.compareAndSet(false, true)) {
+                deferred.computeIfPresent(segment, (s, tasks) -> {
+                    tasks.remove(this);
+                    return tasks.isEmpty() ? null : tasks;
+                });
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Compute a global scale by histogramming every segment of the image.
+     *
+     * @param key The segments and bias correction to use
+     * @return The future scale
+     */
+    private CompletableFuture<GlobalScale> computeGlobalScale(SegmentListAndBiasCorrection key) {
+        LOG.log(Level.FINE, "Building global scale for {0} {1} {2}", new Object[]{key.hashCode(), key.segments.hashCode(), key.biasCorrection.hashCode()});
+        List<CompletableFuture<Histogram>> histograms = new ArrayList<>();
+        for (Segment segment : key.segments) {
+            histograms.add(withRawDataAndFactors(segment, key.biasCorrection, executor, (rawData, correctionFactors) -> {
+                IntBuffer intData = (IntBuffer) rawData.getBuffer();
+                return Histogram.fill(intData, segment, correctionFactors);
             }));
+        }
+        return CompletableFuture.allOf(histograms.toArray(CompletableFuture[]::new)).thenApply((v) -> {
+            long[] counts = new long[Histogram.NBINS];
+            for (CompletableFuture<Histogram> future : histograms) {
+                // All of the histograms are complete, so this does not wait
+                Histogram histogram = future.join();
+                LOG.log(Level.FINE, "Adding bins with max {0}", histogram.getHighestBin());
+                histogram.addTo(counts);
+            }
+            return GlobalScale.intern(counts);
+        });
+    }
 
-            LOG.log(Level.INFO, "Waiting for {0} global scales", globalScaleCompletable.size());
-            CompletableFuture.allOf(globalScaleCompletable.toArray(CompletableFuture[]::new)).join();
-            LOG.log(Level.INFO, "Waiting for {0} buffered images", bufferedImageCompletables.size());
-            CompletableFuture.allOf(bufferedImageCompletables.toArray(CompletableFuture[]::new)).join();
-            LOG.log(Level.INFO, "Done waiting");
-        } catch (CompletionException x) {
-            Throwable cause = x.getCause();
-            if (cause instanceof IOException iOException) {
-                throw iOException;
+    /**
+     * Estimate a global scale from a sample of the rows of each segment of the
+     * image. Segments whose full raw data is already loaded are histogrammed
+     * exactly, the others are only partially decoded.
+     *
+     * @param key The segments and bias correction to use
+     * @return The future approximate scale
+     * @see Segment#readSampledRawDataAsync(int, java.util.concurrent.Executor)
+     */
+    private CompletableFuture<GlobalScale> computeApproximateGlobalScale(SegmentListAndBiasCorrection key) {
+        LOG.log(Level.FINE, "Estimating global scale for {0} segments", key.segments.size());
+        List<CompletableFuture<Histogram>> histograms = new ArrayList<>();
+        for (Segment segment : key.segments) {
+            if (isDone(rawDataCache.getIfPresent(segment))) {
+                histograms.add(withRawDataAndFactors(segment, key.biasCorrection, executor, (rawData, correctionFactors) -> {
+                    return Histogram.fill((IntBuffer) rawData.getBuffer(), segment, correctionFactors);
+                }));
             } else {
-                throw new IOException("Unexpected exception during image reading", cause);
+                histograms.add(segment.readSampledRawDataAsync(GLOBAL_SCALE_SAMPLE_STRIDE, executor).thenApply(rawData -> {
+                    try {
+                        IntBuffer intData = (IntBuffer) rawData.getBuffer();
+                        return Histogram.fill(intData, segment, key.biasCorrection.compute(intData, segment));
+                    } finally {
+                        rawData.release();
+                    }
+                }));
             }
         }
+        return CompletableFuture.allOf(histograms.toArray(CompletableFuture[]::new)).thenApply((v) -> {
+            long[] counts = new long[Histogram.NBINS];
+            for (CompletableFuture<Histogram> future : histograms) {
+                // All of the histograms are complete, so this does not wait
+                future.join().addTo(counts);
+            }
+            return GlobalScale.approximate(counts);
+        });
+    }
+
+    /**
+     * Concatenate the segments of each file in the order the files are
+     * listed, so that a given image always gives the same list of segments,
+     * and hence the same global scale cache key.
+     *
+     * @param segmentsCompletables The segments of each file, all of which
+     * must be complete
+     * @return The list of all the segments
+     */
+    private static List<Segment> concatenate(List<CompletableFuture<List<Segment>>> segmentsCompletables) {
+        return segmentsCompletables.stream().flatMap(future -> future.join().stream()).collect(Collectors.toList());
+    }
+
+    /**
+     * Create the executor used by default for loading and drawing segments. Its
+     * threads are daemon threads, and tasks are run in the order they are
+     * submitted.
+     *
+     * @param threads The number of threads
+     * @return The executor
+     */
+    private static ForkJoinPool createExecutor(String name, int threads) {
+        ForkJoinWorkerThreadFactory factory = (ForkJoinPool pool) -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(name + thread.getPoolIndex());
+            return thread;
+        };
+        return new ForkJoinPool(threads, factory, null, true);
     }
 
     private List<Segment> computeSegmentsToRead(List<Segment> segments, Rectangle sourceRegion) {
@@ -366,79 +1064,45 @@ public class CachingReader {
 
     private static List<Segment> readFitsFileSegment(File file, char wcsLetter, Map<String, Map<String, Object>> wcsOverride) throws IOException, TruncatedFileException, FitsException {
         List<Segment> result = new ArrayList<>();
-        String ccdSlot = null;
-        String raftBay = null;
-        int nSegments = 16;
-        boolean isDMFile = false;
-        try ( BufferedFile bf = new BufferedFile(file, "r")) {
-            for (int i = 0; i < nSegments + 1; i++) {
-                Header header = new Header(bf);
-                if (i == 0) {
-                    raftBay = header.getStringValue("RAFTBAY");
-                    ccdSlot = header.getStringValue("CCDSLOT");
-                    long expId = header.getLongValue("EXPID");
-                    if (ccdSlot == null) {
-                        ccdSlot = header.getStringValue("SENSNAME");
-                    }
-                    if (ccdSlot == null) {
-                        throw new IOException("Missing CCDSLOT while reading " + file);
-                    }
-                    if (expId != 0) { // Crude way to test if this is a DM file
-                        nSegments = 1;
-                        isDMFile = true;
-                    } else if (ccdSlot.startsWith("SW")) {
-                        nSegments = 8;
-                    }
-                    boolean isGuiderFile = header.containsKey("N_STAMPS");
-                    if (isGuiderFile) {
-                        LOG.log(Level.INFO, "skipping guider file {0}", file);
-                        break;
-                    }
-                }
-                if (i > 0) {
-                    if (isDMFile) {
-                        // This is correct for a single CCD (e.g. AuxTel)
-                        // Will need more work for the general case
-                        wcsLetter = 'D';
-                        Map<String, Object> dmWCSOverride = new HashMap<>();
-                        boolean isCompressed = header.getBooleanValue("ZIMAGE");
-                        int naxis1, naxis2;
-                        if (isCompressed) {
-                            naxis1 = header.getIntValue("ZNAXIS1");
-                            naxis2 = header.getIntValue("ZNAXIS2");
-                        } else {
-                            naxis1 = header.getIntValue("NAXIS1");
-                            naxis2 = header.getIntValue("NAXIS2");
-                        }
-                        dmWCSOverride.put("DATASEC", String.format("[1:%d,1:%d]", naxis1, naxis2));
-                        dmWCSOverride.put("PC1_1D", 1.0);
-                        dmWCSOverride.put("PC1_2D", 0.0);
-                        dmWCSOverride.put("PC2_1D", 0.0);
-                        dmWCSOverride.put("PC2_2D", 1.0);
-                        dmWCSOverride.put("CRVAL1D", 0);
-                        dmWCSOverride.put("CRVAL2D", 0);
-                        Segment segment = new Segment(header, file, bf, raftBay, ccdSlot, wcsLetter, dmWCSOverride);
-                        result.add(segment);
-                    } else {
-                        String extName = header.getStringValue("EXTNAME");
-                        String wcsKey = String.format("%s/%s/%s", raftBay, ccdSlot, extName.substring(7, 9));
-                        Segment segment = new Segment(header, file, bf, raftBay, ccdSlot, wcsLetter, wcsOverride == null ? null : wcsOverride.get(wcsKey));
-                        result.add(segment);
-                    }
-                }
+        HeaderIndex.FileHeaders headers = HeaderIndex.getHeaders(file);
+        String raftBay = headers.raftBay();
+        String ccdSlot = headers.ccdSlot();
+        if (headers.isGuiderFile()) {
+            LOG.log(Level.INFO, "skipping guider file {0}", file);
+            return result;
+        }
+        for (SegmentHeader header : headers.segments()) {
+            if (headers.isDMFile()) {
+                // This is correct for a single CCD (e.g. AuxTel)
+                // Will need more work for the general case
+                Map<String, Object> dmWCSOverride = new HashMap<>();
+                dmWCSOverride.put("DATASEC", String.format("[1:%d,1:%d]", header.nAxis1(), header.nAxis2()));
+                dmWCSOverride.put("PC1_1D", 1.0);
+                dmWCSOverride.put("PC1_2D", 0.0);
+                dmWCSOverride.put("PC2_1D", 0.0);
+                dmWCSOverride.put("PC2_2D", 1.0);
+                dmWCSOverride.put("CRVAL1D", 0);
+                dmWCSOverride.put("CRVAL2D", 0);
+                Segment segment = new Segment(header, file, raftBay, ccdSlot, 'D', dmWCSOverride);
+                result.add(segment);
+            } else {
+                String extName = header.extName();
+                String wcsKey = String.format("%s/%s/%s", raftBay, ccdSlot, extName.substring(7, 9));
+                Segment segment = new Segment(header, file, raftBay, ccdSlot, wcsLetter, wcsOverride == null ? null : wcsOverride.get(wcsKey));
+                result.add(segment);
             }
         }
         return result;
     }
 
-    private static BufferedImage createBufferedImage(RawData<FloatBuffer> rawData) {
+    static BufferedImage createBufferedImage(RawData<FloatBuffer> rawData) {
         FloatBuffer floatBuffer = rawData.getBuffer();
 
         EnhancedScalingUtils esu = new EnhancedScalingUtils(floatBuffer, CameraImageReader.DEFAULT_COLOR_MAP);
         Segment segment = rawData.getSegment();
         Rectangle datasec = segment.getDataSec();
 
-        BufferedImage image = CameraImageReader.IMAGE_TYPE.createBufferedImage(segment.getNAxis1(), segment.getNAxis2());
+        BufferedImage image = createLevelImage(segment.getNAxis1(), segment.getNAxis2());
         WritableRaster raster = image.getRaster();
         DataBuffer db = raster.getDataBuffer();
 
@@ -446,66 +1110,205 @@ public class CachingReader {
             int p = datasec.x + y * segment.getNAxis1();
             for (int x = datasec.x; x < datasec.width + datasec.x; x++) {
                 float f = floatBuffer.get(p);
-                db.setElem(p, esu.getRGB(f));
+                db.setElem(p, esu.getLevel(f));
                 p++;
             }
         }
         return image;
     }
 
-    private static BufferedImage createBufferedImage(RawData<IntBuffer> rawData, CorrectionFactors factors, long[] globalScale) {
-        IntBuffer intBuffer = rawData.getBuffer();
-        Segment segment = rawData.getSegment();
+    private static BufferedImage createBufferedImage(RawData<IntBuffer> rawData, CorrectionFactors factors, GlobalScale globalScale) {
+        return createBufferedImage(rawData.getBuffer(), rawData.getSegment(), factors, globalScale);
+    }
+
+    static BufferedImage createBufferedImage(IntBuffer intBuffer, Segment segment, CorrectionFactors factors, GlobalScale globalScale) {
         Rectangle datasec = segment.getDataSec();
-        // Apply bias correction
-        ScalingUtils su;
+        BufferedImage image = createLevelImage(segment.getNAxis1(), segment.getNAxis2());
+        DataBuffer db = image.getRaster().getDataBuffer();
         if (globalScale != null) {
-            su = new ScalingUtils(globalScale);
+            ScalingUtils su = computeScale(datasec, intBuffer, segment, factors, globalScale);
+            copyAndScaleData(datasec, segment, computeLevelLookup(su), su.getLowestOccupiedBin(), intBuffer, factors, db);
+        } else {
+            // Bias correct and histogram in one pass, keeping the corrected values
+            int[] corrected = correctedScratch(datasec.width * datasec.height);
+            ScalingUtils su = new ScalingUtils(Histogram.fill(intBuffer, segment, factors, corrected));
+            scaleCorrectedData(datasec, segment, computeLevelLookup(su), su.getLowestOccupiedBin(), corrected, db);
+        }
+        return image;
+    }
+
+    /**
+     * Get a per thread scratch array for bias corrected values, grown as
+     * needed.
+     */
+    private static int[] correctedScratch(int size) {
+        int[] scratch = CORRECTED_SCRATCH.get();
+        if (scratch.length < size) {
+            scratch = new int[size];
+            CORRECTED_SCRATCH.set(scratch);
+        }
+        return scratch;
+    }
+
+    private static ScalingUtils computeScale(Rectangle datasec, IntBuffer intBuffer, Segment segment, CorrectionFactors factors, GlobalScale globalScale) {
+        if (globalScale != null) {
+            ScalingUtils su = new ScalingUtils(globalScale.counts());
             LOG.log(Level.FINE, "Global scale max {0}", su.getHighestOccupiedBin());
+            return su;
         } else {
-            su = histogram(datasec, intBuffer, segment, factors);
+            return histogram(datasec, intBuffer, segment, factors);
         }
-        final int max = su.getHighestOccupiedBin();
-        int[] cdf = su.computeCDF();
+    }
 
-        int range = cdf[max];
+    /**
+     * Convert the CDF into a table mapping each (bias corrected) pixel value to
+     * a level (0-255), which is an index into the color map. Only the occupied
+     * bins are included, element 0 corresponds to the lowest occupied bin.
+     */
+    static int[] computeLevelLookup(ScalingUtils su) {
+        int[] cdf = su.computeOccupiedCDF();
+
+        int range = cdf[cdf.length - 1];
         range = 1 + range / 256;
-        for (int i = su.getLowestOccupiedBin(); i <= max; i++) {
-            cdf[i] = CameraImageReader.DEFAULT_COLOR_MAP.getRGB(cdf[i] / range);
+        for (int i = 0; i < cdf.length; i++) {
+            cdf[i] = cdf[i] / range;
         }
+        return cdf;
+    }
 
-        // Scale data 
-        BufferedImage image = CameraImageReader.IMAGE_TYPE.createBufferedImage(segment.getNAxis1(), segment.getNAxis2());
-        WritableRaster raster = image.getRaster();
-        DataBuffer db = raster.getDataBuffer();
-//        Used for testing bias region
-//        Graphics2D graphics = image.createGraphics();        
-//        graphics.setColor(Color.GREEN);
-//        graphics.fillRect(0, 0, datasec.x, segment.getNAxis2());
-//        graphics.setColor(Color.RED);
-//        graphics.fillRect(datasec.x + datasec.width, 0, segment.getNAxis1() - datasec.x - datasec.width, segment.getNAxis2());
-//        graphics.setColor(Color.BLUE);
-//        graphics.fillRect(datasec.x, datasec.y + datasec.height, datasec.width, segment.getNAxis2());
-        copyAndScaleData(datasec, segment, cdf, intBuffer, factors, db, max);
+    /**
+     * Look up the level for a value, values outside of the occupied bins map
+     * to level 0.
+     */
+    private static int level(int[] levels, int lowest, int value) {
+        int i = value - lowest;
+        return i >= 0 && i < levels.length ? levels[i] : 0;
+    }
+
+    /**
+     * Create an 8 bit image of levels, initially displayed using the default
+     * color map.
+     *
+     * @param width The width of the image
+     * @param height The height of the image
+     * @return The image
+     */
+    static BufferedImage createLevelImage(int width, int height) {
+        IndexColorModel colorModel = CameraImageReader.DEFAULT_COLOR_MAP.getIndexColorModel();
+        return new BufferedImage(colorModel, colorModel.createCompatibleWritableRaster(width, height), false, null);
+    }
+
+    /**
+     * Get a view of an image of levels which is displayed using the given
+     * color map. The pixels are shared, not copied.
+     *
+     * @param image The image of levels
+     * @param cmap The color map
+     * @return The image using the color map
+     */
+    static BufferedImage withColorMap(BufferedImage image, RGBColorMap cmap) {
+        IndexColorModel colorModel = cmap.getIndexColorModel();
+        if (image.getColorModel().equals(colorModel)) {
+            return image;
+        }
+        return new BufferedImage(colorModel, image.getRaster(), false, null);
+    }
+
+    /**
+     * Create an image of the datasec region of a segment binned by the given
+     * factor. Each pixel is the mean of the (bias corrected) values of a
+     * factor x factor block of pixels, scaled using the same scale as the full
+     * resolution image.
+     */
+    private static BufferedImage createBinnedImage(RawData<IntBuffer> rawData, CorrectionFactors factors, GlobalScale globalScale, int factor) {
+        IntBuffer intBuffer = rawData.getBuffer();
+        Segment segment = rawData.getSegment();
+        Rectangle datasec = segment.getDataSec();
+        ScalingUtils su = computeScale(datasec, intBuffer, segment, factors, globalScale);
+        int[] levels = computeLevelLookup(su);
+        int lowest = su.getLowestOccupiedBin();
+
+        int width = (datasec.width + factor - 1) / factor;
+        int height = (datasec.height + factor - 1) / factor;
+        BufferedImage image = createLevelImage(width, height);
+        DataBuffer db = image.getRaster().getDataBuffer();
+        long[] sums = new long[width];
+        int[] n = new int[width];
+        BiasVectors bias = new BiasVectors(factors, datasec);
+        for (int j = 0; j < height; j++) {
+            Arrays.fill(sums, 0);
+            Arrays.fill(n, 0);
+            int yEnd = Math.min(datasec.y + (j + 1) * factor, datasec.y + datasec.height);
+            for (int y = datasec.y + j * factor; y < yEnd; y++) {
+                int p = datasec.x + y * segment.getNAxis1();
+                int serial = bias.serial(y);
+                int[] parallel = bias.parallel(y);
+                for (int x = 0; x < datasec.width; x++) {
+                    sums[x / factor] += Math.max(intBuffer.get(p + x) - serial - parallel[x], 0);
+                    n[x / factor]++;
+                }
+            }
+            for (int i = 0; i < width; i++) {
+                db.setElem(i + j * width, level(levels, lowest, (int) (sums[i] / n[i])));
+            }
+        }
         return image;
     }
 
-    private static void copyAndScaleData(Rectangle datasec, Segment segment, int[] cdf, IntBuffer intBuffer, BiasCorrection.CorrectionFactors factors, DataBuffer db, int max) {
+    private static BufferedImage createBinnedImage(RawData<FloatBuffer> rawData, int factor) {
+        FloatBuffer floatBuffer = rawData.getBuffer();
+        EnhancedScalingUtils esu = new EnhancedScalingUtils(floatBuffer, CameraImageReader.DEFAULT_COLOR_MAP);
+        Segment segment = rawData.getSegment();
+        Rectangle datasec = segment.getDataSec();
+
+        int width = (datasec.width + factor - 1) / factor;
+        int height = (datasec.height + factor - 1) / factor;
+        BufferedImage image = createLevelImage(width, height);
+        DataBuffer db = image.getRaster().getDataBuffer();
+        double[] sums = new double[width];
+        int[] n = new int[width];
+        for (int j = 0; j < height; j++) {
+            Arrays.fill(sums, 0);
+            Arrays.fill(n, 0);
+            int yEnd = Math.min(datasec.y + (j + 1) * factor, datasec.y + datasec.height);
+            for (int y = datasec.y + j * factor; y < yEnd; y++) {
+                int p = datasec.x + y * segment.getNAxis1();
+                for (int x = 0; x < datasec.width; x++) {
+                    sums[x / factor] += floatBuffer.get(p + x);
+                    n[x / factor]++;
+                }
+            }
+            for (int i = 0; i < width; i++) {
+                db.setElem(i + j * width, esu.getLevel((float) (sums[i] / n[i])));
+            }
+        }
+        return image;
+    }
+
+    private static void copyAndScaleData(Rectangle datasec, Segment segment, int[] levels, int lowest, IntBuffer intBuffer, BiasCorrection.CorrectionFactors factors, DataBuffer db) {
+        byte[] pixels = ((DataBufferByte) db).getData();
+        BiasVectors bias = new BiasVectors(factors, datasec);
+        PixelKernels kernels = PixelKernels.getInstance();
+        int[] row = new int[datasec.width];
         for (int y = datasec.y; y < datasec.height + datasec.y; y++) {
             int p = datasec.x + y * segment.getNAxis1();
-            for (int x = datasec.x; x < datasec.width + datasec.x; x++) {
-                final int correctionFactor = factors.correctionFactor(x, y);
-//                if (correctionFactor < 0) {
-//                    LOG.log(Level.WARNING, "Negative correction factor for {0} {1} {2} {3}", new Object[]{segment, x, y, correctionFactor});
-//                }
-                final int bin = Math.max(intBuffer.get(p) - correctionFactor, 0);
-//                if (bin > max) {
-//                    LOG.log(Level.WARNING, "Bin greater than max {0} {1} {2} {3} {4}", new Object[]{segment, x, y, bin, max});                    
-//                }
-                int rgb = cdf[bin];
-                db.setElem(p, rgb);
-                p++;
-            }
+            kernels.subtractAndClamp(intBuffer, p, bias.serial(y), bias.parallel(y), row, 0, datasec.width);
+            kernels.lookup(row, 0, levels, lowest, pixels, p, datasec.width);
+        }
+    }
+
+    /**
+     * Scale bias corrected values, as stored by
+     * {@link Histogram#fill(IntBuffer, Segment, CorrectionFactors, int[])},
+     * into the image.
+     */
+    private static void scaleCorrectedData(Rectangle datasec, Segment segment, int[] levels, int lowest, int[] corrected, DataBuffer db) {
+        byte[] pixels = ((DataBufferByte) db).getData();
+        PixelKernels kernels = PixelKernels.getInstance();
+        int q = 0;
+        for (int y = datasec.y; y < datasec.height + datasec.y; y++) {
+            kernels.lookup(corrected, q, levels, lowest, pixels, datasec.x + y * segment.getNAxis1(), datasec.width);
+            q += datasec.width;
         }
     }
 
@@ -519,16 +1322,7 @@ public class CachingReader {
      * @return The ScalingUtils object built from the histogram
      */
     private static ScalingUtils histogram(Rectangle datasec, IntBuffer intBuffer, Segment segment, BiasCorrection.CorrectionFactors factors) {
-        // Note: This is hardwired for Camera (18 bit) integer data
-        int[] count = new int[1 << 18];
-        for (int y = datasec.y; y < datasec.height + datasec.y; y++) {
-            int p = datasec.x + y * segment.getNAxis1();
-            for (int x = datasec.x; x < datasec.width + datasec.x; x++) {
-                count[Math.max(intBuffer.get(p) - factors.correctionFactor(x, y), 0)]++;
-                p++;
-            }
-        }
-        return new ScalingUtils(count);
+        return new ScalingUtils(Histogram.fill(intBuffer, segment, factors));
     }
 
     public List<Segment> readSegments(ImageInputStream in, char wcsLetter) {
@@ -540,26 +1334,41 @@ public class CachingReader {
         return result;
     }
 
+    /**
+     * Get the raw data for a segment. The returned data has been retained, and
+     * the caller must call {@link RawData#release()} once it is no longer
+     * needed.
+     *
+     * @param segment The segment to read
+     * @return The raw data
+     */
     public RawData getRawData(Segment segment) {
-        return rawDataCache.get(segment).join();
+        return retainRawData(segment).join();
     }
 
-    BufferedImage getBufferedImage(Segment segment, BiasCorrection bc, long[] globalScale) {
-        final SegmentBiasCorrectionAndCounts key = new SegmentBiasCorrectionAndCounts(segment, bc, globalScale);
+    BufferedImage getBufferedImage(Segment segment, BiasCorrection bc, GlobalScale globalScale) {
+        final SegmentBiasCorrectionAndScale key = new SegmentBiasCorrectionAndScale(segment, bc, globalScale);
         CompletableFuture<BufferedImage> fi = bufferedImageCache.get(key);
         return fi.join();
     }
 
-    long[] getGlobalScale(ImageInputStream fileInput, BiasCorrection bc, char wcsLetter, Map<String, Map<String, Object>> wcsOverride) {
-        Queue<CompletableFuture<Void>> segmentsCompletables = new ConcurrentLinkedQueue<>();
+    /**
+     * Get the global scale of an image, loading it from the global scale
+     * store if configured, or otherwise computing (and storing) it.
+     *
+     * @param fileInput The image
+     * @param bc The bias correction
+     * @param wcsLetter The WCS to use when reading the segments
+     * @param wcsOverride Any WCS overrides, or <code>null</code>
+     * @return The global scale
+     */
+    public GlobalScale getGlobalScale(ImageInputStream fileInput, BiasCorrection bc, char wcsLetter, Map<String, Map<String, Object>> wcsOverride) {
         List<String> lines = linesCache.get(fileInput);
-        List<Segment> allSegments = new ArrayList<>();
-        lines.stream().map((line) -> segmentCache.get(new SegmentCacheKey(line, wcsLetter, wcsOverride))).forEach((CompletableFuture<List<Segment>> futureSegments) -> {
-            segmentsCompletables.add(futureSegments.thenAccept((List<Segment> segments) -> {
-                allSegments.addAll(segments);
-            }));
-        });
+        List<CompletableFuture<List<Segment>>> segmentsCompletables = lines.stream()
+                .map((line) -> segmentCache.get(new SegmentCacheKey(line, wcsLetter, wcsOverride)))
+                .collect(Collectors.toList());
         CompletableFuture.allOf(segmentsCompletables.toArray(CompletableFuture[]::new)).join();
+        List<Segment> allSegments = concatenate(segmentsCompletables);
 
         return globalScalingCache.get(new SegmentListAndBiasCorrection(allSegments, bc)).join();
     }
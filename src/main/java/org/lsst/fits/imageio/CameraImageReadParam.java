@@ -1,5 +1,6 @@
 package org.lsst.fits.imageio;
 
+import java.time.Duration;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -21,10 +22,13 @@ import org.lsst.fits.imageio.cmap.SAOColorMap;
 public class CameraImageReadParam extends ImageReadParam {
 
     private boolean showBiasRegions = false;
+    private boolean boxFilter = false;
+    private boolean approximateGlobalScale = false;
+    private Duration deadline = null;
     private final GetSetAvailable<BiasCorrection> bc;
     private final GetSetAvailable<RGBColorMap> colorMap;
     private char wcsString = ' ';
-    private long[] globalScale;
+    private GlobalScale globalScale;
     private Map<String, Map<String, Object>> wcsOverride = null;
 
     public enum Scale {
@@ -61,6 +65,55 @@ public class CameraImageReadParam extends ImageReadParam {
         this.showBiasRegions = showBiasRegions;
     }
 
+    public boolean isBoxFilter() {
+        return boxFilter;
+    }
+
+    /**
+     * Controls how subsampled images are computed. If false (the default)
+     * each pixel of the subsampled image is a single pixel of the original
+     * image, if true it is the average of all the pixels it covers.
+     *
+     * @param boxFilter True to average the pixels when subsampling
+     */
+    public void setBoxFilter(boolean boxFilter) {
+        this.boxFilter = boxFilter;
+    }
+
+    public boolean isApproximateGlobalScale() {
+        return approximateGlobalScale;
+    }
+
+    /**
+     * Controls how globally scaled images are drawn before the global scale
+     * of the image has been computed. If false (the default) the read waits
+     * for the exact scale, which requires reading every segment of the image.
+     * If true the image is drawn straight away using a scale estimated from a
+     * sample of the pixels, and should be read again once
+     * {@link CameraImageReader#getGlobalScaleRefinement()} completes.
+     *
+     * @param approximateGlobalScale True to allow an approximate global scale
+     */
+    public void setApproximateGlobalScale(boolean approximateGlobalScale) {
+        this.approximateGlobalScale = approximateGlobalScale;
+    }
+
+    public Duration getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Set the time allowed for each read using these parameters, measured
+     * from the start of the read. A read which has not completed by then
+     * fails, and the segments it has not yet drawn are abandoned.
+     *
+     * @param deadline The time allowed, or <code>null</code> (the default) for
+     * no limit
+     */
+    public void setDeadline(Duration deadline) {
+        this.deadline = deadline;
+    }
+
     public char getWCSString() {
         return wcsString;
     }
@@ -111,10 +164,25 @@ public class CameraImageReadParam extends ImageReadParam {
     }
 
     public long[] getGlobalScale() {
-        return globalScale;
+        return globalScale == null ? null : globalScale.getCounts();
     }
 
+    /**
+     * Set the global scale to use, for example one previously computed for
+     * the image being read. The counts are copied, and interned so that reads
+     * using the same counts share cached images.
+     *
+     * @param globalScale The counts, or <code>null</code>
+     */
     public void setGlobalScale(long[] globalScale) {
+        this.globalScale = globalScale == null ? null : GlobalScale.of(globalScale);
+    }
+
+    public GlobalScale getGlobalScaleHandle() {
+        return globalScale;
+    }
+
+    public void setGlobalScale(GlobalScale globalScale) {
         this.globalScale = globalScale;
     }
 
@@ -1,6 +1,5 @@
 package org.lsst.fits.imageio;
 
-import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
@@ -10,10 +9,20 @@ import java.io.IOException;
 import java.nio.Buffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -43,6 +52,9 @@ public class CameraImageReader extends ImageReader {
     public static final RGBColorMap DEFAULT_COLOR_MAP = new SAOColorMap(256, "grey.sao");
     public static final BiasCorrection DEFAULT_BIAS_CORRECTION = new NullBiasCorrection();
     private static final int IMAGE_OFFSET = 100;
+    private static final int[] BANDS = {0, 1, 2};
+    // Compute the global scale of each new focal plane image in the background, by default only if the scales are being stored
+    private static final boolean PRECOMPUTE_GLOBAL_SCALE = Boolean.parseBoolean(System.getProperty("org.lsst.fits.imageio.precomputeGlobalScale", String.valueOf(GlobalScaleStore.instance() != null)));
     private char wcsString;
     private BiasCorrection biasCorrection;
     private CameraImageReadParam.Scale scale;
@@ -53,6 +65,9 @@ public class CameraImageReader extends ImageReader {
 
     private boolean showBiasRegion;
     private ImageType imageType;
+    private volatile CompletableFuture<Void> refinement = CompletableFuture.completedFuture(null);
+    // The reads in progress, which are cancelled by abort()
+    private final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
 
     static {
         FitsFactory.setUseHierarch(true);
@@ -79,6 +94,10 @@ public class CameraImageReader extends ImageReader {
         super.setInput(input, seekForwardOnly, ignoreMetadata);
         int lines = READER.preReadImage((ImageInputStream) input);
         imageType = lines > 9 ? ImageType.FOCAL_PLANE : lines == 1 ? ImageType.CCD : ImageType.RAFT;
+        if (imageType == ImageType.FOCAL_PLANE && PRECOMPUTE_GLOBAL_SCALE) {
+            // Using the bias correction of the default read parameters
+            READER.precomputeGlobalScale((ImageInputStream) input, getDefaultReadParam().getBiasCorrection(), 'E');
+        }
     }
 
     @Override
@@ -151,6 +170,29 @@ public class CameraImageReader extends ImageReader {
 
     @Override
     public BufferedImage read(int imageIndex, ImageReadParam param) throws IOException {
+        return CachingReader.await(readAsync(imageIndex, param, null));
+    }
+
+    /**
+     * Start reading an image, returning as soon as the read has been started.
+     * Segments are drawn into the image as they become available, and each
+     * region of the image is reported to the region listener, and to any
+     * registered {@link javax.imageio.event.IIOReadUpdateListener} and
+     * {@link javax.imageio.event.IIOReadProgressListener}, once it has been
+     * drawn, so a viewer can display the image progressively. Listeners are
+     * called from the threads doing the drawing, but never concurrently for
+     * one read. If the read is aborted (see {@link #abort()}) the future
+     * completes with the image as far as it has been drawn, cancelling the
+     * future itself abandons the read.
+     *
+     * @param imageIndex The index of the image, which is ignored
+     * @param param The read parameters, or <code>null</code>
+     * @param regionListener Called with the image being drawn and each region
+     * of it which has been completed, or <code>null</code>
+     * @return A future which completes with the image once it has been drawn
+     * @throws IOException If the read could not be started
+     */
+    public CompletableFuture<BufferedImage> readAsync(int imageIndex, ImageReadParam param, BiConsumer<BufferedImage, Rectangle> regionListener) throws IOException {
 
         int xSubSampling = 1;
         int ySubSampling = 1;
@@ -168,47 +210,154 @@ public class CameraImageReader extends ImageReader {
         initialize(param);
 
         BufferedImage result;
-        Graphics2D g;
+        AffineTransform transform;
         RGBColorMap cmap;
         BiasCorrection bc;
         Map<String, Map<String, Object>> wcsOverride = null;
         Rectangle sourceRegion = param == null ? null : param.getSourceRegion();
-        long[] globalScale;
+        GlobalScale globalScale;
+        boolean boxFilter;
+        boolean approximateGlobalScale;
+        Duration deadline;
         if (param instanceof CameraImageReadParam cameraParam) {
             cmap = cameraParam.getColorMap();
             bc = cameraParam.getBiasCorrection();
-            globalScale = cameraParam.getGlobalScale();
+            globalScale = cameraParam.getGlobalScaleHandle();
             wcsOverride = cameraParam.getWCSOverride();
+            boxFilter = cameraParam.isBoxFilter();
+            approximateGlobalScale = cameraParam.isApproximateGlobalScale();
+            deadline = cameraParam.getDeadline();
         } else {
             cmap = DEFAULT_COLOR_MAP;
             bc = DEFAULT_BIAS_CORRECTION;
             globalScale = null;
+            boxFilter = false;
+            approximateGlobalScale = false;
+            deadline = null;
         }
+        clearAbortRequest();
 
         // Note, graphics and source region being flipped in Y to comply with Camera visualization standards
         if (sourceRegion == null) {
             result = IMAGE_TYPE.createBufferedImage(getWidth(0) / xSubSampling, getHeight(0) / ySubSampling);
-            g = result.createGraphics();
-            g.translate(0, getHeight(0) / ySubSampling);
-            g.scale(1.0 / xSubSampling, -1.0 / ySubSampling);
+            transform = AffineTransform.getTranslateInstance(0, getHeight(0) / ySubSampling);
+            transform.scale(1.0 / xSubSampling, -1.0 / ySubSampling);
         } else {
             sourceRegion = new Rectangle(sourceRegion.x, getHeight(0) - sourceRegion.y - sourceRegion.height, sourceRegion.width, sourceRegion.height);
             result = IMAGE_TYPE.createBufferedImage((int) (sourceRegion.getWidth() / xSubSampling), (int) (sourceRegion.getHeight() / ySubSampling));
-            g = result.createGraphics();
-            g.translate(0, sourceRegion.getHeight() / ySubSampling);
-            g.scale(1.0 / xSubSampling, -1.0 / ySubSampling);
-            g.translate(-sourceRegion.getX(), -sourceRegion.getY());
+            transform = AffineTransform.getTranslateInstance(0, sourceRegion.getHeight() / ySubSampling);
+            transform.scale(1.0 / xSubSampling, -1.0 / ySubSampling);
+            transform.translate(-sourceRegion.getX(), -sourceRegion.getY());
         }
+        // Segments are composited concurrently, each into its own region of the result
+        Compositor compositor = new Compositor(result, transform, progressListener(result, regionListener));
+        ReadTrace trace = new ReadTrace(String.format("Read of %s region %s subsampling %d", imageType, sourceRegion, Math.min(xSubSampling, ySubSampling)));
+        processImageStarted(imageIndex);
+        processPassStarted(result, 0, 0, 0, 0, 0, 1, 1, BANDS);
+        // The future for the read in the pipeline, cancelling it abandons the draws not yet done
+        CompletableFuture<?> pipeline;
+        CompletableFuture<Void> drawn;
         try {
             if (scale == CameraImageReadParam.Scale.AMPLIFIER || globalScale != null) {
-                READER.readImage((ImageInputStream) getInput(), sourceRegion, g, cmap, bc, showBiasRegion, wcsString, globalScale, wcsOverride);
+                CompletableFuture<Void> read = READER.readImageAsync((ImageInputStream) getInput(), sourceRegion, compositor, cmap, bc, showBiasRegion, wcsString, globalScale, wcsOverride, Math.min(xSubSampling, ySubSampling), boxFilter, trace);
+                pipeline = read;
+                drawn = read;
+                refinement = CompletableFuture.completedFuture(null);
             } else {
-                READER.readImageWithOnTheFlyGlobalScale((ImageInputStream) getInput(), sourceRegion, g, cmap, bc, showBiasRegion, wcsString, wcsOverride);
+                CompletableFuture<CompletableFuture<GlobalScale>> read = READER.readImageWithOnTheFlyGlobalScaleAsync((ImageInputStream) getInput(), sourceRegion, compositor, cmap, bc, showBiasRegion, wcsString, wcsOverride, Math.min(xSubSampling, ySubSampling), boxFilter, approximateGlobalScale, trace);
+                pipeline = read;
+                drawn = read.thenAccept(exact -> {
+                    refinement = exact.thenApply(s -> null);
+                });
             }
+        } catch (RuntimeException x) {
+            trace.finish(x);
+            throw x;
+        }
+        if (deadline != null) {
+            pipeline.orTimeout(deadline.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        pending.add(pipeline);
+        if (abortRequested()) {
+            pipeline.cancel(false);
+        }
+        CompletableFuture<BufferedImage> image = drawn.handle((v, x) -> {
+            pending.remove(pipeline);
+            Throwable cause = x instanceof CompletionException ? x.getCause() : x;
+            trace.finish(cause);
+            if (cause instanceof CancellationException) {
+                // Aborted, the image is returned as far as it has been drawn
+                processReadAborted();
+                return result;
+            } else if (x != null) {
+                throw x instanceof CompletionException completionException ? completionException : new CompletionException(x);
+            }
+            processPassComplete(result);
+            processImageComplete();
             return result;
-        } finally {
-            g.dispose();
+        });
+        image.whenComplete((r, x) -> {
+            if (image.isCancelled()) {
+                pipeline.cancel(false);
+            }
+        });
+        return image;
+    }
+
+    /**
+     * Abort all of the reads in progress. Segments which have not yet been
+     * drawn are abandoned, and each read returns its image as far as it has
+     * been drawn. Any data being loaded for the reads continues to be loaded
+     * in the background, unless it is wanted by another read, so that it is
+     * available if the same image is read again.
+     */
+    @Override
+    public void abort() {
+        super.abort();
+        // Cancelling a read may let its caller start another before this returns, which must not be cancelled
+        List<CompletableFuture<?>> reads = new ArrayList<>(pending);
+        reads.forEach(read -> read.cancel(false));
+    }
+
+    /**
+     * Create the listener told of each region of the image drawn by the
+     * compositor, which reports it to the listeners for this read and this
+     * reader.
+     *
+     * @return The listener, or <code>null</code> if there is no one to tell
+     */
+    private Consumer<Rectangle> progressListener(BufferedImage image, BiConsumer<BufferedImage, Rectangle> regionListener) {
+        if (regionListener == null && updateListeners == null && progressListeners == null) {
+            return null;
         }
+        double area = (double) image.getWidth() * image.getHeight();
+        long[] drawnArea = new long[1];
+        Object lock = new Object();
+        return (region) -> {
+            synchronized (lock) {
+                drawnArea[0] += (long) region.width * region.height;
+                processImageUpdate(image, region.x, region.y, region.width, region.height, 1, 1, BANDS);
+                processImageProgress((float) Math.min(100, 100 * drawnArea[0] / area));
+                if (regionListener != null) {
+                    regionListener.accept(image, region);
+                }
+            }
+        };
+    }
+
+    /**
+     * Get a future which completes once the image returned by the last read
+     * can be refined. This is only the case if the read was globally scaled
+     * using an approximate scale (see
+     * {@link CameraImageReadParam#setApproximateGlobalScale(boolean)}), in
+     * which case the future completes once the exact scale is available, and
+     * reading the image again will draw it with the exact scale. Otherwise the
+     * future is already complete.
+     *
+     * @return The future
+     */
+    public CompletableFuture<Void> getGlobalScaleRefinement() {
+        return refinement;
     }
 
     public Segment getImageMetaDataForPoint(ImageReadParam param, int x, int y) {
@@ -225,14 +374,18 @@ public class CameraImageReader extends ImageReader {
 
     public Number getPixelForSegment(Segment segment, int x, int y) {
         RawData rawData = READER.getRawData(segment);
-        Buffer buffer = rawData.getBuffer();
-        int p = segment.getDataSec().x + x + y * segment.getNAxis1();
-        return buffer instanceof IntBuffer iBuffer ? iBuffer.get(p) : buffer instanceof FloatBuffer fBuffer ? fBuffer.get(p) : 0;
+        try {
+            Buffer buffer = rawData.getBuffer();
+            int p = segment.getDataSec().x + x + y * segment.getNAxis1();
+            return buffer instanceof IntBuffer iBuffer ? iBuffer.get(p) : buffer instanceof FloatBuffer fBuffer ? fBuffer.get(p) : 0;
+        } finally {
+            rawData.release();
+        }
     }
 
     public int getRGBForSegment(Segment segment, int x, int y) {
         if (scale == CameraImageReadParam.Scale.GLOBAL) {
-            long[] globalScale = READER.getGlobalScale((ImageInputStream) getInput(), biasCorrection, wcsString, null);
+            GlobalScale globalScale = READER.getGlobalScale((ImageInputStream) getInput(), biasCorrection, wcsString, null);
             BufferedImage image = READER.getBufferedImage(segment, biasCorrection, globalScale);
             return image.getRGB(x + segment.getDataSec().x, y + segment.getDataSec().y);
         } else {
@@ -0,0 +1,337 @@
+package org.lsst.fits.imageio;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Draws segment images into the destination image. The transforms from
+ * segment to destination are (almost always) orthogonal, a combination of
+ * flips, 90 degree rotations, scaling (for subsampling) and translation. For
+ * these the pixels are copied directly between the arrays backing the images,
+ * using precomputed row and column offsets, which avoids the overhead (and
+ * internal locking) of the Java2D pipeline. Both RGB images and 8 bit indexed
+ * images (where the color model is applied as the pixels are copied) are
+ * supported. Other transforms, or other types of image, are drawn using
+ * Java2D.
+ *
+ * Segments do not overlap in the destination, so each draw only writes to the
+ * region of the destination covered by its segment, and the compositor holds
+ * no mutable state. Draws may therefore be performed concurrently from any
+ * number of threads without locking. When Java2D is used each draw gets its
+ * own graphics, on a child raster covering just that region, rather than
+ * sharing a single Graphics2D between threads.
+ *
+ * An optional listener is told of the region of the destination covered by
+ * each draw once it is complete, so that the partially drawn destination can
+ * be displayed as segments arrive. It is called from the drawing threads.
+ *
+ * Pixels are sampled in the same way as Java2D nearest neighbor drawing, each
+ * destination pixel whose center lies within the transformed image gets the
+ * value of the source pixel under its center. A pixel whose center lies
+ * exactly on the edge of the image is drawn if it is the left or top edge in
+ * the destination, but not the right or bottom, so adjacent segments cover
+ * each pixel once. (Java2D does not do this for flipped images, which can
+ * leave a row or column between segments undrawn.)
+ */
+class Compositor {
+
+    private static final double EPSILON = 1e-9;
+    // When set (the default) orthogonal transforms are composited without using Java2D
+    private static final boolean DIRECT_COMPOSITING = Boolean.parseBoolean(System.getProperty("org.lsst.fits.imageio.directCompositing", "true"));
+
+    private final BufferedImage destination;
+    private final boolean direct;
+    private final AffineTransform transform;
+    private final Rectangle bounds;
+    private final int[] destinationData;
+    private final int destinationOffset;
+    private final int destinationStride;
+    private final Consumer<Rectangle> listener;
+
+    /**
+     * Create a compositor
+     *
+     * @param destination The image being drawn into
+     * @param transform The transform from WCS coordinates to the destination
+     * image
+     */
+    Compositor(BufferedImage destination, AffineTransform transform) {
+        this(destination, transform, DIRECT_COMPOSITING, null);
+    }
+
+    /**
+     * Create a compositor which reports each region drawn
+     *
+     * @param destination The image being drawn into
+     * @param transform The transform from WCS coordinates to the destination
+     * image
+     * @param listener Called with the region of the destination drawn, once
+     * each draw is complete, or <code>null</code>
+     */
+    Compositor(BufferedImage destination, AffineTransform transform, Consumer<Rectangle> listener) {
+        this(destination, transform, DIRECT_COMPOSITING, listener);
+    }
+
+    /**
+     * Create a compositor
+     *
+     * @param destination The image being drawn into
+     * @param transform The transform from WCS coordinates to the destination
+     * image
+     * @param direct If false Java2D is always used
+     */
+    Compositor(BufferedImage destination, AffineTransform transform, boolean direct) {
+        this(destination, transform, direct, null);
+    }
+
+    private Compositor(BufferedImage destination, AffineTransform transform, boolean direct, Consumer<Rectangle> listener) {
+        this.destination = destination;
+        this.direct = direct;
+        this.listener = listener;
+        this.transform = new AffineTransform(transform);
+        this.bounds = new Rectangle(0, 0, destination.getWidth(), destination.getHeight());
+        WritableRaster raster = destination.getRaster();
+        if (raster.getDataBuffer() instanceof DataBufferInt dbi && raster.getSampleModel() instanceof SinglePixelPackedSampleModel sm) {
+            destinationData = dbi.getData();
+            destinationStride = sm.getScanlineStride();
+            destinationOffset = dbi.getOffset() - raster.getSampleModelTranslateY() * destinationStride - raster.getSampleModelTranslateX();
+        } else {
+            destinationData = null;
+            destinationStride = 0;
+            destinationOffset = 0;
+        }
+    }
+
+    /**
+     * Get the transform from WCS coordinates to the destination image.
+     *
+     * @return A copy of the transform
+     */
+    AffineTransform getTransform() {
+        return new AffineTransform(transform);
+    }
+
+    /**
+     * Get the bounds of the destination image
+     *
+     * @return The bounds
+     */
+    Rectangle getBounds() {
+        return new Rectangle(bounds);
+    }
+
+    /**
+     * Draw an image
+     *
+     * @param image The image to draw
+     * @param imageToWCS The transform from image to WCS coordinates
+     */
+    void draw(BufferedImage image, AffineTransform imageToWCS) {
+        draw(image, imageToWCS, image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * Draw part of an image. This is used for binned images, where the last
+     * row and column of the image may only be partially covered by data, so
+     * that drawing all of it would overlap with adjacent segments.
+     *
+     * @param image The image to draw
+     * @param imageToWCS The transform from image to WCS coordinates
+     * @param width The width of the area of the image to draw
+     * @param height The height of the area of the image to draw
+     */
+    void draw(BufferedImage image, AffineTransform imageToWCS, double width, double height) {
+        AffineTransform imageToDevice = getTransform();
+        imageToDevice.concatenate(imageToWCS);
+        if (!direct || destinationData == null || !drawOrthogonal(image, imageToDevice, width, height)) {
+            Shape area = new Rectangle2D.Double(0, 0, width, height);
+            Graphics2D g2 = createGraphics(imageToDevice.createTransformedShape(area).getBounds());
+            if (g2 != null) {
+                g2.transform(imageToDevice);
+                g2.clip(area);
+                g2.drawImage(image, 0, 0, null);
+                g2.dispose();
+            }
+        }
+        drawn(imageToDevice.createTransformedShape(new Rectangle2D.Double(0, 0, width, height)).getBounds2D());
+    }
+
+    /**
+     * Draw an image which is already at the destination resolution and
+     * orientation.
+     *
+     * @param image The image to draw
+     * @param x The x position in the destination image
+     * @param y The y position in the destination image
+     */
+    void drawDevice(BufferedImage image, int x, int y) {
+        if (!direct || destinationData == null || !drawOrthogonal(image, AffineTransform.getTranslateInstance(x, y), image.getWidth(), image.getHeight())) {
+            Graphics2D g2 = createGraphics(new Rectangle(x, y, image.getWidth(), image.getHeight()));
+            if (g2 != null) {
+                g2.drawImage(image, x, y, null);
+                g2.dispose();
+            }
+        }
+        drawn(new Rectangle(x, y, image.getWidth(), image.getHeight()));
+    }
+
+    /**
+     * Report the pixels whose centers lie within the area drawn to the
+     * listener, so that the regions reported for adjacent segments do not
+     * overlap.
+     */
+    private void drawn(Rectangle2D area) {
+        if (listener != null) {
+            int x = (int) Math.ceil(area.getMinX() - 0.5);
+            int y = (int) Math.ceil(area.getMinY() - 0.5);
+            Rectangle region = new Rectangle(x, y, (int) Math.ceil(area.getMaxX() - 0.5) - x, (int) Math.ceil(area.getMaxY() - 0.5) - y);
+            Rectangle clipped = region.intersection(bounds);
+            if (!clipped.isEmpty()) {
+                listener.accept(clipped);
+            }
+        }
+    }
+
+    /**
+     * Create a graphics which draws into the given region of the destination,
+     * using destination coordinates.
+     *
+     * @param region The region, which is clipped to the destination bounds
+     * @return The graphics, or <code>null</code> if the region lies outside
+     * the destination
+     */
+    private Graphics2D createGraphics(Rectangle region) {
+        Rectangle clipped = region.intersection(bounds);
+        if (clipped.isEmpty()) {
+            return null;
+        }
+        WritableRaster child = destination.getRaster().createWritableChild(clipped.x, clipped.y, clipped.width, clipped.height, 0, 0, null);
+        BufferedImage image = new BufferedImage(destination.getColorModel(), child, destination.isAlphaPremultiplied(), null);
+        Graphics2D g2 = image.createGraphics();
+        g2.translate(-clipped.x, -clipped.y);
+        return g2;
+    }
+
+    /**
+     * Draw the image by copying pixels, if the transform is orthogonal and the
+     * image is either backed by an int array with the same color model as the
+     * destination, or is an 8 bit indexed image.
+     *
+     * @return <code>true</code> if the image was drawn
+     */
+    private boolean drawOrthogonal(BufferedImage image, AffineTransform imageToDevice, double width, double height) {
+        boolean swapped;
+        if (Math.abs(imageToDevice.getShearX()) < EPSILON && Math.abs(imageToDevice.getShearY()) < EPSILON) {
+            swapped = false;
+        } else if (Math.abs(imageToDevice.getScaleX()) < EPSILON && Math.abs(imageToDevice.getScaleY()) < EPSILON) {
+            swapped = true;
+        } else {
+            return false;
+        }
+        WritableRaster raster = image.getRaster();
+        int[] source = null;
+        byte[] indexedSource = null;
+        int[] lookup = null;
+        int stride;
+        int sourceOffset;
+        if (raster.getDataBuffer() instanceof DataBufferInt dbi && raster.getSampleModel() instanceof SinglePixelPackedSampleModel sm
+                && image.getColorModel().equals(destination.getColorModel())) {
+            source = dbi.getData();
+            stride = sm.getScanlineStride();
+            sourceOffset = dbi.getOffset();
+        } else if (raster.getDataBuffer() instanceof DataBufferByte dbb && raster.getSampleModel() instanceof PixelInterleavedSampleModel sm
+                && sm.getNumBands() == 1 && sm.getPixelStride() == 1 && image.getColorModel() instanceof IndexColorModel icm
+                && destination.getType() == BufferedImage.TYPE_INT_RGB) {
+            indexedSource = dbb.getData();
+            stride = sm.getScanlineStride();
+            sourceOffset = dbb.getOffset() + sm.getBandOffsets()[0];
+            lookup = new int[256];
+            icm.getRGBs(lookup);
+        } else {
+            return false;
+        }
+        sourceOffset -= raster.getSampleModelTranslateY() * stride + raster.getSampleModelTranslateX();
+        AffineTransform inverse;
+        try {
+            inverse = imageToDevice.createInverse();
+        } catch (NoninvertibleTransformException x) {
+            return false;
+        }
+        Rectangle2D extent = imageToDevice.createTransformedShape(new Rectangle2D.Double(0, 0, width, height)).getBounds2D();
+
+        // The offset into the source data is the sum of a part depending only on the column
+        // and a part depending only on the row of the destination
+        int uMin = Math.max((int) Math.floor(extent.getMinX()) - 1, bounds.x);
+        int uMax = Math.min((int) Math.ceil(extent.getMaxX()) + 1, bounds.x + bounds.width);
+        int vMin = Math.max((int) Math.floor(extent.getMinY()) - 1, bounds.y);
+        int vMax = Math.min((int) Math.ceil(extent.getMaxY()) + 1, bounds.y + bounds.height);
+        Span columns = swapped ? span(uMin, uMax, inverse.getShearY(), inverse.getTranslateY(), height, image.getHeight(), stride, 0)
+                : span(uMin, uMax, inverse.getScaleX(), inverse.getTranslateX(), width, image.getWidth(), 1, 0);
+        Span rows = swapped ? span(vMin, vMax, inverse.getShearX(), inverse.getTranslateX(), width, image.getWidth(), 1, sourceOffset)
+                : span(vMin, vMax, inverse.getScaleY(), inverse.getTranslateY(), height, image.getHeight(), stride, sourceOffset);
+        int n = columns.offsets.length;
+        if (n == 0 || rows.offsets.length == 0) {
+            return true;
+        }
+        // Common case, source rows map to consecutive pixels of destination rows
+        boolean contiguous = columns.offsets[n - 1] - columns.offsets[0] == n - 1 && (n == 1 || columns.offsets[1] - columns.offsets[0] == 1);
+        for (int v = 0; v < rows.offsets.length; v++) {
+            int q = rows.offsets[v];
+            int p = destinationOffset + (rows.start + v) * destinationStride + columns.start;
+            if (indexedSource != null) {
+                for (int i = 0; i < n; i++) {
+                    destinationData[p + i] = lookup[indexedSource[q + columns.offsets[i]] & 0xff];
+                }
+            } else if (contiguous) {
+                System.arraycopy(source, q + columns.offsets[0], destinationData, p, n);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    destinationData[p + i] = source[q + columns.offsets[i]];
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the range of destination rows (or columns) whose centers map to
+     * within the area being drawn, and the offset into the source data of
+     * each.
+     */
+    private static Span span(int min, int max, double scale, double translate, double limit, int size, int multiplier, int offset) {
+        int[] offsets = new int[Math.max(0, max - min)];
+        int start = max;
+        int n = 0;
+        for (int d = min; d < max; d++) {
+            double s = scale * (d + 0.5) + translate;
+            // Centers lying on pixel edges, or the edge of the area, must not be moved off them by rounding errors
+            double edge = Math.abs(s - limit) < EPSILON ? limit : Math.rint(s);
+            if (Math.abs(s - edge) < EPSILON) {
+                s = edge;
+            }
+            // Include centers on the left or top edge of the area in the destination, but not the right or bottom
+            if (scale > 0 ? s >= 0 && s < limit : s > 0 && s <= limit) {
+                if (n == 0) {
+                    start = d;
+                }
+                offsets[n++] = offset + Math.min((int) s, size - 1) * multiplier;
+            }
+        }
+        return new Span(start, Arrays.copyOf(offsets, n));
+    }
+
+    private record Span(int start, int[] offsets) {}
+}
@@ -0,0 +1,262 @@
+package org.lsst.fits.imageio;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import org.lsst.fits.imageio.bias.BiasCorrection;
+import org.lsst.fits.imageio.metrics.Metrics;
+
+/**
+ * A second level cache of rendered segment images, stored on disk so that they
+ * survive a restart. Used by {@link CachingReader} when an image is not found
+ * in the in memory bufferedImageCache, to avoid reading, decompressing, bias
+ * correcting and scaling the segment again.
+ *
+ * Each entry is stored as a separate file containing the 8 bit levels of the
+ * pixels (which are independent of the color map), named by a digest of the
+ * segment identity (file, file length and modification time, position in
+ * file), the bias correction and the scale. The total size is
+ * bounded, with the least used entries being deleted when the limit is
+ * exceeded. Entries are read by memory mapping the file and bulk copying into
+ * the image. Entries are written by a single background thread, and images
+ * are not stored while it has too many waiting to be written.
+ *
+ * The cache is only enabled if the org.lsst.fits.imageio.diskCacheDir property
+ * is set.
+ */
+class DiskImageCache {
+
+    private static final Logger LOG = Logger.getLogger(DiskImageCache.class.getName());
+    private static final String DISK_CACHE_DIR = System.getProperty("org.lsst.fits.imageio.diskCacheDir");
+    private static final long DISK_CACHE_SIZE_BYTES = Long.getLong("org.lsst.fits.imageio.diskCacheSizeBytes", 20_000_000_000L);
+    // The number of images waiting to be written, further images are not stored until there is room
+    private static final int WRITE_QUEUE_SIZE = Integer.getInteger("org.lsst.fits.imageio.diskCacheWriteQueueSize", 64);
+    private static final String SUFFIX = ".lvl";
+    private static final int MAGIC = 0x4C564C49; // LVLI
+    private static final int HEADER_SIZE = 12;
+    private static final DiskImageCache INSTANCE = DISK_CACHE_DIR == null ? null : new DiskImageCache(new File(DISK_CACHE_DIR).toPath(), DISK_CACHE_SIZE_BYTES);
+
+    private final Path dir;
+    // Tracks the entries on disk, and their sizes, and deletes evicted entries
+    private final Cache<String, Integer> entries;
+    private final ExecutorService writer;
+    // Entries read since their modification times were last updated
+    private final Set<String> used = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean touchQueued = new AtomicBoolean();
+
+    /**
+     * Get the disk cache.
+     *
+     * @return The cache, or <code>null</code> if no disk cache is configured.
+     */
+    static DiskImageCache instance() {
+        return INSTANCE;
+    }
+
+    DiskImageCache(Path dir, long maxBytes) {
+        this.dir = dir;
+        entries = Caffeine.newBuilder()
+                .weigher((String name, Integer size) -> size)
+                .maximumWeight(maxBytes)
+                .removalListener((String name, Integer size, RemovalCause cause) -> {
+                    if (cause.wasEvicted()) {
+                        delete(dir.resolve(name));
+                    }
+                })
+                .recordStats()
+                .build();
+        Metrics.instance().registerCache("diskImage", entries);
+        // Each queued write holds on to its image, so the queue is bounded
+        writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(WRITE_QUEUE_SIZE), (Runnable r) -> {
+            Thread thread = new Thread(r, "DiskImageCacheWriter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Files.createDirectories(dir);
+            // Remove any entries left partially written by a previous process
+            try ( Stream<Path> files = Files.list(dir)) {
+                files.filter(p -> p.getFileName().toString().endsWith(".tmp")).forEach(DiskImageCache::delete);
+            }
+            // Add existing entries oldest first, so that recently used entries are the last to be evicted
+            try ( Stream<Path> files = Files.list(dir)) {
+                files.filter(p -> p.getFileName().toString().endsWith(SUFFIX))
+                        .map(p -> p.toFile())
+                        .sorted(Comparator.comparingLong(File::lastModified))
+                        .forEach(f -> entries.put(f.getName(), (int) Math.min(Integer.MAX_VALUE, f.length())));
+            }
+            LOG.log(Level.INFO, "Disk image cache {0} contains {1} entries", new Object[]{dir, entries.estimatedSize()});
+        } catch (IOException x) {
+            LOG.log(Level.WARNING, "Error initializing disk image cache " + dir, x);
+        }
+    }
+
+    /**
+     * Get a previously stored image.
+     *
+     * @param segment The segment
+     * @param bc The bias correction used
+     * @param scale The global scale used, or <code>null</code>
+     * @return The image of levels, or <code>null</code> if not in the cache
+     */
+    BufferedImage get(Segment segment, BiasCorrection bc, GlobalScale scale) {
+        String name = name(segment, bc, scale);
+        if (entries.getIfPresent(name) == null) {
+            return null;
+        }
+        Path path = dir.resolve(name);
+        try ( FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.remaining() < HEADER_SIZE || mapped.getInt() != MAGIC) {
+                throw new IOException("Invalid disk cache entry");
+            }
+            int width = mapped.getInt();
+            int height = mapped.getInt();
+            if (mapped.remaining() != width * height) {
+                throw new IOException("Truncated disk cache entry");
+            }
+            BufferedImage image = CachingReader.createLevelImage(width, height);
+            mapped.get(((DataBufferByte) image.getRaster().getDataBuffer()).getData());
+            touch(name);
+            return image;
+        } catch (NoSuchFileException x) {
+            entries.invalidate(name);
+            return null;
+        } catch (IOException x) {
+            LOG.log(Level.WARNING, "Discarding unreadable disk cache entry " + path, x);
+            entries.invalidate(name);
+            delete(path);
+            return null;
+        }
+    }
+
+    /**
+     * Record that an entry has been used, so that recently used entries are
+     * the last to be evicted after a restart. The modification times of the
+     * entries used are updated in batches by the writer thread, rather than by
+     * the reads.
+     *
+     * @param name The name of the entry
+     */
+    private void touch(String name) {
+        if (used.add(name) && touchQueued.compareAndSet(false, true)) {
+            try {
+                writer.execute(() -> {
+                    touchQueued.set(false);
+                    FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+                    for (Iterator<String> i = used.iterator(); i.hasNext();) {
+                        Path path = dir.resolve(i.next());
+                        i.remove();
+                        try {
+                            Files.setLastModifiedTime(path, now);
+                        } catch (IOException x) {
+                            // The entry may have been evicted since it was read
+                            LOG.log(Level.FINE, "Unable to update disk cache entry " + path, x);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException x) {
+                // Tried again by the next read once the writer has caught up
+                touchQueued.set(false);
+            }
+        }
+    }
+
+    /**
+     * Store an image in the cache. The image is written asynchronously, the
+     * image must not be modified afterwards. If too many images are already
+     * waiting to be written the image is not stored.
+     *
+     * @param segment The segment
+     * @param bc The bias correction used
+     * @param scale The global scale used, or <code>null</code>
+     * @param image The image of levels to store, as created by {@link CachingReader#createLevelImage}
+     */
+    void put(Segment segment, BiasCorrection bc, GlobalScale scale, BufferedImage image) {
+        String name = name(segment, bc, scale);
+        try {
+            writer.execute(() -> write(name, image));
+        } catch (RejectedExecutionException x) {
+            LOG.log(Level.FINE, "Disk cache write queue full, not storing {0}", segment);
+        }
+    }
+
+    private void write(String name, BufferedImage image) {
+        if (entries.getIfPresent(name) != null) {
+            return;
+        }
+        Path path = dir.resolve(name);
+        Path tmp = dir.resolve(name + ".tmp");
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int size = HEADER_SIZE + data.length;
+        try {
+            try ( FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer bb = ByteBuffer.allocate(size);
+                bb.putInt(MAGIC).putInt(image.getWidth()).putInt(image.getHeight());
+                bb.put(data).flip();
+                while (bb.hasRemaining()) {
+                    channel.write(bb);
+                }
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            entries.put(name, size);
+        } catch (IOException x) {
+            LOG.log(Level.WARNING, "Error writing disk cache entry " + path, x);
+            delete(tmp);
+        }
+    }
+
+    private String name(Segment segment, BiasCorrection bc, GlobalScale scale) {
+        File file = segment.getFile().getAbsoluteFile();
+        String key = String.format("%s:%d:%d:%d:%s:%s", file, file.length(), file.lastModified(), segment.getSeekPosition(),
+                bc.getClass().getName(), scale == null ? "local" : String.format("%016x", scale.getDigest()));
+        return digest(key.getBytes(StandardCharsets.UTF_8)) + SUFFIX;
+    }
+
+    private static String digest(byte[] bytes) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(md.digest(bytes), 0, 16);
+        } catch (NoSuchAlgorithmException x) {
+            throw new RuntimeException("SHA-256 not available", x);
+        }
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException x) {
+            LOG.log(Level.WARNING, "Unable to delete disk cache entry " + path, x);
+        }
+    }
+}
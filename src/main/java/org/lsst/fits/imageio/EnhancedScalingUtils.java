@@ -9,7 +9,8 @@ import org.lsst.fits.imageio.cmap.RGBColorMap;
  * The goal of this class is to scale a given set of arbitrary floating or
  * integer data to a range of RGB values. We do this by histograming the data
  * and then computing a cdf so that the output RGB value is scaled according to
- * the frequency of occurrence of the value in the input data.
+ * the frequency of occurrence of the value in the input data. The scaled value
+ * is also available as a level (index into the color map).
  *
  * @author tonyj
  */
@@ -22,11 +23,13 @@ public class EnhancedScalingUtils {
     private float binSize;
     private final int[] histogram;
     private int nEntries;
-    private final int[] rgb;
+    private final RGBColorMap colorMap;
+    private final int[] levels;
 
     EnhancedScalingUtils(FloatBuffer data, RGBColorMap colorMap) {
+        this.colorMap = colorMap;
         histogram = fillHistogram(MAX_BINS, data);
-        rgb = computeCDF(histogram, nEntries, colorMap);
+        levels = computeCDF(histogram, nEntries, colorMap);
     }
 
     private int[] fillHistogram(int bins, FloatBuffer data) {
@@ -57,7 +60,8 @@ public class EnhancedScalingUtils {
                 Arrays.fill(histogram, k, bins, 0);
                 binSize *= rebinFactor;
                 max = min + bins * binSize;
-                bin = binFor(min, binSize, f);
+                // Rounding can put a value at the new maximum just past the last bin
+                bin = Math.min(binFor(min, binSize, f), bins - 1);
 
             } else if (bin < 0) {
                 // Always increase the binSize by an integer factor
@@ -75,7 +79,7 @@ public class EnhancedScalingUtils {
                 Arrays.fill(histogram, 0, k, 0);
                 binSize *= rebinFactor;
                 min = max - bins * binSize;
-                bin = binFor(min, binSize, f);
+                bin = Math.max(binFor(min, binSize, f), 0);
             }
             histogram[bin]++;
             nEntries++;
@@ -93,7 +97,7 @@ public class EnhancedScalingUtils {
         float cum = 0;
         for (int i = 0; i < histogram.length; i++) {
             cum += histogram[i];
-            cdf[i] = colorMap.getRGB((int) Math.floor(size * cum / nEntries));
+            cdf[i] = (int) Math.floor(size * cum / nEntries);
         }
         return cdf;
     }
@@ -123,13 +127,17 @@ public class EnhancedScalingUtils {
     }
 
     int getRGB(float value) {
-        return rgb[binFor(min, binSize, value)];
+        return colorMap.getRGB(getLevel(value));
+    }
+
+    int getLevel(float value) {
+        return levels[Math.max(0, Math.min(binFor(min, binSize, value), levels.length - 1))];
     }
 
     @Override
     public String toString() {
         return "EnhancedScalingUtils{" + "min=" + min + ", max=" + max + ", binSize=" + binSize + ", nEntries=" + nEntries + 
-                "\n histogram=" + Arrays.toString(histogram) +"\n rgb=" + Arrays.toString(rgb) + '}';
+                "\n histogram=" + Arrays.toString(histogram) +"\n levels=" + Arrays.toString(levels) + '}';
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,160 @@
+package org.lsst.fits.imageio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import nom.tam.fits.compression.algorithm.api.ICompressor;
+import nom.tam.fits.compression.algorithm.gzip2.GZip2Compressor;
+
+/**
+ * A decompressor for GZIP_2 compressed integer tiles. Unlike the nom.tam.fits
+ * implementation it does not create any streams or arrays per tile, instead
+ * each thread keeps its own {@link Inflater} and scratch array which are reused
+ * for every tile. The compressed data is inflated directly from the (typically
+ * direct) byte buffer without first being copied into a byte array.
+ *
+ * GZIP_2 stores each tile with its bytes shuffled, all the most significant
+ * bytes first, followed by all the second bytes etc. The unshuffle is written
+ * as a simple counted loop over arrays so that it can be vectorized by the JIT.
+ *
+ * As with GZIPInputStream, tiles which are truncated, or whose CRC32 or length
+ * does not match the gzip trailer, are rejected.
+ */
+class GZip2Decompressor implements ICompressor<IntBuffer> {
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    @Override
+    public boolean compress(IntBuffer pixelData, ByteBuffer compressed) {
+        return new GZip2Compressor.IntGZip2Compressor().compress(pixelData, compressed);
+    }
+
+    @Override
+    public void decompress(ByteBuffer compressed, IntBuffer pixelData) {
+        final int nPixels = pixelData.remaining();
+        final State state = STATE.get();
+        final byte[] shuffled = state.shuffled(nPixels * 4);
+        final Inflater inflater = state.inflater;
+        inflater.reset();
+        skipHeader(compressed);
+        inflater.setInput(compressed);
+        final int size = nPixels * 4;
+        try {
+            int n = 0;
+            while (n < size && !inflater.finished()) {
+                int l = inflater.inflate(shuffled, n, size - n);
+                if (l == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += l;
+            }
+            if (n < size) {
+                throw new IllegalStateException("Truncated GZIP_2 tile, expected " + size + " bytes but got " + n);
+            }
+            // Read up to the end of the deflate stream, which must not hold any more data
+            while (!inflater.finished()) {
+                if (inflater.inflate(state.extra) != 0) {
+                    throw new IllegalStateException("GZIP_2 tile longer than expected " + size + " bytes");
+                } else if (inflater.needsInput() || inflater.needsDictionary()) {
+                    throw new IllegalStateException("Truncated GZIP_2 tile, missing end of compressed data");
+                }
+            }
+        } catch (DataFormatException x) {
+            throw new IllegalStateException("Error decompressing GZIP_2 tile", x);
+        }
+        // The inflater leaves the input positioned after the deflate stream, at the gzip trailer
+        checkTrailer(compressed, shuffled, size, state.crc);
+        compressed.position(compressed.limit());
+        if (pixelData.hasArray()) {
+            unshuffle(shuffled, nPixels, pixelData.array(), pixelData.arrayOffset() + pixelData.position());
+            pixelData.position(pixelData.position() + nPixels);
+        } else {
+            int[] pixels = state.pixels(nPixels);
+            unshuffle(shuffled, nPixels, pixels, 0);
+            pixelData.put(pixels, 0, nPixels);
+        }
+    }
+
+    /**
+     * Reorder the shuffled bytes back into ints.
+     */
+    static void unshuffle(byte[] in, int n, int[] out, int offset) {
+        for (int i = 0; i < n; i++) {
+            out[offset + i] = (in[i] & 0xff) << 24 | (in[i + n] & 0xff) << 16 | (in[i + 2 * n] & 0xff) << 8 | (in[i + 3 * n] & 0xff);
+        }
+    }
+
+    /**
+     * Check the CRC32 and length of the uncompressed data against the gzip
+     * trailer, as GZIPInputStream does.
+     */
+    private static void checkTrailer(ByteBuffer compressed, byte[] data, int size, CRC32 crc) {
+        if (compressed.remaining() < 8) {
+            throw new IllegalStateException("Truncated GZIP_2 tile, missing gzip trailer");
+        }
+        ByteBuffer trailer = compressed.slice().order(ByteOrder.LITTLE_ENDIAN);
+        crc.reset();
+        crc.update(data, 0, size);
+        if ((int) crc.getValue() != trailer.getInt(0)) {
+            throw new IllegalStateException("Corrupt GZIP_2 tile, CRC32 mismatch");
+        }
+        if (size != trailer.getInt(4)) {
+            throw new IllegalStateException("Corrupt GZIP_2 tile, length mismatch");
+        }
+    }
+
+    private static void skipHeader(ByteBuffer compressed) {
+        int start = compressed.position();
+        if ((compressed.get(start) & 0xff) != 0x1f || (compressed.get(start + 1) & 0xff) != 0x8b) {
+            throw new IllegalStateException("Invalid GZIP_2 tile, missing gzip header");
+        }
+        int flags = compressed.get(start + 3) & 0xff;
+        int p = start + 10;
+        if ((flags & FEXTRA) != 0) {
+            p += 2 + ((compressed.get(p) & 0xff) | (compressed.get(p + 1) & 0xff) << 8);
+        }
+        if ((flags & FNAME) != 0) {
+            while (compressed.get(p++) != 0) {
+            }
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (compressed.get(p++) != 0) {
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            p += 2;
+        }
+        compressed.position(p);
+    }
+
+    private static class State {
+
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] extra = new byte[1];
+        private byte[] shuffled = new byte[0];
+        private int[] pixels = new int[0];
+
+        byte[] shuffled(int size) {
+            if (shuffled.length < size) {
+                shuffled = new byte[size];
+            }
+            return shuffled;
+        }
+
+        int[] pixels(int size) {
+            if (pixels.length < size) {
+                pixels = new int[size];
+            }
+            return pixels;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.lsst.fits.imageio;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.util.Arrays;
+
+/**
+ * A global scale, the histogram of the (bias corrected) pixel values of a
+ * complete image, used to scale all of its segments consistently. Global
+ * scales are large (one count per bin), but are used as part of the keys of
+ * the image caches, so each scale carries a 64 bit digest of its counts,
+ * computed once when it is created, and scales are interned so that equal
+ * scales are normally the same object. Comparing two scales is then a
+ * reference (or digest) comparison, and only falls back to comparing the
+ * counts if the digests match but the scales are not the same object.
+ *
+ * The counts must not be modified once the scale has been created.
+ *
+ * A scale may be approximate, estimated from a sample of the image while the
+ * exact scale is computed. Approximate scales are only used temporarily, so
+ * they are not interned, and are never equal to an exact scale, so images
+ * drawn with them can be kept apart from those drawn with exact scales.
+ */
+public final class GlobalScale {
+
+    // Weakly held, so scales which are no longer in use by any cache or client are dropped
+    private static final Cache<Long, GlobalScale> INTERNED = Caffeine.newBuilder().weakValues().build();
+
+    private final long[] counts;
+    private final long digest;
+    private final boolean approximate;
+
+    private GlobalScale(long[] counts, long digest, boolean approximate) {
+        this.counts = counts;
+        this.digest = digest;
+        this.approximate = approximate;
+    }
+
+    /**
+     * Get the global scale with the given counts.
+     *
+     * @param counts The counts, which are copied
+     * @return The interned global scale
+     */
+    public static GlobalScale of(long[] counts) {
+        return intern(counts.clone());
+    }
+
+    /**
+     * Get the global scale with the given counts, taking ownership of the
+     * array.
+     *
+     * @param counts The counts, which must not be modified afterwards
+     * @return The interned global scale
+     */
+    static GlobalScale intern(long[] counts) {
+        GlobalScale scale = new GlobalScale(counts, digest(counts), false);
+        // In the (unlikely) case of two different scales with the same digest, the newer one is interned
+        return INTERNED.asMap().merge(scale.digest, scale, (existing, created) -> existing.equals(created) ? existing : created);
+    }
+
+    /**
+     * Create an approximate global scale with the given counts, taking
+     * ownership of the array.
+     *
+     * @param counts The counts, which must not be modified afterwards
+     * @return The approximate global scale
+     */
+    static GlobalScale approximate(long[] counts) {
+        return new GlobalScale(counts, digest(counts), true);
+    }
+
+    /**
+     * @return <code>true</code> if this scale was estimated from a sample of
+     * the image
+     */
+    public boolean isApproximate() {
+        return approximate;
+    }
+
+    /**
+     * @return A copy of the counts
+     */
+    public long[] getCounts() {
+        return counts.clone();
+    }
+
+    /**
+     * @return The counts, which must not be modified
+     */
+    long[] counts() {
+        return counts;
+    }
+
+    /**
+     * @return The 64 bit digest of the counts
+     */
+    public long getDigest() {
+        return digest;
+    }
+
+    /**
+     * Compute a 64 bit digest of the counts. Each count is mixed into the
+     * running state, which is finished with the MurmurHash3 64 bit finalizer.
+     */
+    static long digest(long[] counts) {
+        long h = counts.length * 0x9E3779B97F4A7C15L;
+        for (long count : counts) {
+            h = Long.rotateLeft(h ^ (count * 0xC2B2AE3D27D4EB4FL), 31) * 0x9E3779B97F4A7C15L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(digest);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        return obj instanceof GlobalScale other && digest == other.digest && approximate == other.approximate && Arrays.equals(counts, other.counts);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("GlobalScale{digest=%016x%s}", digest, approximate ? ", approximate" : "");
+    }
+}
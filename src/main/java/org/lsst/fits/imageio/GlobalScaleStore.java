@@ -0,0 +1,174 @@
+package org.lsst.fits.imageio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.lsst.fits.imageio.bias.BiasCorrection;
+
+/**
+ * A persistent store of global scales, so that the first globally scaled read
+ * of an image after a restart does not have to read every segment of the
+ * image. Used by {@link CachingReader} when a global scale is not found in
+ * memory, and filled in whenever one is computed.
+ *
+ * Each scale is stored in its own file, named by a digest of the files making
+ * up the image (path, length and modification time) and the bias correction,
+ * so an image which is rewritten gets a new scale. Only the occupied range of
+ * bins is stored, deflated, together with the digest of the scale which is
+ * checked when it is loaded. A focal plane scale is typically a few tens of
+ * kilobytes, compared to 2MB for the full array of counts.
+ *
+ * The store is only enabled if the org.lsst.fits.imageio.globalScaleDir
+ * property is set.
+ */
+class GlobalScaleStore {
+
+    private static final Logger LOG = Logger.getLogger(GlobalScaleStore.class.getName());
+    private static final String GLOBAL_SCALE_DIR = System.getProperty("org.lsst.fits.imageio.globalScaleDir");
+    private static final String SUFFIX = ".gscale";
+    private static final int MAGIC = 0x4753434C; // GSCL
+    private static final GlobalScaleStore INSTANCE = GLOBAL_SCALE_DIR == null ? null : new GlobalScaleStore(new File(GLOBAL_SCALE_DIR).toPath());
+
+    private final Path dir;
+
+    /**
+     * Get the global scale store.
+     *
+     * @return The store, or <code>null</code> if no store is configured.
+     */
+    static GlobalScaleStore instance() {
+        return INSTANCE;
+    }
+
+    GlobalScaleStore(Path dir) {
+        this.dir = dir;
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException x) {
+            LOG.log(Level.WARNING, "Error initializing global scale store " + dir, x);
+        }
+    }
+
+    /**
+     * Get a previously stored global scale.
+     *
+     * @param segments The segments of the image
+     * @param bc The bias correction used
+     * @return The scale, or <code>null</code> if not in the store
+     */
+    GlobalScale get(List<Segment> segments, BiasCorrection bc) {
+        Path path = dir.resolve(name(segments, bc));
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Invalid global scale");
+            }
+            long digest = in.readLong();
+            int lowestBin = in.readInt();
+            int nBins = in.readInt();
+            if (lowestBin < 0 || nBins < 0 || lowestBin + nBins > Histogram.NBINS) {
+                throw new IOException("Invalid global scale range");
+            }
+            long[] counts = new long[Histogram.NBINS];
+            DataInputStream data = new DataInputStream(new InflaterInputStream(in));
+            for (int i = 0; i < nBins; i++) {
+                counts[lowestBin + i] = data.readLong();
+            }
+            if (GlobalScale.digest(counts) != digest) {
+                throw new IOException("Corrupt global scale");
+            }
+            GlobalScale scale = GlobalScale.intern(counts);
+            LOG.log(Level.FINE, "Loaded {0} from {1}", new Object[]{scale, path});
+            return scale;
+        } catch (NoSuchFileException x) {
+            return null;
+        } catch (IOException x) {
+            LOG.log(Level.WARNING, "Discarding unreadable global scale " + path, x);
+            delete(path);
+            return null;
+        }
+    }
+
+    /**
+     * Store a global scale.
+     *
+     * @param segments The segments of the image
+     * @param bc The bias correction used
+     * @param scale The scale
+     */
+    void put(List<Segment> segments, BiasCorrection bc, GlobalScale scale) {
+        long[] counts = scale.counts();
+        int lowestBin = 0;
+        while (lowestBin < counts.length && counts[lowestBin] == 0) {
+            lowestBin++;
+        }
+        int highestBin = counts.length - 1;
+        while (highestBin >= lowestBin && counts[highestBin] == 0) {
+            highestBin--;
+        }
+        Path path = dir.resolve(name(segments, bc));
+        Path tmp = dir.resolve(path.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeLong(scale.getDigest());
+                out.writeInt(lowestBin);
+                out.writeInt(highestBin - lowestBin + 1);
+                DeflaterOutputStream deflater = new DeflaterOutputStream(out);
+                DataOutputStream data = new DataOutputStream(deflater);
+                for (int i = lowestBin; i <= highestBin; i++) {
+                    data.writeLong(counts[i]);
+                }
+                data.flush();
+                deflater.finish();
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOG.log(Level.FINE, "Stored {0} in {1}", new Object[]{scale, path});
+        } catch (IOException x) {
+            LOG.log(Level.WARNING, "Error writing global scale " + path, x);
+            delete(tmp);
+        }
+    }
+
+    private static String name(List<Segment> segments, BiasCorrection bc) {
+        Set<File> files = new LinkedHashSet<>();
+        for (Segment segment : segments) {
+            files.add(segment.getFile().getAbsoluteFile());
+        }
+        StringBuilder key = new StringBuilder(bc.getClass().getName());
+        for (File file : files) {
+            key.append(String.format(":%s:%d:%d", file, file.length(), file.lastModified()));
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(md.digest(key.toString().getBytes(StandardCharsets.UTF_8)), 0, 16) + SUFFIX;
+        } catch (NoSuchAlgorithmException x) {
+            throw new RuntimeException("SHA-256 not available", x);
+        }
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException x) {
+            LOG.log(Level.WARNING, "Unable to delete global scale " + path, x);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package org.lsst.fits.imageio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import nom.tam.fits.FitsException;
+import nom.tam.fits.Header;
+import nom.tam.fits.TruncatedFileException;
+import nom.tam.util.BufferedFile;
+
+/**
+ * A compact binary index of the headers of a FITS file, stored alongside the
+ * file (or in a separate directory). Reading the index avoids opening the FITS
+ * file and parsing up to 17 headers just to find the geometry and location of
+ * each segment, which for a full focal plane is several thousand header parses
+ * before the first pixel can be read.
+ *
+ * The index records the length and modification time of the FITS file it was
+ * built from, and is ignored and rebuilt if either has changed. Failure to
+ * write an index (e.g. read-only data directory) is not an error, the headers
+ * are simply read from the FITS file each time.
+ */
+class HeaderIndex {
+
+    private static final Logger LOG = Logger.getLogger(HeaderIndex.class.getName());
+    private static final boolean USE_HEADER_INDEX = Boolean.getBoolean("org.lsst.fits.imageio.useHeaderIndex");
+    // If not set the index is written next to the FITS file
+    private static final String HEADER_INDEX_DIR = System.getProperty("org.lsst.fits.imageio.headerIndexDir");
+    private static final String SUFFIX = ".idx";
+    private static final int MAGIC = 0x46495849; // FIXI
+    private static final int VERSION = 1;
+
+    /**
+     * The information read from the headers of one FITS file
+     */
+    record FileHeaders(String raftBay, String ccdSlot, boolean isDMFile, boolean isGuiderFile, List<SegmentHeader> segments) {}
+
+    private HeaderIndex() {
+    }
+
+    /**
+     * Get the headers for the given file, from the index if one exists and is
+     * up to date, otherwise by scanning the FITS file (and then writing a new
+     * index).
+     *
+     * @param file The FITS file
+     * @return The headers
+     * @throws IOException
+     * @throws TruncatedFileException
+     * @throws FitsException
+     */
+    static FileHeaders getHeaders(File file) throws IOException, TruncatedFileException, FitsException {
+        if (!USE_HEADER_INDEX) {
+            return scan(file);
+        }
+        Path index = indexPath(file);
+        FileHeaders headers = read(file, index);
+        if (headers == null) {
+            headers = scan(file);
+            write(file, index, headers);
+        }
+        return headers;
+    }
+
+    static Path indexPath(File file) {
+        if (HEADER_INDEX_DIR == null) {
+            return new File(file.getPath() + SUFFIX).toPath();
+        } else {
+            // Include a hash of the full path, since files in different directories may have the same name
+            File absolute = file.getAbsoluteFile();
+            String name = String.format("%s.%08x%s", absolute.getName(), absolute.getPath().hashCode(), SUFFIX);
+            return new File(HEADER_INDEX_DIR, name).toPath();
+        }
+    }
+
+    /**
+     * Read the headers directly from the FITS file.
+     */
+    static FileHeaders scan(File file) throws IOException, TruncatedFileException, FitsException {
+        List<SegmentHeader> segments = new ArrayList<>();
+        String ccdSlot;
+        String raftBay;
+        int nSegments = 16;
+        boolean isDMFile = false;
+        try ( BufferedFile bf = new BufferedFile(file, "r")) {
+            Header primary = new Header(bf);
+            raftBay = primary.getStringValue("RAFTBAY");
+            ccdSlot = primary.getStringValue("CCDSLOT");
+            long expId = primary.getLongValue("EXPID");
+            if (ccdSlot == null) {
+                ccdSlot = primary.getStringValue("SENSNAME");
+            }
+            if (ccdSlot == null) {
+                throw new IOException("Missing CCDSLOT while reading " + file);
+            }
+            if (expId != 0) { // Crude way to test if this is a DM file
+                nSegments = 1;
+                isDMFile = true;
+            } else if (ccdSlot.startsWith("SW")) {
+                nSegments = 8;
+            }
+            boolean isGuiderFile = primary.containsKey("N_STAMPS");
+            if (isGuiderFile) {
+                return new FileHeaders(raftBay, ccdSlot, isDMFile, true, Collections.emptyList());
+            }
+            for (int i = 0; i < nSegments; i++) {
+                Header header = new Header(bf);
+                segments.add(SegmentHeader.read(header, bf));
+            }
+        }
+        return new FileHeaders(raftBay, ccdSlot, isDMFile, false, Collections.unmodifiableList(segments));
+    }
+
+    /**
+     * Read the index, returning <code>null</code> if it does not exist, is
+     * out of date or cannot be read.
+     */
+    static FileHeaders read(File file, Path index) {
+        try ( DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOG.log(Level.FINE, "Ignoring header index {0} with wrong format", index);
+                return null;
+            }
+            if (in.readLong() != file.length() || in.readLong() != file.lastModified()) {
+                LOG.log(Level.FINE, "Ignoring stale header index {0}", index);
+                return null;
+            }
+            String raftBay = SegmentHeader.readNullableString(in);
+            String ccdSlot = SegmentHeader.readNullableString(in);
+            boolean isDMFile = in.readBoolean();
+            boolean isGuiderFile = in.readBoolean();
+            int nSegments = in.readInt();
+            List<SegmentHeader> segments = new ArrayList<>(nSegments);
+            for (int i = 0; i < nSegments; i++) {
+                segments.add(SegmentHeader.read(in));
+            }
+            return new FileHeaders(raftBay, ccdSlot, isDMFile, isGuiderFile, Collections.unmodifiableList(segments));
+        } catch (NoSuchFileException x) {
+            return null;
+        } catch (IOException x) {
+            LOG.log(Level.FINE, "Error reading header index " + index, x);
+            return null;
+        }
+    }
+
+    /**
+     * Write the index. The index is first written to a temporary file which is
+     * then renamed, so concurrent readers never see a partially written index.
+     */
+    static void write(File file, Path index, FileHeaders headers) {
+        Path tmp = null;
+        try {
+            Path dir = index.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            tmp = dir.resolve(String.format("%s.%d.%d.tmp", index.getFileName(), ProcessHandle.current().pid(), Thread.currentThread().getId()));
+            try ( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(file.length());
+                out.writeLong(file.lastModified());
+                SegmentHeader.writeNullableString(out, headers.raftBay());
+                SegmentHeader.writeNullableString(out, headers.ccdSlot());
+                out.writeBoolean(headers.isDMFile());
+                out.writeBoolean(headers.isGuiderFile());
+                out.writeInt(headers.segments().size());
+                for (SegmentHeader segment : headers.segments()) {
+                    segment.write(out);
+                }
+            }
+            Files.move(tmp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException x) {
+            LOG.log(Level.FINE, "Unable to write header index " + index, x);
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException xx) {
+                    // Ignore, we already have an exception in progress
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.lsst.fits.imageio;
+
+import java.awt.Rectangle;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import org.lsst.fits.imageio.bias.BiasCorrection.CorrectionFactors;
+import org.lsst.fits.imageio.metrics.Metrics;
+
+/**
+ * A histogram of the (bias corrected) integer pixel values of a segment. The
+ * values are filled into a full size array of bins which is reused by each
+ * thread, while keeping track of the range of occupied bins. Only the occupied
+ * range is kept in the histogram, which for camera data is typically a few
+ * thousand bins rather than the full 18 bit range, and only that range of the
+ * reused array has to be cleared afterwards. Values outside of the range of
+ * the bins are counted in the first or last bin.
+ */
+public class Histogram {
+
+    // Note: This is hardwired for Camera (18 bit) integer data
+    public static final int NBINS = 1 << 18;
+    private static final ThreadLocal<int[]> BINS = ThreadLocal.withInitial(() -> new int[NBINS]);
+
+    private final int lowestBin;
+    private final int[] counts;
+
+    private Histogram(int lowestBin, int[] counts) {
+        this.lowestBin = lowestBin;
+        this.counts = counts;
+    }
+
+    /**
+     * Histogram the datasec region of a segment
+     *
+     * @param data The raw data for the segment
+     * @param segment The segment
+     * @param factors The bias correction factors, or <code>null</code> if the
+     * raw values should be used
+     * @return The histogram
+     */
+    public static Histogram fill(IntBuffer data, Segment segment, CorrectionFactors factors) {
+        return fill(data, segment, factors, null);
+    }
+
+    /**
+     * Histogram the datasec region of a segment in a single pass, optionally
+     * keeping the bias corrected values so that they do not have to be
+     * recomputed when the segment is subsequently scaled.
+     *
+     * @param data The raw data for the segment
+     * @param segment The segment
+     * @param factors The bias correction factors, or <code>null</code> if the
+     * raw values should be used
+     * @param corrected An array of at least datasec width x height into which
+     * the corrected values are stored row by row, or <code>null</code>
+     * @return The histogram
+     */
+    static Histogram fill(IntBuffer data, Segment segment, CorrectionFactors factors, int[] corrected) {
+        long startTime = System.nanoTime();
+        Rectangle datasec = segment.getDataSec();
+        int nAxis1 = segment.getNAxis1();
+        int width = datasec.width;
+        int[] bins = BINS.get();
+        int min = NBINS;
+        int max = -1;
+        BiasVectors bias = factors == null ? null : new BiasVectors(factors, datasec);
+        PixelKernels kernels = PixelKernels.getInstance();
+        int[] row = corrected == null ? new int[width] : null;
+        int q = 0;
+        Histogram result;
+        try {
+            for (int y = datasec.y; y < datasec.height + datasec.y; y++) {
+                int p = datasec.x + y * nAxis1;
+                if (bias == null) {
+                    for (int i = 0; i < width; i++) {
+                        int value = clamp(data.get(p + i));
+                        // The range is updated first, so that it always covers the bins to be cleared
+                        min = Math.min(min, value);
+                        max = Math.max(max, value);
+                        bins[value]++;
+                        if (corrected != null) {
+                            corrected[q + i] = value;
+                        }
+                    }
+                } else {
+                    // Bias correct the row, then histogram the corrected values
+                    int[] out = corrected == null ? row : corrected;
+                    int start = corrected == null ? 0 : q;
+                    kernels.subtractAndClamp(data, p, bias.serial(y), bias.parallel(y), out, start, width);
+                    for (int i = start; i < start + width; i++) {
+                        int value = clamp(out[i]);
+                        out[i] = value;
+                        min = Math.min(min, value);
+                        max = Math.max(max, value);
+                        bins[value]++;
+                    }
+                }
+                q += width;
+            }
+            result = max < 0 ? new Histogram(0, new int[0]) : new Histogram(min, Arrays.copyOfRange(bins, min, max + 1));
+        } finally {
+            // Leave the reused bins empty even if the segment could not be histogrammed
+            if (max >= 0) {
+                Arrays.fill(bins, min, max + 1, 0);
+            }
+        }
+        Metrics.instance().record(Metrics.Stage.HISTOGRAM, System.nanoTime() - startTime);
+        return result;
+    }
+
+    /**
+     * Clamp a value to the range of the bins
+     */
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(value, NBINS - 1));
+    }
+
+    /**
+     * Add the counts in this histogram to a full size array of totals, as used
+     * when combining histograms of many segments.
+     *
+     * @param totals The array to add to, of length {@link #NBINS}
+     */
+    public void addTo(long[] totals) {
+        for (int i = 0; i < counts.length; i++) {
+            totals[lowestBin + i] += counts[i];
+        }
+    }
+
+    public boolean isEmpty() {
+        return counts.length == 0;
+    }
+
+    public int getLowestBin() {
+        return lowestBin;
+    }
+
+    public int getHighestBin() {
+        return lowestBin + counts.length - 1;
+    }
+
+    public int getCount(int bin) {
+        int i = bin - lowestBin;
+        return i >= 0 && i < counts.length ? counts[i] : 0;
+    }
+
+    /**
+     * The counts for the occupied bins, starting at the lowest bin. The array
+     * must not be modified.
+     */
+    int[] getCounts() {
+        return counts;
+    }
+}
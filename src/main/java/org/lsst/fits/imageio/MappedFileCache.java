@@ -0,0 +1,75 @@
+package org.lsst.fits.imageio;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletionException;
+import org.lsst.fits.imageio.metrics.Metrics;
+
+/**
+ * Keeps one read-only memory mapping per FITS file, so that segments can be
+ * handed out as slices of the mapping rather than being copied into freshly
+ * allocated buffers. Evicting a mapping from this cache does not invalidate
+ * slices which are still in use, since each slice keeps a reference to the
+ * mapping it was created from.
+ */
+class MappedFileCache {
+
+    private static final MappedFileCache INSTANCE = new MappedFileCache();
+
+    private final LoadingCache<File, MappedByteBuffer> mappedFiles;
+
+    private MappedFileCache() {
+        mappedFiles = Caffeine.newBuilder()
+                .maximumSize(Integer.getInteger("org.lsst.fits.imageio.mappedFileCacheSize", 1_000))
+                .recordStats()
+                .build((File file) -> {
+                    return Timed.execute(() -> {
+                        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                            long size = channel.size();
+                            if (size > Integer.MAX_VALUE) {
+                                throw new IOException("File too large to memory map: " + file);
+                            }
+                            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                        }
+                    }, "Mapping %s took %dms", file);
+                });
+        Metrics.instance().registerCache("mappedFile", mappedFiles);
+    }
+
+    static MappedFileCache instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get a big-endian view of part of a file.
+     *
+     * @param file The file to read
+     * @param position The offset in the file of the first byte
+     * @param length The number of bytes required
+     * @return A read-only view of the requested bytes, positioned at 0
+     * @throws IOException If the file cannot be mapped, or is shorter than
+     * requested.
+     */
+    ByteBuffer slice(File file, long position, int length) throws IOException {
+        MappedByteBuffer mapped;
+        try {
+            mapped = mappedFiles.get(file);
+        } catch (CompletionException x) {
+            if (x.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw x;
+        }
+        if (position + length > mapped.capacity()) {
+            throw new IOException("Unexpected end of file while reading " + file);
+        }
+        return mapped.slice((int) position, length).order(ByteOrder.BIG_ENDIAN);
+    }
+}
@@ -0,0 +1,97 @@
+package org.lsst.fits.imageio;
+
+import java.nio.IntBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The inner loops used when bias correcting and scaling integer pixel data.
+ * An implementation using the (incubating) JDK vector API is used when the
+ * <code>jdk.incubator.vector</code> module is available, which requires the
+ * JVM to be started with <code>--add-modules jdk.incubator.vector</code>,
+ * otherwise a scalar implementation is used. The vector implementation can be
+ * disabled by setting <code>org.lsst.fits.imageio.useVectorKernels</code> to
+ * false.
+ */
+public abstract class PixelKernels {
+
+    private static final Logger LOG = Logger.getLogger(PixelKernels.class.getName());
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final PixelKernels INSTANCE = select();
+
+    PixelKernels() {
+    }
+
+    /**
+     * Get the kernels to use, selected when this class is loaded.
+     *
+     * @return The kernels
+     */
+    public static PixelKernels getInstance() {
+        return INSTANCE;
+    }
+
+    private static PixelKernels select() {
+        if (Boolean.parseBoolean(System.getProperty("org.lsst.fits.imageio.useVectorKernels", "true"))
+                && ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+            try {
+                if (VectorPixelKernels.isSupported()) {
+                    LOG.log(Level.INFO, "Using vector pixel kernels");
+                    return new VectorPixelKernels();
+                }
+                LOG.log(Level.INFO, "Vector pixel kernels not supported on this platform");
+            } catch (LinkageError x) {
+                LOG.log(Level.WARNING, "Unable to load vector pixel kernels", x);
+            }
+        }
+        return new ScalarPixelKernels();
+    }
+
+    /**
+     * Sum consecutive values, used to reduce a row of overscan.
+     *
+     * @param data The data
+     * @param offset The index of the first value
+     * @param length The number of values
+     * @return The sum
+     */
+    public abstract int sum(IntBuffer data, int offset, int length);
+
+    /**
+     * Add consecutive values to an array of sums, used to reduce the columns
+     * of overscan one row at a time.
+     *
+     * @param data The data
+     * @param offset The index of the first value
+     * @param sums The sums, element i is incremented by value offset+i
+     * @param length The number of values
+     */
+    public abstract void add(IntBuffer data, int offset, int[] sums, int length);
+
+    /**
+     * Bias correct one row of data, clamping negative values to zero.
+     *
+     * @param data The raw data
+     * @param offset The index of the first value
+     * @param serial The correction common to the row
+     * @param parallel The correction for each value
+     * @param out The array to store the corrected values into
+     * @param outOffset The index in out of the first corrected value
+     * @param length The number of values
+     */
+    public abstract void subtractAndClamp(IntBuffer data, int offset, int serial, int[] parallel, int[] out, int outOffset, int length);
+
+    /**
+     * Look up the level for consecutive values. Values outside of the range
+     * covered by the levels map to level 0.
+     *
+     * @param values The values
+     * @param offset The index of the first value
+     * @param levels The levels, element 0 corresponding to value lowest
+     * @param lowest The value corresponding to the first level
+     * @param out The array to store the levels into
+     * @param outOffset The index in out of the first level
+     * @param length The number of values
+     */
+    public abstract void lookup(int[] values, int offset, int[] levels, int lowest, byte[] out, int outOffset, int length);
+}
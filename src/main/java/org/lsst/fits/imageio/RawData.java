@@ -2,6 +2,7 @@ package org.lsst.fits.imageio;
 
 import java.nio.Buffer;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Raw data corresponding to one segment read from a Fits File
@@ -12,6 +13,12 @@ public class RawData<T extends Buffer> {
 
     private final Segment segment;
     private final T buffer;
+    private final boolean memoryMapped;
+    private final Buffer pooledBuffer;
+    // When the data became available, as given by System.nanoTime()
+    private final long loadTime = System.nanoTime();
+    // The cache holds the initial reference
+    private final AtomicInteger referenceCount = new AtomicInteger(1);
 
     /**
      * Create raw data from integer pixel data buffer
@@ -19,18 +26,74 @@ public class RawData<T extends Buffer> {
      * @param ib The integer pixel data
      */
     RawData(Segment segment, T buffer) {
+        this(segment, buffer, false, null);
+    }
+
+    /**
+     * Create raw data from a pixel data buffer
+     * @param segment The corresponding segment
+     * @param buffer The pixel data
+     * @param memoryMapped <code>true</code> if the buffer is a view of a memory mapped file
+     * @param pooledBuffer The buffer to be returned to the {@link BufferPool}
+     * once this raw data is no longer referenced, or <code>null</code>
+     */
+    RawData(Segment segment, T buffer, boolean memoryMapped, Buffer pooledBuffer) {
         this.segment = segment;
         this.buffer = buffer;
+        this.memoryMapped = memoryMapped;
+        this.pooledBuffer = pooledBuffer;
     }
 
     public T getBuffer() {
         return buffer;
     }
 
+    /**
+     * Memory mapped data is backed by the operating system page cache rather
+     * than the java heap or direct memory.
+     * @return <code>true</code> if the buffer is a view of a memory mapped file
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
     public Segment getSegment() {
         return segment;
     }
 
+    long getLoadTime() {
+        return loadTime;
+    }
+
+    /**
+     * Add a reference to this raw data, preventing its buffer from being
+     * recycled until a matching call to {@link #release()}.
+     *
+     * @return <code>false</code> if the data has already been released, in
+     * which case the buffer must not be used.
+     */
+    public boolean retain() {
+        for (;;) {
+            int count = referenceCount.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (referenceCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Remove a reference to this raw data. When the last reference is removed
+     * the underlying buffer is returned to the pool for reuse.
+     */
+    public void release() {
+        if (referenceCount.decrementAndGet() == 0 && pooledBuffer != null) {
+            BufferPool.instance().release(pooledBuffer);
+        }
+    }
+
     @Override
     public String toString() {
         return "RawData{" + "segment=" + segment + '}';
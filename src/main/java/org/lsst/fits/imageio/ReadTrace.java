@@ -0,0 +1,253 @@
+package org.lsst.fits.imageio;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A lightweight trace of a single read. For each segment involved it records
+ * whether the entries it needed were already in the caches, when each of its
+ * inputs became available, how long the drawing task waited to be run, and
+ * how long it took to draw. Times are measured from the point of view of the
+ * read, so when several reads need the same entry each of them sees the time
+ * it waited for it.
+ *
+ * When the read is complete a summary is logged, giving the critical path
+ * (the steps taken by the segment which was the last to be drawn) and the
+ * cache states of every segment. The summary is logged at FINE, or at INFO
+ * for reads which fail or take more than
+ * org.lsst.fits.imageio.slowReadMillis (default 5000ms).
+ */
+class ReadTrace {
+
+    private static final Logger LOG = Logger.getLogger(ReadTrace.class.getName());
+    private static final long SLOW_READ_NANOS = Long.getLong("org.lsst.fits.imageio.slowReadMillis", 5_000L) * 1_000_000L;
+
+    /**
+     * The state of a cache entry when it was requested
+     */
+    enum CacheState {
+        /**
+         * Present and complete
+         */
+        HIT,
+        /**
+         * Present, but still being loaded (for example by another read)
+         */
+        PENDING,
+        MISS;
+
+        static CacheState of(CompletableFuture<?> future) {
+            return future == null ? MISS : future.isDone() && !future.isCompletedExceptionally() ? HIT : PENDING;
+        }
+    }
+
+    /**
+     * The events in the life of a segment, in the order in which they occur.
+     * Events which do not apply to the way a segment is drawn are not
+     * recorded.
+     */
+    enum Event {
+        HEADERS("headers"),
+        GLOBAL_SCALE("globalScale"),
+        RAW_DATA("rawData"),
+        IMAGE("image"),
+        STARTED("queue"),
+        RENDERED("render"),
+        DRAWN("draw");
+
+        private final String step;
+
+        Event(String step) {
+            this.step = step;
+        }
+    }
+
+    private final String description;
+    private final long start = System.nanoTime();
+    private final Queue<SegmentTrace> segments = new ConcurrentLinkedQueue<>();
+    private volatile long globalScaleTime = -1;
+    private volatile CacheState globalScaleState;
+
+    ReadTrace(String description) {
+        this.description = description;
+    }
+
+    /**
+     * @return The time since the start of the read
+     */
+    long now() {
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Get the global scale, recording the state of its cache entry and the
+     * time at which it became available.
+     */
+    <K> CompletableFuture<GlobalScale> globalScale(AsyncLoadingCache<K, GlobalScale> cache, K key) {
+        globalScaleState = CacheState.of(cache.asMap().get(key));
+        return cache.get(key).whenComplete((scale, x) -> globalScaleTime = now());
+    }
+
+    /**
+     * Start tracing a segment.
+     *
+     * @param segment The segment
+     * @param headers The state of the segment cache entry for the file
+     * containing the segment
+     * @param headersTime When the segments of the file became available, as
+     * given by {@link #now()}
+     * @return The trace of the segment
+     */
+    SegmentTrace segment(Segment segment, CacheState headers, long headersTime) {
+        SegmentTrace trace = new SegmentTrace(segment);
+        trace.times.set(Event.HEADERS.ordinal(), headersTime);
+        trace.cache("segment", headers);
+        if (globalScaleTime >= 0) {
+            trace.times.set(Event.GLOBAL_SCALE.ordinal(), globalScaleTime);
+        }
+        segments.add(trace);
+        return trace;
+    }
+
+    /**
+     * Log the summary of the read. Reads which were cancelled (for example
+     * aborted, or no longer wanted by the viewer) ended normally, so are
+     * logged at FINE however long they took.
+     *
+     * @param failure The reason the read failed, or <code>null</code>
+     */
+    void finish(Throwable failure) {
+        long total = now();
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        boolean cancelled = cause instanceof CancellationException;
+        Level level = !cancelled && (total > SLOW_READ_NANOS || cause != null) ? Level.INFO : Level.FINE;
+        if (!LOG.isLoggable(level)) {
+            return;
+        }
+        String outcome = cancelled ? "cancelled" : cause == null ? "completed" : "failed";
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("%s of %d segments %s in %.1fms", description, segments.size(), outcome, total / 1e6));
+        if (globalScaleState != null) {
+            summary.append(String.format("%n  global scale %s ready at %.1fms", globalScaleState, globalScaleTime / 1e6));
+        }
+        SegmentTrace last = null;
+        Map<String, Map<CacheState, Integer>> totals = new LinkedHashMap<>();
+        for (SegmentTrace trace : segments) {
+            if (last == null || trace.done() > last.done()) {
+                last = trace;
+            }
+            for (Map.Entry<String, CacheState> entry : trace.caches.entrySet()) {
+                totals.computeIfAbsent(entry.getKey(), k -> new EnumMap<>(CacheState.class)).merge(entry.getValue(), 1, Integer::sum);
+            }
+        }
+        if (last != null) {
+            summary.append(String.format("%n  critical path %s:", name(last.segment)));
+            long previous = 0;
+            for (Event event : Event.values()) {
+                long time = last.times.get(event.ordinal());
+                if (time >= 0) {
+                    summary.append(String.format(" %s %.1fms", event.step, Math.max(0, time - previous) / 1e6));
+                    previous = Math.max(previous, time);
+                }
+            }
+            summary.append(String.format(" return %.1fms", Math.max(0, total - previous) / 1e6));
+        }
+        for (Map.Entry<String, Map<CacheState, Integer>> entry : totals.entrySet()) {
+            summary.append(String.format("%n  %s %s", entry.getKey(), entry.getValue()));
+        }
+        for (SegmentTrace trace : segments) {
+            summary.append("\n  ").append(trace);
+        }
+        LOG.log(level, summary.toString(), cancelled ? null : cause);
+    }
+
+    private static String name(Segment segment) {
+        return segment.getRaftBay() == null ? segment.getFile().getName() + "/" + segment.getSegmentName()
+                : segment.getRaftBay() + "/" + segment.getCcdSlot() + "/" + segment.getSegmentName();
+    }
+
+    /**
+     * The trace of one segment. Cache states are recorded by the thread
+     * which requests the segment, events may be recorded by any thread.
+     */
+    class SegmentTrace {
+
+        private final Segment segment;
+        private final Map<String, CacheState> caches = new LinkedHashMap<>();
+        private final AtomicLongArray times = new AtomicLongArray(Event.values().length);
+
+        private SegmentTrace(Segment segment) {
+            this.segment = segment;
+            for (int i = 0; i < times.length(); i++) {
+                times.set(i, -1);
+            }
+        }
+
+        void cache(String name, CacheState state) {
+            caches.put(name, state);
+        }
+
+        /**
+         * Record the state of a cache entry, without affecting the statistics
+         * of the cache.
+         *
+         * @return The entry's future, or <code>null</code> if not present
+         */
+        <K, V> CompletableFuture<V> cache(String name, AsyncCache<K, V> cache, K key) {
+            CompletableFuture<V> future = cache.asMap().get(key);
+            cache(name, CacheState.of(future));
+            return future;
+        }
+
+        void event(Event event) {
+            times.set(event.ordinal(), now());
+        }
+
+        /**
+         * Record an event which happened at a given time, or at the start of
+         * the read if it was before then.
+         *
+         * @param nanoTime The time of the event, as given by
+         * System.nanoTime()
+         */
+        void event(Event event, long nanoTime) {
+            times.set(event.ordinal(), Math.max(0, nanoTime - start));
+        }
+
+        /**
+         * Record an event when a future completes.
+         *
+         * @param future The future, which may be <code>null</code>
+         */
+        void eventWhenComplete(Event event, CompletableFuture<?> future) {
+            if (future != null) {
+                future.whenComplete((v, x) -> event(event));
+            }
+        }
+
+        private long done() {
+            return times.get(Event.DRAWN.ordinal());
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(name(segment));
+            for (Map.Entry<String, CacheState> entry : caches.entrySet()) {
+                builder.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+            }
+            long done = done();
+            return builder.append(done < 0 ? " not drawn" : String.format(" drawn at %.1fms", done / 1e6)).toString();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.lsst.fits.imageio;
+
+import java.nio.IntBuffer;
+
+/**
+ * Plain java implementation of the pixel kernels.
+ */
+final class ScalarPixelKernels extends PixelKernels {
+
+    @Override
+    public int sum(IntBuffer data, int offset, int length) {
+        int sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += data.get(offset + i);
+        }
+        return sum;
+    }
+
+    @Override
+    public void add(IntBuffer data, int offset, int[] sums, int length) {
+        for (int i = 0; i < length; i++) {
+            sums[i] += data.get(offset + i);
+        }
+    }
+
+    @Override
+    public void subtractAndClamp(IntBuffer data, int offset, int serial, int[] parallel, int[] out, int outOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            out[outOffset + i] = Math.max(data.get(offset + i) - serial - parallel[i], 0);
+        }
+    }
+
+    @Override
+    public void lookup(int[] values, int offset, int[] levels, int lowest, byte[] out, int outOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            int j = values[offset + i] - lowest;
+            out[outOffset + i] = (byte) (j >= 0 && j < levels.length ? levels[j] : 0);
+        }
+    }
+}
@@ -11,26 +11,41 @@ public class ScalingUtils<T> {
 
     private static final Logger LOG = Logger.getLogger(ScalingUtils.class.getName());
 
+    // counts[0] is the count for bin offset
+    private final int offset;
     private final int[] counts;
     private int lowestBin;
     private int highestBin;
 
     public ScalingUtils(int[] counts) {
+        this.offset = 0;
         this.counts = counts;
         computeMinMax();
     }
+
+    /**
+     * Build a scaling utils from a histogram. The counts for the occupied bins
+     * are shared with the histogram, not copied.
+     *
+     * @param histogram
+     */
+    ScalingUtils(Histogram histogram) {
+        this.offset = histogram.getLowestBin();
+        this.counts = histogram.getCounts();
+        if (!histogram.isEmpty()) {
+            lowestBin = histogram.getLowestBin();
+            highestBin = histogram.getHighestBin();
+        }
+    }
+
     /**
      * Build a scaling utils from a set of long counts (typically representing the full 
      * focal plane). Since the longs may be too large to fit in the int[] we normally use
      * the values have to be scaled, but we need to be careful not to miss any occupied bins when
-     * computing the highest and lowest bin.
+     * computing the highest and lowest bin. Only the occupied bins are kept.
      * @param longCounts 
      */
     ScalingUtils(long[] longCounts) {
-        this.counts = new int[longCounts.length];
-        for (int i=0; i<longCounts.length; i++) {
-            this.counts[i] = (int) (longCounts[i]/100); 
-        }
         for (int i = 0; i < longCounts.length; i++) {
             if (longCounts[i] > 0) {
                 lowestBin = i;
@@ -43,6 +58,11 @@ public class ScalingUtils<T> {
                 break;
             }
         }
+        this.offset = lowestBin;
+        this.counts = new int[highestBin - lowestBin + 1];
+        for (int i = 0; i < counts.length; i++) {
+            this.counts[i] = (int) (longCounts[lowestBin + i] / 100);
+        }
     }
 
     private void computeMinMax() {
@@ -61,11 +81,26 @@ public class ScalingUtils<T> {
         LOG.fine(() -> String.format("min=%d max=%d", lowestBin, highestBin));
     }
 
+    /**
+     * Compute the cumulative counts for the occupied bins only.
+     *
+     * @return The cdf, where element 0 corresponds to the lowest occupied bin
+     */
+    int[] computeOccupiedCDF() {
+        int[] cdf = new int[highestBin - lowestBin + 1];
+        int cum = 0;
+        for (int i = lowestBin; i <= highestBin; i++) {
+            cum += getCount(i);
+            cdf[i - lowestBin] = cum;
+        }
+        return cdf;
+    }
+
     public int[] computeCDF() {
-        int[] cdf = new int[counts.length];
+        int[] cdf = new int[Math.max(offset + counts.length, highestBin + 1)];
         int cum = 0;
         for (int i = lowestBin; i <= highestBin; i++) {
-            cum += counts[i];
+            cum += getCount(i);
             cdf[i] = cum;
         }
 //        int total = cdf[highestBin];
@@ -104,6 +139,7 @@ public class ScalingUtils<T> {
     }
     
     public int getCount(int bin) {
-        return counts[bin];
+        int i = bin - offset;
+        return i >= 0 && i < counts.length ? counts[i] : 0;
     }
 }
@@ -7,8 +7,8 @@ import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.io.File;
 import java.io.IOException;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.channels.AsynchronousFileChannel;
@@ -18,17 +18,18 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import nom.tam.fits.FitsException;
-import nom.tam.fits.FitsUtil;
 import nom.tam.fits.Header;
 import nom.tam.fits.compression.algorithm.api.ICompressor;
 import nom.tam.fits.compression.algorithm.gzip2.GZip2Compressor;
 import nom.tam.fits.compression.algorithm.rice.RiceCompressOption;
 import nom.tam.fits.compression.algorithm.rice.RiceCompressor.IntRiceCompressor;
-import nom.tam.fits.header.Standard;
 import nom.tam.util.BufferedFile;
+import org.lsst.fits.imageio.metrics.Metrics;
 
 /**
  * Represents one segment (amplifier) of a FITS file
@@ -38,6 +39,10 @@ import nom.tam.util.BufferedFile;
 public class Segment {
 
     private static final Pattern DATASET_PATTERN = Pattern.compile("\\[(\\d+):(\\d+),(\\d+):(\\d+)\\]");
+    // When set, data is read through a (shared) memory mapping of each file instead of being copied into a new buffer
+    private static final boolean USE_MEMORY_MAP = Boolean.getBoolean("org.lsst.fits.imageio.useMemoryMap");
+    // When set (the default) integer GZIP_2 data is decoded with our own allocation free decompressor rather than nom.tam.fits
+    private static final boolean USE_NATIVE_GZIP2 = Boolean.parseBoolean(System.getProperty("org.lsst.fits.imageio.useNativeGZip2", "true"));
 
     private final File file;
     private final long seekPosition;
@@ -72,44 +77,26 @@ public class Segment {
     private final int bitpix;
 
     public Segment(Header header, File file, BufferedFile bf, String raftBay, String ccdSlot, char wcsLetter, Map<String, Object> wcsOverride) throws IOException, FitsException {
+        this(SegmentHeader.read(header, bf), file, raftBay, ccdSlot, wcsLetter, wcsOverride);
+    }
+
+    Segment(SegmentHeader header, File file, String raftBay, String ccdSlot, char wcsLetter, Map<String, Object> wcsOverride) throws IOException {
         this.file = file;
-        this.seekPosition = bf.getFilePointer();
+        this.seekPosition = header.seekPosition();
         this.wcsLetter = wcsLetter;
         this.raftBay = raftBay;
         this.ccdSlot = ccdSlot;
-        isCompressed = header.getBooleanValue("ZIMAGE");
-        segmentName = header.getStringValue("EXTNAME");
-        if (isCompressed) {
-            bitpix = header.getIntValue("ZBITPIX");
-            compressionType = header.getStringValue("ZCMPTYPE");
-            // Note, nom,tam.fits has support for many/all compression types, 
-            // but performance for the way we are trying to use it leaves much
-            // to be desired. The "deferred data reading" used by nom.tam.fits also
-            // has issues with requiring files to remain open to be used later.
-            // For now we only support the GZIP_2 type used for camera data.
-            if (!"RICE_1".equals(compressionType) && !"GZIP_2".equals(header.getStringValue("ZCMPTYPE"))) {
-                throw new FitsException("Unsupported compression type: " + compressionType);
-            }
-            nAxis1 = header.getIntValue("ZNAXIS1"); // 576
-            nAxis2 = header.getIntValue("ZNAXIS2"); // 2048       
-            rawDataLength = header.getIntValue(Standard.NAXIS1) * header.getIntValue(Standard.NAXIS2) + header.getIntValue("PCOUNT");
-            // There give the size of the binary table giving the offsets into the compressed data
-            cAxis1 = header.getIntValue(Standard.NAXIS1); // 8
-            cAxis2 = header.getIntValue(Standard.NAXIS2); // 2048
-            // These give the size of the compressed "tiles"
-            zTile1 = header.getIntValue("ZTILE1"); // 576
-            zTile2 = header.getIntValue("ZTILE2"); // 1  
-        } else {
-            bitpix = header.getIntValue("BITPIX");
-            nAxis1 = header.getIntValue(Standard.NAXIS1);
-            nAxis2 = header.getIntValue(Standard.NAXIS2);
-            rawDataLength = nAxis1 * nAxis2 * 4;
-            cAxis1 = cAxis2 = zTile1 = zTile2 = 0;
-            compressionType = null;
-        }
-        // Skip the data (for now)
-        int pad = FitsUtil.padding(rawDataLength);
-        bf.skip(rawDataLength + pad);
+        isCompressed = header.compressed();
+        segmentName = header.extName();
+        bitpix = header.bitpix();
+        compressionType = header.compressionType();
+        nAxis1 = header.nAxis1();
+        nAxis2 = header.nAxis2();
+        rawDataLength = header.rawDataLength();
+        cAxis1 = header.cAxis1();
+        cAxis2 = header.cAxis2();
+        zTile1 = header.zTile1();
+        zTile2 = header.zTile2();
 
         if (wcsOverride != null) {
             String datasecString = wcsOverride.get("DATASEC").toString();
@@ -120,9 +107,9 @@ public class Segment {
             pc2_1 = ((Number) wcsOverride.get("PC2_1" + wcsLetter)).doubleValue();
             crval1 = ((Number) wcsOverride.get("CRVAL1" + wcsLetter)).doubleValue();
             crval2 = ((Number) wcsOverride.get("CRVAL2" + wcsLetter)).doubleValue();
-            channel = header.getIntValue("CHANNEL");
+            channel = header.channel();
         } else {
-            String datasecString = header.getStringValue("DATASEC");
+            String datasecString = header.datasec();
             if (datasecString == null) {
                 throw new IOException("Missing datasec for file: " + file);
             }
@@ -133,13 +120,13 @@ public class Segment {
                 localWcsLetter = 'E';
             }
             datasec = computeDatasec(datasecString);
-            pc1_1 = header.getDoubleValue("PC1_1" + localWcsLetter);
-            pc2_2 = header.getDoubleValue("PC2_2" + localWcsLetter);
-            pc1_2 = header.getDoubleValue("PC1_2" + localWcsLetter);
-            pc2_1 = header.getDoubleValue("PC2_1" + localWcsLetter);
-            crval1 = header.getDoubleValue("CRVAL1" + localWcsLetter);
-            crval2 = header.getDoubleValue("CRVAL2" + localWcsLetter);
-            channel = header.getIntValue("CHANNEL");
+            pc1_1 = header.getWCSValue("PC1_1" + localWcsLetter);
+            pc2_2 = header.getWCSValue("PC2_2" + localWcsLetter);
+            pc1_2 = header.getWCSValue("PC1_2" + localWcsLetter);
+            pc2_1 = header.getWCSValue("PC2_1" + localWcsLetter);
+            crval1 = header.getWCSValue("CRVAL1" + localWcsLetter);
+            crval2 = header.getWCSValue("CRVAL2" + localWcsLetter);
+            channel = header.channel();
             if (wcsLetter == 'Q' && raftBay != null) {
                 int raftX = Integer.parseInt(raftBay.substring(1,2));
                 int raftY = Integer.parseInt(raftBay.substring(2,3));
@@ -193,112 +180,83 @@ public class Segment {
         return file;
     }
 
-//    // Data in the compressed byte array is stored with the bytes shuffled, this routine unshuffles them
-//    private void unshuffle(byte[] in, IntBuffer out) {
-//        int length = in.length / 4;
-//        for (int i = 0; i < length; i++) {
-//            out.put(((0xff & in[i]) << 24) + ((0xff & in[i + length]) << 16) + ((0xff & in[i + 2 * length]) << 8) + ((0xff & in[i + 3 * length])));
-//        }
-//    }
-
-//    Old method no longer used, left here in case there is a performance decrease with new version
-//    private IntBuffer decodeGZIP2CompressedData(ByteBuffer bb) {
-//        // We use inflater directly since it can be reused (unlike GZIPInputStream)
-//        Inflater inflater = new Inflater(true);
-//        try {
-//            IntBuffer result = IntBuffer.allocate(nAxis1 * nAxis2);
-//            // offsets contain the length and offset of each tile
-//            int[] offsets = new int[cAxis1 * cAxis2 / 4];
-//            bb.asIntBuffer().get(offsets);
-//            bb.position(cAxis1 * cAxis2);
-//            // Note, the +1 is required by Inflater (actually zlib)
-//            byte[] decompressed = new byte[nAxis1 * 4 + 1];
-//            // We assume the compressed data will never be larger than the decompressed
-//            // data, but that might not be true.
-//            byte[] compressed = new byte[nAxis1 * 4 + 1];
-//            // Note, the format is designed to allow decompression to be parallelized
-//            // but since we are typically reading many files in parallel there is little
-//            // to be gained.
-//            for (int i = 0; i < cAxis2; i++) {
-//                // For jdk 8 we need to copy the input data into a byte array. If we
-//                // use jdk11 we can directly send the ByteBuffer to the inflater.
-//                bb.get(compressed, 0, offsets[i * 2]);
-//                inflater.reset();
-//                // 10 is to skip the gzip header
-//                inflater.setInput(compressed, 10, offsets[i * 2] - 10);
-//                int p = 0;
-//                while (!inflater.finished()) {
-//                    int l = inflater.inflate(decompressed, p, decompressed.length - p);
-//                    p += l;
-//                }
-//                unshuffle(decompressed, result);
-//            }
-//            result.flip();
-//            return result;
-//        } catch (DataFormatException x) {
-//            throw new CompletionException("Error decompressing image", x);
-//        } finally {
-//            inflater.end();
-//        }
-//    }
-    
+    long getSeekPosition() {
+        return seekPosition;
+    }
+
     private IntBuffer decodeGZIP2CompressedData(ByteBuffer bb) {
-        return this.decodeCompressedData(bb, new GZip2Compressor.IntGZip2Compressor());
+        return this.decodeCompressedData(bb, gzip2CompressorFactory());
+    }
+
+    private static Supplier<ICompressor<IntBuffer>> gzip2CompressorFactory() {
+        if (USE_NATIVE_GZIP2) {
+            return () -> new GZip2Decompressor();
+        } else {
+            return () -> new GZip2Compressor.IntGZip2Compressor();
+        }
     }
 
     private FloatBuffer decodeGZIP2FloatCompressedData(ByteBuffer bb) {
-        return this.decodeCompressedFloatData(bb, new GZip2Compressor.FloatGZip2Compressor());
+        return this.decodeCompressedFloatData(bb, () -> new GZip2Compressor.FloatGZip2Compressor());
     }
     
     private IntBuffer decodeRICECompressedData(ByteBuffer bb) {
+        return this.decodeCompressedData(bb, riceCompressorFactory());
+    }
+
+    private static Supplier<ICompressor<IntBuffer>> riceCompressorFactory() {
         final RiceCompressOption riceCompressOption = new RiceCompressOption();
         // Why are these hardwired? -- presumably should come from headers.
         riceCompressOption.setBlockSize(32);
         riceCompressOption.setBytePix(4);
-        IntRiceCompressor inflater = new IntRiceCompressor(riceCompressOption);
-        return this.decodeCompressedData(bb, inflater);
+        return () -> new IntRiceCompressor(riceCompressOption);
     }
     
     // The compressed data is store as a FITS BinaryTable, where each row of the image is decompressed 
     // independently.
-    private IntBuffer decodeCompressedData(ByteBuffer bb, ICompressor<IntBuffer> inflater) {
-        IntBuffer result = IntBuffer.allocate(nAxis1 * nAxis2);
-        // offsets contain the length and offset of each tile
-        int[] offsets = new int[cAxis1 * cAxis2 / 4];
-        bb.asIntBuffer().get(offsets);
-        bb.position(cAxis1 * cAxis2);
-        // Note, the format is designed to allow decompression to be parallelized
-        // but since we are typically reading many files in parallel there is little
-        // to be gained.
-        for (int i = 0; i < cAxis2; i++) {
-            result.limit(result.position()+nAxis1);
-            bb.limit(bb.position()+offsets[i * 2]);
-            inflater.decompress(bb, result.slice());
-            result.position(result.position()+nAxis1);
-        }
-        result.flip();
+    private IntBuffer decodeCompressedData(ByteBuffer bb, Supplier<ICompressor<IntBuffer>> inflaterFactory) {
+        IntBuffer result = BufferPool.instance().acquireInt(nAxis1 * nAxis2);
+        TileDecompressor.decompress(bb, cAxis2, cAxis1, nAxis1, result, inflaterFactory);
         return result;
     }
 
-    private FloatBuffer decodeCompressedFloatData(ByteBuffer bb, ICompressor<FloatBuffer> inflater) {
-        FloatBuffer result = FloatBuffer.allocate(nAxis1 * nAxis2);
-        // offsets contain the length and offset of each tile
-        int[] offsets = new int[cAxis1 * cAxis2 / 4];
-        bb.asIntBuffer().get(offsets);
-        bb.position(cAxis1 * cAxis2);
-        // Note, the format is designed to allow decompression to be parallelized
-        // but since we are typically reading many files in parallel there is little
-        // to be gained.
-        for (int i = 0; i < cAxis2; i++) {
-            result.limit(result.position()+nAxis1);
-            bb.limit(bb.position()+offsets[i * 2]);
-            inflater.decompress(bb, result.slice());
-            result.position(result.position()+nAxis1);
+    /**
+     * Decode only every stride'th row of the datasec, and all of the rows
+     * outside it (which contain the parallel overscan). Each of the other rows
+     * of the datasec is filled with a copy of the decoded row before it, so
+     * that the result can be bias corrected and histogrammed like the full
+     * data, with each decoded row standing in for the rows around it.
+     */
+    private IntBuffer decodeSampledCompressedData(ByteBuffer bb, int stride) {
+        IntBuffer result = BufferPool.instance().acquireInt(nAxis1 * nAxis2);
+        Supplier<ICompressor<IntBuffer>> factory = "GZIP_2".equals(compressionType) ? gzip2CompressorFactory() : riceCompressorFactory();
+        int firstRow = datasec.y;
+        int endRow = datasec.y + datasec.height;
+        TileDecompressor.decompress(bb, cAxis2, cAxis1, nAxis1, result, factory.get(), (row) -> row < firstRow || row >= endRow || (row - firstRow) % stride == 0);
+        for (int row = firstRow; row < endRow; row++) {
+            int sampledRow = firstRow + (row - firstRow) / stride * stride;
+            if (sampledRow != row) {
+                result.put(row * nAxis1, result, sampledRow * nAxis1, nAxis1);
+            }
         }
-        result.flip();
         return result;
     }
 
+    private FloatBuffer decodeCompressedFloatData(ByteBuffer bb, Supplier<ICompressor<FloatBuffer>> inflaterFactory) {
+        FloatBuffer result = BufferPool.instance().acquireFloat(nAxis1 * nAxis2);
+        TileDecompressor.decompress(bb, cAxis2, cAxis1, nAxis1, result, inflaterFactory);
+        return result;
+    }
+
+    /**
+     * Read the raw data for this segment. The data is read asynchronously, and
+     * compressed data is decoded on the given executor, so that the threads
+     * completing the reads are never tied up decoding.
+     *
+     * @param executor The executor used to decode the data, or
+     * <code>null</code> to decode on the thread which completes the read
+     * @return The future raw data
+     */
     public CompletableFuture<RawData> readRawDataAsync(Executor executor) {
 
         CompletableFuture<ByteBuffer> futureByteBuffer = readByteBufferAsync();
@@ -306,26 +264,75 @@ public class Segment {
             if ("GZIP_2".equals(compressionType)) {
                 switch (bitpix) {
                     case 32:
-                        return futureByteBuffer.thenApply((bb) -> decodeGZIP2CompressedData(bb)).thenApply((ib) -> new RawData(this, ib));
+                        return decodeAsync(futureByteBuffer, this::decodeGZIP2CompressedData, executor).thenApply((ib) -> new RawData(this, ib, false, ib));
                     case -32:
-                        return futureByteBuffer.thenApply((bb) -> decodeGZIP2FloatCompressedData(bb)).thenApply((fb) -> new RawData(this, fb));
+                        return decodeAsync(futureByteBuffer, this::decodeGZIP2FloatCompressedData, executor).thenApply((fb) -> new RawData(this, fb, false, fb));
                     default:
                         throw new RuntimeException("Unsupported bitpix: "+bitpix);
                 }
             } else {
-                return futureByteBuffer.thenApply((bb) -> decodeRICECompressedData(bb)).thenApply((ib) -> new RawData(this, ib));
+                return decodeAsync(futureByteBuffer, this::decodeRICECompressedData, executor).thenApply((ib) -> new RawData(this, ib, false, ib));
             }
         } else {
-            return futureByteBuffer.thenApply((bb) -> new RawData(this, bb.asIntBuffer()));
+            return futureByteBuffer.thenApply((bb) -> new RawData(this, bb.asIntBuffer(), USE_MEMORY_MAP, USE_MEMORY_MAP ? null : bb));
+        }
+    }
+
+    /**
+     * Read an approximation of the raw data for this segment, in which only a
+     * sample of the rows of the datasec are decoded, as used to quickly
+     * estimate the histogram of the segment. Only integer data compressed with
+     * one tile per row can be sampled, other data is read in full.
+     *
+     * @param stride Decode one row in every stride rows of the datasec
+     * @param executor The executor used to decode the data
+     * @return The future raw data, which is not shared with the full raw data
+     * @see #decodeSampledCompressedData(java.nio.ByteBuffer, int)
+     */
+    CompletableFuture<RawData> readSampledRawDataAsync(int stride, Executor executor) {
+        if (!isCompressed || bitpix != 32 || zTile1 != nAxis1 || zTile2 != 1 || stride <= 1) {
+            return readRawDataAsync(executor);
+        }
+        return decodeAsync(readByteBufferAsync(), (bb) -> decodeSampledCompressedData(bb, stride), executor).<RawData>thenApply((ib) -> new RawData<>(this, ib, false, ib));
+    }
+
+    private <T extends Buffer> CompletableFuture<T> decodeAsync(CompletableFuture<ByteBuffer> futureByteBuffer, Function<ByteBuffer, T> decoder, Executor executor) {
+        Function<ByteBuffer, T> decode = (bb) -> decodeAndRelease(bb, decoder);
+        // Counted from now, so queued decodes are taken into account by those already running
+        TileDecompressor.queued();
+        CompletableFuture<T> decoded = executor == null ? futureByteBuffer.thenApply(decode) : futureByteBuffer.thenApplyAsync(decode, executor);
+        decoded.whenComplete((result, x) -> TileDecompressor.finished());
+        return decoded;
+    }
+
+    /**
+     * Decode compressed data, and return the buffer holding the compressed
+     * bytes to the pool, since it is no longer needed once decoded.
+     */
+    private <T extends Buffer> T decodeAndRelease(ByteBuffer bb, Function<ByteBuffer, T> decoder) {
+        long start = System.nanoTime();
+        try {
+            T result = decoder.apply(bb);
+            Metrics metrics = Metrics.instance();
+            metrics.record(Metrics.Stage.DECOMPRESS, System.nanoTime() - start);
+            metrics.addBytesDecoded(4L * result.limit());
+            return result;
+        } finally {
+            if (!USE_MEMORY_MAP) {
+                BufferPool.instance().release(bb);
+            }
         }
     }
 
     private CompletableFuture<ByteBuffer> readByteBufferAsync() {
+        if (USE_MEMORY_MAP) {
+            return readMappedByteBuffer();
+        }
         CompletableFuture<ByteBuffer> result = new CompletableFuture<>();
+        long start = System.nanoTime();
         try {
             AsynchronousFileChannel asyncChannel = AsynchronousFileChannel.open(file.toPath(), StandardOpenOption.READ);
-            ByteBuffer bb = ByteBuffer.allocateDirect(rawDataLength);
-            bb.order(ByteOrder.BIG_ENDIAN);
+            ByteBuffer bb = BufferPool.instance().acquireDirect(rawDataLength);
             asyncChannel.read(bb, seekPosition, result, new CompletionHandler<Integer, CompletableFuture<ByteBuffer>>() {
                 @Override
                 public void completed(Integer len, CompletableFuture<ByteBuffer> future) {
@@ -335,6 +342,9 @@ public class Segment {
                         future.completeExceptionally(ex);
                     }
                     bb.flip();
+                    Metrics metrics = Metrics.instance();
+                    metrics.record(Metrics.Stage.READ, System.nanoTime() - start);
+                    metrics.addBytesRead(bb.remaining());
                     future.complete(bb);
                 }
 
@@ -345,6 +355,7 @@ public class Segment {
                     } catch (IOException ex) {
                         // We already have an IO exception in progress, so ignore this additional one
                     }
+                    BufferPool.instance().release(bb);
                     future.completeExceptionally(x);
                 }
             });
@@ -354,6 +365,27 @@ public class Segment {
         return result;
     }
 
+    /**
+     * Get the data for this segment as a slice of the memory mapped file. No
+     * data is copied, pages are read from disk as they are first accessed.
+     */
+    private CompletableFuture<ByteBuffer> readMappedByteBuffer() {
+        try {
+            long start = System.nanoTime();
+            ByteBuffer bb = MappedFileCache.instance().slice(file, seekPosition, rawDataLength);
+            Metrics metrics = Metrics.instance();
+            metrics.record(Metrics.Stage.READ, System.nanoTime() - start);
+            metrics.addBytesRead(rawDataLength);
+            return CompletableFuture.completedFuture(bb);
+        } catch (IOException x) {
+            return CompletableFuture.failedFuture(x);
+        }
+    }
+
+    int getBitpix() {
+        return bitpix;
+    }
+
     public int getNAxis1() {
         return nAxis1;
     }
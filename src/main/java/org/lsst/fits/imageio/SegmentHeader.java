@@ -0,0 +1,156 @@
+package org.lsst.fits.imageio;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import nom.tam.fits.FitsException;
+import nom.tam.fits.FitsUtil;
+import nom.tam.fits.Header;
+import nom.tam.fits.HeaderCard;
+import nom.tam.fits.header.Standard;
+import nom.tam.util.BufferedFile;
+import nom.tam.util.Cursor;
+
+/**
+ * The values from the FITS header of one segment which are needed to build a
+ * {@link Segment}. These are independent of the WCS letter being used, so can
+ * be saved in a {@link HeaderIndex} and used to build segments without reading
+ * the FITS file again.
+ */
+record SegmentHeader(long seekPosition, boolean compressed, int bitpix, String compressionType,
+        int nAxis1, int nAxis2, int rawDataLength, int cAxis1, int cAxis2, int zTile1, int zTile2,
+        String extName, String datasec, int channel, Map<String, Double> wcsKeywords) {
+
+    private static final Pattern WCS_KEYWORD_PATTERN = Pattern.compile("(PC[12]_[12]|CRVAL[12]).");
+
+    /**
+     * Extract the values from a header, and skip over the corresponding data.
+     *
+     * @param header The header just read
+     * @param bf The file, positioned at the start of the data
+     * @return The segment header
+     * @throws IOException
+     * @throws FitsException If the segment uses an unsupported compression
+     * type
+     */
+    static SegmentHeader read(Header header, BufferedFile bf) throws IOException, FitsException {
+        long seekPosition = bf.getFilePointer();
+        boolean compressed = header.getBooleanValue("ZIMAGE");
+        int bitpix, nAxis1, nAxis2, rawDataLength, cAxis1, cAxis2, zTile1, zTile2;
+        String compressionType;
+        if (compressed) {
+            bitpix = header.getIntValue("ZBITPIX");
+            compressionType = header.getStringValue("ZCMPTYPE");
+            // Note, nom,tam.fits has support for many/all compression types,
+            // but performance for the way we are trying to use it leaves much
+            // to be desired. The "deferred data reading" used by nom.tam.fits also
+            // has issues with requiring files to remain open to be used later.
+            // For now we only support the GZIP_2 type used for camera data.
+            if (!"RICE_1".equals(compressionType) && !"GZIP_2".equals(compressionType)) {
+                throw new FitsException("Unsupported compression type: " + compressionType);
+            }
+            nAxis1 = header.getIntValue("ZNAXIS1"); // 576
+            nAxis2 = header.getIntValue("ZNAXIS2"); // 2048
+            rawDataLength = header.getIntValue(Standard.NAXIS1) * header.getIntValue(Standard.NAXIS2) + header.getIntValue("PCOUNT");
+            // There give the size of the binary table giving the offsets into the compressed data
+            cAxis1 = header.getIntValue(Standard.NAXIS1); // 8
+            cAxis2 = header.getIntValue(Standard.NAXIS2); // 2048
+            // These give the size of the compressed "tiles"
+            zTile1 = header.getIntValue("ZTILE1"); // 576
+            zTile2 = header.getIntValue("ZTILE2"); // 1
+        } else {
+            bitpix = header.getIntValue("BITPIX");
+            nAxis1 = header.getIntValue(Standard.NAXIS1);
+            nAxis2 = header.getIntValue(Standard.NAXIS2);
+            rawDataLength = nAxis1 * nAxis2 * 4;
+            cAxis1 = cAxis2 = zTile1 = zTile2 = 0;
+            compressionType = null;
+        }
+        // Skip the data (for now)
+        int pad = FitsUtil.padding(rawDataLength);
+        bf.skip(rawDataLength + pad);
+
+        Map<String, Double> wcsKeywords = new LinkedHashMap<>();
+        for (Cursor<String, HeaderCard> i = header.iterator(); i.hasNext();) {
+            HeaderCard card = i.next();
+            String key = card.getKey();
+            if (key != null && WCS_KEYWORD_PATTERN.matcher(key).matches()) {
+                wcsKeywords.put(key, header.getDoubleValue(key));
+            }
+        }
+        return new SegmentHeader(seekPosition, compressed, bitpix, compressionType, nAxis1, nAxis2, rawDataLength, cAxis1, cAxis2, zTile1, zTile2,
+                header.getStringValue("EXTNAME"), header.getStringValue("DATASEC"), header.getIntValue("CHANNEL"), Collections.unmodifiableMap(wcsKeywords));
+    }
+
+    /**
+     * Get a WCS keyword value
+     *
+     * @param key The keyword, including the WCS letter
+     * @return The value, or 0 if not present (consistent with
+     * {@link Header#getDoubleValue(java.lang.String)})
+     */
+    double getWCSValue(String key) {
+        return wcsKeywords.getOrDefault(key, 0.0);
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeLong(seekPosition);
+        out.writeBoolean(compressed);
+        out.writeInt(bitpix);
+        writeNullableString(out, compressionType);
+        out.writeInt(nAxis1);
+        out.writeInt(nAxis2);
+        out.writeInt(rawDataLength);
+        out.writeInt(cAxis1);
+        out.writeInt(cAxis2);
+        out.writeInt(zTile1);
+        out.writeInt(zTile2);
+        writeNullableString(out, extName);
+        writeNullableString(out, datasec);
+        out.writeInt(channel);
+        out.writeShort(wcsKeywords.size());
+        for (Map.Entry<String, Double> entry : wcsKeywords.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeDouble(entry.getValue());
+        }
+    }
+
+    static SegmentHeader read(DataInput in) throws IOException {
+        long seekPosition = in.readLong();
+        boolean compressed = in.readBoolean();
+        int bitpix = in.readInt();
+        String compressionType = readNullableString(in);
+        int nAxis1 = in.readInt();
+        int nAxis2 = in.readInt();
+        int rawDataLength = in.readInt();
+        int cAxis1 = in.readInt();
+        int cAxis2 = in.readInt();
+        int zTile1 = in.readInt();
+        int zTile2 = in.readInt();
+        String extName = readNullableString(in);
+        String datasec = readNullableString(in);
+        int channel = in.readInt();
+        int nKeywords = in.readShort();
+        Map<String, Double> wcsKeywords = new LinkedHashMap<>();
+        for (int i = 0; i < nKeywords; i++) {
+            wcsKeywords.put(in.readUTF(), in.readDouble());
+        }
+        return new SegmentHeader(seekPosition, compressed, bitpix, compressionType, nAxis1, nAxis2, rawDataLength, cAxis1, cAxis2, zTile1, zTile2,
+                extName, datasec, channel, Collections.unmodifiableMap(wcsKeywords));
+    }
+
+    static void writeNullableString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    static String readNullableString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
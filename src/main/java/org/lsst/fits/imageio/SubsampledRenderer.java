@@ -0,0 +1,139 @@
+package org.lsst.fits.imageio;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.nio.IntBuffer;
+import org.lsst.fits.imageio.bias.BiasCorrection.CorrectionFactors;
+
+/**
+ * Renders the datasec region of a segment directly at the resolution of the
+ * destination image. Only the pixels which will actually appear in the
+ * destination are computed, so the cost is proportional to the size of the
+ * output rather than the size of the segment, which for subsampled reads (e.g.
+ * zoomed out IIIF tiles) is much smaller.
+ *
+ * Each destination pixel is either taken from the segment pixel under its
+ * center (equivalent to the nearest neighbor scaling done by Java2D), or if
+ * box filtering is requested, is the mean of all of the segment pixels it
+ * covers.
+ */
+class SubsampledRenderer {
+
+    /**
+     * Maps (bias corrected) pixel values to levels (indexes into the color
+     * map), for values starting at <code>lowest</code>. Values outside the
+     * table are clamped.
+     */
+    record LevelLookup(int lowest, byte[] levels) {
+
+        static LevelLookup create(ScalingUtils su) {
+            int[] cdf = CachingReader.computeLevelLookup(su);
+            byte[] levels = new byte[cdf.length];
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] = (byte) cdf[i];
+            }
+            return new LevelLookup(su.getLowestOccupiedBin(), levels);
+        }
+
+        byte getLevel(int value) {
+            return levels[Math.max(0, Math.min(value - lowest, levels.length - 1))];
+        }
+    }
+
+    /**
+     * The rendered levels, and their location in device coordinates
+     */
+    record Rendered(BufferedImage image, Rectangle bounds) {}
+
+    private SubsampledRenderer() {
+    }
+
+    /**
+     * Render a segment
+     *
+     * @param data The raw data for the segment
+     * @param segment The segment
+     * @param factors The bias correction factors
+     * @param lookup The lookup table for converting values to levels
+     * @param segmentToDevice Transform from datasec coordinates to the device
+     * @param deviceBounds The bounds of the destination image
+     * @param boxFilter If true each pixel is the mean of the pixels it covers
+     * @return The rendered image, or <code>null</code> if the segment is not
+     * visible or the transform is not invertible
+     */
+    static Rendered render(IntBuffer data, Segment segment, CorrectionFactors factors, LevelLookup lookup, AffineTransform segmentToDevice, Rectangle deviceBounds, boolean boxFilter) {
+        Rectangle datasec = segment.getDataSec();
+        AffineTransform inverse;
+        try {
+            inverse = segmentToDevice.createInverse();
+        } catch (NoninvertibleTransformException x) {
+            return null;
+        }
+        // A device pixel is drawn if its center lies within the segment
+        Rectangle2D extent = segmentToDevice.createTransformedShape(new Rectangle(0, 0, datasec.width, datasec.height)).getBounds2D();
+        int u0 = Math.max((int) Math.ceil(extent.getMinX() - 0.5), deviceBounds.x);
+        int v0 = Math.max((int) Math.ceil(extent.getMinY() - 0.5), deviceBounds.y);
+        int u1 = Math.min((int) Math.ceil(extent.getMaxX() - 0.5), deviceBounds.x + deviceBounds.width);
+        int v1 = Math.min((int) Math.ceil(extent.getMaxY() - 0.5), deviceBounds.y + deviceBounds.height);
+        if (u1 <= u0 || v1 <= v0) {
+            return null;
+        }
+        int width = u1 - u0;
+        int height = v1 - v0;
+        BufferedImage image = CachingReader.createLevelImage(width, height);
+        byte[] levels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+
+        // Change in segment coordinates for one step in u
+        double dxdu = inverse.getScaleX();
+        double dydu = inverse.getShearY();
+        // Size of the area of the segment covered by one device pixel
+        int boxWidth = Math.max(1, (int) Math.round(Math.abs(inverse.getScaleX()) + Math.abs(inverse.getShearX())));
+        int boxHeight = Math.max(1, (int) Math.round(Math.abs(inverse.getShearY()) + Math.abs(inverse.getScaleY())));
+        double[] point = new double[2];
+        int nAxis1 = segment.getNAxis1();
+        for (int v = 0; v < height; v++) {
+            point[0] = u0 + 0.5;
+            point[1] = v0 + v + 0.5;
+            inverse.transform(point, 0, point, 0, 1);
+            double sx = point[0];
+            double sy = point[1];
+            int p = v * width;
+            for (int u = 0; u < width; u++) {
+                int lx = clamp((int) Math.floor(sx), datasec.width);
+                int ly = clamp((int) Math.floor(sy), datasec.height);
+                int value;
+                if (boxFilter) {
+                    // The pixel center is at the center of the box
+                    int bx = clamp(lx - boxWidth / 2, datasec.width - boxWidth + 1);
+                    int by = clamp(ly - boxHeight / 2, datasec.height - boxHeight + 1);
+                    int bxEnd = Math.min(bx + boxWidth, datasec.width);
+                    int byEnd = Math.min(by + boxHeight, datasec.height);
+                    long sum = 0;
+                    for (int y = by; y < byEnd; y++) {
+                        int q = datasec.x + (datasec.y + y) * nAxis1;
+                        for (int x = bx; x < bxEnd; x++) {
+                            sum += Math.max(data.get(q + x) - factors.correctionFactor(datasec.x + x, datasec.y + y), 0);
+                        }
+                    }
+                    value = (int) (sum / ((bxEnd - bx) * (byEnd - by)));
+                } else {
+                    int x = datasec.x + lx;
+                    int y = datasec.y + ly;
+                    value = Math.max(data.get(x + y * nAxis1) - factors.correctionFactor(x, y), 0);
+                }
+                levels[p++] = lookup.getLevel(value);
+                sx += dxdu;
+                sy += dydu;
+            }
+        }
+        return new Rendered(image, new Rectangle(u0, v0, width, height));
+    }
+
+    private static int clamp(int value, int limit) {
+        return Math.max(0, Math.min(value, limit - 1));
+    }
+}
@@ -0,0 +1,187 @@
+package org.lsst.fits.imageio;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+import nom.tam.fits.compression.algorithm.api.ICompressor;
+
+/**
+ * Decompresses the tiles of a tile compressed image. The compressed data is
+ * stored as a FITS binary table, where each row of the table describes (length
+ * and heap offset) one independently compressed tile.
+ *
+ * The format allows the tiles to be decompressed in parallel. When many
+ * segments are being read at once (e.g. a focal plane) there is nothing to be
+ * gained by this, since all the cores are already busy. But when only a few
+ * segments are being decoded (single CCD, zoomed in raft) most cores would
+ * otherwise be idle, so in that case the tile table is split into ranges which
+ * are decompressed on the fork join pool, each into its own disjoint slice of
+ * the output buffer.
+ */
+class TileDecompressor {
+
+    private static final boolean PARALLEL = Boolean.parseBoolean(System.getProperty("org.lsst.fits.imageio.parallelDecompression", "true"));
+    private static final int MIN_TILES_PER_TASK = Integer.getInteger("org.lsst.fits.imageio.minTilesPerDecompressionTask", 64);
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+    // Segments waiting to be, or being, decompressed
+    private static final AtomicInteger SEGMENTS_IN_FLIGHT = new AtomicInteger();
+
+    private TileDecompressor() {
+    }
+
+    /**
+     * Record that a segment is waiting to be decompressed. Segments are
+     * counted from when their decompression is queued, not just while it is
+     * running, so that when many segments are queued the first few do not
+     * split their work across cores which the rest will need.
+     * {@link #finished()} must be called once the segment has been
+     * decompressed, or has failed.
+     */
+    static void queued() {
+        SEGMENTS_IN_FLIGHT.incrementAndGet();
+    }
+
+    /**
+     * Record that a segment queued by {@link #queued()} is no longer waiting
+     * to be decompressed.
+     */
+    static void finished() {
+        SEGMENTS_IN_FLIGHT.decrementAndGet();
+    }
+
+    /**
+     * Decompress all the tiles into the result buffer.
+     *
+     * @param <T> The type of the output buffer
+     * @param bb The binary table, followed by the heap containing the compressed
+     * data
+     * @param nTiles The number of tiles (rows in the table)
+     * @param rowLength The length in bytes of each row of the table
+     * @param tileSize The number of pixels in each tile
+     * @param result The buffer to receive the decompressed data
+     * @param compressorFactory Creates a compressor for use by a single thread
+     */
+    static <T extends Buffer> void decompress(ByteBuffer bb, int nTiles, int rowLength, int tileSize, T result, Supplier<ICompressor<T>> compressorFactory) {
+        // Including this segment, if it was not queued
+        int inFlight = Math.max(1, SEGMENTS_IN_FLIGHT.get());
+        int nTasks = PARALLEL ? Math.min(CORES / inFlight, nTiles / MIN_TILES_PER_TASK) : 1;
+        decompress(bb, nTiles, rowLength, tileSize, result, compressorFactory, nTasks);
+    }
+
+    /**
+     * Decompress all the tiles into the result buffer, splitting the work into
+     * the given number of tasks regardless of the number of cores or segments
+     * in flight. Used by tests to exercise parallel decompression on any
+     * machine.
+     *
+     * @param <T> The type of the output buffer
+     * @param bb The binary table, followed by the heap containing the compressed
+     * data
+     * @param nTiles The number of tiles (rows in the table)
+     * @param rowLength The length in bytes of each row of the table
+     * @param tileSize The number of pixels in each tile
+     * @param result The buffer to receive the decompressed data
+     * @param compressorFactory Creates a compressor for use by a single thread
+     * @param nTasks The number of tasks, if 1 or less the tiles are
+     * decompressed serially on the calling thread
+     */
+    static <T extends Buffer> void decompress(ByteBuffer bb, int nTiles, int rowLength, int tileSize, T result, Supplier<ICompressor<T>> compressorFactory, int nTasks) {
+        // offsets contain the length and offset of each tile
+        int[] table = new int[nTiles * rowLength / 4];
+        bb.asIntBuffer().get(table);
+        int heapStart = nTiles * rowLength;
+        int tableStride = rowLength / 4;
+        if (nTasks <= 1) {
+            decompressRange(bb, table, tableStride, heapStart, 0, nTiles, tileSize, result, compressorFactory.get());
+        } else {
+            int tilesPerTask = (nTiles + nTasks - 1) / nTasks;
+            // Forks into the pool of the calling thread, or the common pool if it is not a pool thread
+            new RangeTask<>(bb, table, tableStride, heapStart, 0, nTiles, tilesPerTask, tileSize, result, compressorFactory).invoke();
+        }
+    }
+
+    /**
+     * Decompress only the selected tiles into the result buffer, leaving the
+     * rest of the buffer untouched. Used when only a sample of the data is
+     * needed, so the (few) tiles are decompressed serially.
+     *
+     * @param <T> The type of the output buffer
+     * @param bb The binary table, followed by the heap containing the compressed
+     * data
+     * @param nTiles The number of tiles (rows in the table)
+     * @param rowLength The length in bytes of each row of the table
+     * @param tileSize The number of pixels in each tile
+     * @param result The buffer to receive the decompressed data
+     * @param compressor The compressor to use
+     * @param selected Whether a tile, given by its index, should be decompressed
+     */
+    static <T extends Buffer> void decompress(ByteBuffer bb, int nTiles, int rowLength, int tileSize, T result, ICompressor<T> compressor, IntPredicate selected) {
+        int[] table = new int[nTiles * rowLength / 4];
+        bb.asIntBuffer().get(table);
+        int heapStart = nTiles * rowLength;
+        int tableStride = rowLength / 4;
+        for (int i = 0; i < nTiles; i++) {
+            if (selected.test(i)) {
+                decompressRange(bb, table, tableStride, heapStart, i, i + 1, tileSize, result, compressor);
+            }
+        }
+    }
+
+    private static <T extends Buffer> void decompressRange(ByteBuffer bb, int[] table, int tableStride, int heapStart, int start, int end, int tileSize, T result, ICompressor<T> compressor) {
+        // Use private views so that ranges being decoded in parallel do not interfere
+        ByteBuffer in = bb.duplicate();
+        Buffer out = result.duplicate();
+        for (int i = start; i < end; i++) {
+            int length = table[i * tableStride];
+            int offset = heapStart + table[i * tableStride + 1];
+            in.limit(offset + length).position(offset);
+            out.limit(i * tileSize + tileSize).position(i * tileSize);
+            @SuppressWarnings("unchecked")
+            T slice = (T) out.slice();
+            compressor.decompress(in, slice);
+        }
+    }
+
+    private static class RangeTask<T extends Buffer> extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer bb;
+        private final int[] table;
+        private final int tableStride;
+        private final int heapStart;
+        private final int start;
+        private final int end;
+        private final int tilesPerTask;
+        private final int tileSize;
+        private final T result;
+        private final Supplier<ICompressor<T>> compressorFactory;
+
+        RangeTask(ByteBuffer bb, int[] table, int tableStride, int heapStart, int start, int end, int tilesPerTask, int tileSize, T result, Supplier<ICompressor<T>> compressorFactory) {
+            this.bb = bb;
+            this.table = table;
+            this.tableStride = tableStride;
+            this.heapStart = heapStart;
+            this.start = start;
+            this.end = end;
+            this.tilesPerTask = tilesPerTask;
+            this.tileSize = tileSize;
+            this.result = result;
+            this.compressorFactory = compressorFactory;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= tilesPerTask) {
+                decompressRange(bb, table, tableStride, heapStart, start, end, tileSize, result, compressorFactory.get());
+            } else {
+                int middle = start + (end - start) / 2;
+                invokeAll(new RangeTask<>(bb, table, tableStride, heapStart, start, middle, tilesPerTask, tileSize, result, compressorFactory),
+                        new RangeTask<>(bb, table, tableStride, heapStart, middle, end, tilesPerTask, tileSize, result, compressorFactory));
+            }
+        }
+    }
+}
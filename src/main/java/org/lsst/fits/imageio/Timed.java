@@ -3,9 +3,11 @@ package org.lsst.fits.imageio;
 import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.lsst.fits.imageio.metrics.Metrics;
 
 /**
- * Utility for logging timing info
+ * Utility for logging timing info, and optionally recording it in the
+ * {@link Metrics} for a stage of the read pipeline.
  * @author tonyj
  */
 public class Timed {
@@ -21,19 +23,30 @@ public class Timed {
         return execute(logLevel, callable, (time) -> String.format(message, append(args,time)));
     }
 
+    public static <T> T execute(Metrics.Stage stage, Callable<T> callable, String message, Object... args) {
+        return execute(DEFAULT_LOG_LEVEL, stage, callable, (time) -> String.format(message, append(args, time)));
+    }
+
     private static <T> T execute(Callable<T> callable, MessageSupplier message) {
         return execute(DEFAULT_LOG_LEVEL, callable, message);
     }
 
     private static <T> T execute(Level logLevel, Callable<T> callable, MessageSupplier message) {
-        long start = System.currentTimeMillis();
+        return execute(logLevel, null, callable, message);
+    }
+
+    private static <T> T execute(Level logLevel, Metrics.Stage stage, Callable<T> callable, MessageSupplier message) {
+        long start = System.nanoTime();
         try {
             return callable.call();
         } catch (Exception x) {
             return Timed.sneakyThrow(x);
         } finally {
-            long stop = System.currentTimeMillis();
-            LOG.log(logLevel, () -> message.get(stop - start));
+            long elapsed = System.nanoTime() - start;
+            if (stage != null) {
+                Metrics.instance().record(stage, elapsed);
+            }
+            LOG.log(logLevel, () -> message.get(elapsed / 1_000_000));
         }
     }
 
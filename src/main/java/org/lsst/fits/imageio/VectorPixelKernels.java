@@ -0,0 +1,121 @@
+package org.lsst.fits.imageio;
+
+import java.nio.IntBuffer;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Implementation of the pixel kernels using the JDK vector API. This class
+ * must only be loaded if the <code>jdk.incubator.vector</code> module is
+ * available, see {@link PixelKernels#getInstance()}.
+ *
+ * Buffers which are not backed by an array (memory mapped or direct buffers)
+ * are copied one row at a time into a per thread array, which the JDK does
+ * with a bulk copy, before being processed.
+ */
+final class VectorPixelKernels extends PixelKernels {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final ThreadLocal<int[]> ROW = ThreadLocal.withInitial(() -> new int[0]);
+    // The levels are narrowed from one int vector to one byte vector with the
+    // same number of lanes, which needs at least 64 bit byte vectors. The
+    // species must be a constant for the conversion to be compiled efficiently.
+    private static final VectorSpecies<Byte> BYTE_SPECIES = LANES >= 8 ? ByteVector.SPECIES_PREFERRED.withShape(VectorShape.forBitSize(LANES * Byte.SIZE)) : null;
+    private static final ThreadLocal<int[]> INDICES = ThreadLocal.withInitial(() -> new int[LANES]);
+
+    static boolean isSupported() {
+        return BYTE_SPECIES != null;
+    }
+
+    @Override
+    public int sum(IntBuffer data, int offset, int length) {
+        int[] a = array(data, offset, length);
+        int base = base(data, offset);
+        IntVector acc = IntVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            acc = acc.add(IntVector.fromArray(SPECIES, a, base + i));
+        }
+        int sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[base + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void add(IntBuffer data, int offset, int[] sums, int length) {
+        int[] a = array(data, offset, length);
+        int base = base(data, offset);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            IntVector.fromArray(SPECIES, sums, i).add(IntVector.fromArray(SPECIES, a, base + i)).intoArray(sums, i);
+        }
+        for (; i < length; i++) {
+            sums[i] += a[base + i];
+        }
+    }
+
+    @Override
+    public void subtractAndClamp(IntBuffer data, int offset, int serial, int[] parallel, int[] out, int outOffset, int length) {
+        int[] a = array(data, offset, length);
+        int base = base(data, offset);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            IntVector.fromArray(SPECIES, a, base + i)
+                    .sub(serial)
+                    .sub(IntVector.fromArray(SPECIES, parallel, i))
+                    .max(0)
+                    .intoArray(out, outOffset + i);
+        }
+        for (; i < length; i++) {
+            out[outOffset + i] = Math.max(a[base + i] - serial - parallel[i], 0);
+        }
+    }
+
+    @Override
+    public void lookup(int[] values, int offset, int[] levels, int lowest, byte[] out, int outOffset, int length) {
+        int[] indices = INDICES.get();
+        int last = levels.length - 1;
+        int i = 0;
+        if (last >= 0) {
+            for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+                IntVector index = IntVector.fromArray(SPECIES, values, offset + i).sub(lowest);
+                VectorMask<Integer> outside = index.compare(VectorOperators.LT, 0).or(index.compare(VectorOperators.GT, last));
+                // The gather takes its indices from an array, so clamp them into range and store them
+                index.max(0).min(last).intoArray(indices, 0);
+                IntVector.fromArray(SPECIES, levels, 0, indices, 0)
+                        .blend(0, outside)
+                        .castShape(BYTE_SPECIES, 0)
+                        .reinterpretAsBytes()
+                        .intoArray(out, outOffset + i);
+            }
+        }
+        for (; i < length; i++) {
+            int j = values[offset + i] - lowest;
+            out[outOffset + i] = (byte) (j >= 0 && j <= last ? levels[j] : 0);
+        }
+    }
+
+    private static int[] array(IntBuffer data, int offset, int length) {
+        if (data.hasArray()) {
+            return data.array();
+        }
+        int[] row = ROW.get();
+        if (row.length < length) {
+            row = new int[length];
+            ROW.set(row);
+        }
+        data.get(offset, row, 0, length);
+        return row;
+    }
+
+    private static int base(IntBuffer data, int offset) {
+        return data.hasArray() ? data.arrayOffset() + offset : 0;
+    }
+}
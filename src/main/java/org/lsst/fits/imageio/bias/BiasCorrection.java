@@ -15,5 +15,17 @@ public interface BiasCorrection {
 
         public int correctionFactor(int x, int y);
 
+        /**
+         * Whether the correction factors are separable, that is of the form
+         * <code>serial(y) + parallel(x)</code>. Separable correction factors
+         * can be materialised as one row and one column vector instead of
+         * being evaluated for every pixel.
+         *
+         * @return <code>true</code> if the correction factors are separable
+         */
+        default boolean isSeparable() {
+            return false;
+        }
+
     }
 }
@@ -9,7 +9,18 @@ import org.lsst.fits.imageio.Segment;
  */
 public class NullBiasCorrection implements BiasCorrection {
 
-    private static final CorrectionFactors NOOP_CORRECTION = (int x, int y) -> 0;
+    private static final CorrectionFactors NOOP_CORRECTION = new CorrectionFactors() {
+        @Override
+        public int correctionFactor(int x, int y) {
+            return 0;
+        }
+
+        @Override
+        public boolean isSeparable() {
+            return true;
+        }
+    };
+
     @Override
     public CorrectionFactors compute(IntBuffer data, Segment segment) {
         return NOOP_CORRECTION;
@@ -9,6 +9,7 @@ import nom.tam.fits.FitsException;
 import nom.tam.fits.Header;
 import nom.tam.fits.TruncatedFileException;
 import nom.tam.util.BufferedFile;
+import org.lsst.fits.imageio.PixelKernels;
 import org.lsst.fits.imageio.Segment;
 
 /**
@@ -28,12 +29,10 @@ public class SerialParallelBiasCorrection implements BiasCorrection {
         int[] serialBias = new int[datasec.height];
         int minSerialBias = 999999;
         int serialOverscanStart = datasec.x + datasec.width + 4;
+        PixelKernels kernels = PixelKernels.getInstance();
         int position = 0;
         for (int y = datasec.y; y < datasec.height + datasec.y; y++) {
-            int biasSum = 0;
-            for (int x = serialOverscanStart; x < nAxis1; x++) {
-                biasSum += data.get(position + x);
-            }
+            int biasSum = kernels.sum(data, position + serialOverscanStart, nAxis1 - serialOverscanStart);
             biasSum /= nAxis1 - serialOverscanStart;
             serialBias[y - datasec.y] = biasSum;
             minSerialBias = Math.min(minSerialBias, biasSum);
@@ -49,15 +48,16 @@ public class SerialParallelBiasCorrection implements BiasCorrection {
 
         int parallelOverscanStart = datasec.y + datasec.height + 4;
 
+        // Sum the overscan rows into the columns they belong to
+        int[] biasSums = new int[datasec.width];
+        for (int y = parallelOverscanStart; y < nAxis2; y++) {
+            kernels.add(data, datasec.x + y * nAxis1, biasSums, datasec.width);
+        }
         for (int x = datasec.x; x < datasec.width + datasec.x; x++) {
-            int biasSum = 0;
-            for (int y = parallelOverscanStart; y < nAxis2; y++) {
-                biasSum += data.get(x + y * nAxis1);
-            }
+            int biasSum = biasSums[x - datasec.x];
             biasSum /= nAxis2 - parallelOverscanStart;
             parallelBias[x - datasec.x] = biasSum;
             minParallelBias = Math.min(minParallelBias, biasSum);
-            position += nAxis1;
         }
         for (int i = 0; i < parallelBias.length; i++) {
             parallelBias[i] -= minParallelBias;
@@ -108,6 +108,11 @@ public class SerialParallelBiasCorrection implements BiasCorrection {
             return serialBias[y - datasec.y] + parallelBias[x - datasec.x];
         }
 
+        @Override
+        public boolean isSeparable() {
+            return true;
+        }
+
         @Override
         public String toString() {
             return "CorrectionFactors{" + "datasec=" + datasec + ", serialBias=" + Arrays.toString(serialBias) + ", parallelBias=" + Arrays.toString(parallelBias) + '}';
@@ -109,6 +109,11 @@ public class SerialParallelBiasSub implements BiasCorrection {
             return -overallCorrection;
         }
 
+        @Override
+        public boolean isSeparable() {
+            return true;
+        }
+
         @Override
         public String toString() {
             return "SimpleCorrectionFactors{" + "datasec=" + datasec + ", overallCorrection=" + overallCorrection + '}';
@@ -111,6 +111,11 @@ public class SerialParallelBiasSubtraction implements BiasCorrection {
             return serialBias[y - datasec.y] + parallelBias[x - datasec.x];
         }
 
+        @Override
+        public boolean isSeparable() {
+            return true;
+        }
+
         @Override
         public String toString() {
             return "CorrectionFactors{" + "datasec=" + datasec + ", serialBias=" + Arrays.toString(serialBias) + ", parallelBias=" + Arrays.toString(parallelBias) + '}';
@@ -125,6 +125,11 @@ public class SerialParallelBiasSubtraction2 implements BiasCorrection {
             return -overallCorrection + serialBias[y - datasec.y] + parallelBias[x - datasec.x];
         }
 
+        @Override
+        public boolean isSeparable() {
+            return true;
+        }
+
         @Override
         public String toString() {
             double sAvg = Arrays.stream(serialBias).average().getAsDouble();
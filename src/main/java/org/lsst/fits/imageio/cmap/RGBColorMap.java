@@ -1,6 +1,8 @@
 package org.lsst.fits.imageio.cmap;
 
 import java.awt.image.ByteLookupTable;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
 import java.awt.image.LookupOp;
 
 /**
@@ -10,6 +12,7 @@ import java.awt.image.LookupOp;
 public abstract class RGBColorMap {
 
     private final int size;
+    private volatile IndexColorModel indexColorModel;
 
     public RGBColorMap(int size) {
         this.size = size;
@@ -33,4 +36,24 @@ public abstract class RGBColorMap {
         return new LookupOp(table, null);
     }
 
+    /**
+     * Get a color model for 8 bit images whose pixel values are indexes into
+     * this color map. Images of grey levels can be displayed using any color
+     * map just by changing their color model.
+     *
+     * @return The color model
+     */
+    public IndexColorModel getIndexColorModel() {
+        IndexColorModel result = indexColorModel;
+        if (result == null) {
+            int[] rgb = new int[size];
+            for (int i = 0; i < size; i++) {
+                rgb[i] = getRGB(i);
+            }
+            result = new IndexColorModel(8, size, rgb, 0, false, -1, DataBuffer.TYPE_BYTE);
+            indexColorModel = result;
+        }
+        return result;
+    }
+
 }
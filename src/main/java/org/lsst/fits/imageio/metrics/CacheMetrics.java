@@ -0,0 +1,56 @@
+package org.lsst.fits.imageio.metrics;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+/**
+ * Exposes the statistics recorded by a Caffeine cache. The cache must be
+ * built with recordStats() for anything other than the size to be non zero.
+ */
+final class CacheMetrics implements CacheMetricsMXBean {
+
+    private final Cache<?, ?> cache;
+
+    CacheMetrics(Cache<?, ?> cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public long getEstimatedSize() {
+        return cache.estimatedSize();
+    }
+
+    @Override
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    @Override
+    public long getEvictionWeight() {
+        return cache.stats().evictionWeight();
+    }
+
+    @Override
+    public long getLoadSuccessCount() {
+        return cache.stats().loadSuccessCount();
+    }
+
+    @Override
+    public long getLoadFailureCount() {
+        return cache.stats().loadFailureCount();
+    }
+
+    @Override
+    public long getTotalLoadTimeNanos() {
+        return cache.stats().totalLoadTime();
+    }
+}
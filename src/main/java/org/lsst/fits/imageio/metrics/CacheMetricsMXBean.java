@@ -0,0 +1,27 @@
+package org.lsst.fits.imageio.metrics;
+
+/**
+ * The statistics of one of the reader's caches.
+ */
+public interface CacheMetricsMXBean {
+
+    long getEstimatedSize();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+
+    long getEvictionWeight();
+
+    long getLoadSuccessCount();
+
+    long getLoadFailureCount();
+
+    /**
+     * @return The total time spent loading entries, including failed loads,
+     * in nanoseconds
+     */
+    long getTotalLoadTimeNanos();
+}
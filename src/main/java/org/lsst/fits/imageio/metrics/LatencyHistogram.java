@@ -0,0 +1,144 @@
+package org.lsst.fits.imageio.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in nanoseconds. Values are counted in buckets
+ * which are exact below 8ns, and above that split each power of two into 8
+ * equal buckets, so quantiles are accurate to 12.5% over the full range of
+ * a long, with a fixed size and no allocation when recording.
+ */
+public final class LatencyHistogram implements LatencyHistogramMXBean {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int NBUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NBUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Record one latency.
+     *
+     * @param nanos The latency in nanoseconds, negative values are treated as
+     * 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        buckets.incrementAndGet(bucket(value));
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public long getTotalNanos() {
+        return total.sum();
+    }
+
+    @Override
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    @Override
+    public long getP50Nanos() {
+        return getValueAtQuantile(0.5);
+    }
+
+    @Override
+    public long getP90Nanos() {
+        return getValueAtQuantile(0.9);
+    }
+
+    @Override
+    public long getP99Nanos() {
+        return getValueAtQuantile(0.99);
+    }
+
+    @Override
+    public long getP999Nanos() {
+        return getValueAtQuantile(0.999);
+    }
+
+    /**
+     * Get an estimate of a quantile of the recorded latencies.
+     *
+     * @param quantile The quantile, between 0 and 1
+     * @return The upper bound of the bucket containing the quantile (but no
+     * more than the maximum recorded value), or 0 if nothing has been recorded
+     */
+    public long getValueAtQuantile(double quantile) {
+        long[] snapshot = snapshot();
+        long n = 0;
+        for (long c : snapshot) {
+            n += c;
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(quantile * n));
+        long cumulative = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            cumulative += snapshot[i];
+            if (cumulative >= target) {
+                return Math.min(lowerBound(i + 1) - 1, getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * Get the number of recorded latencies less than a given value. This is
+     * exact when the value is a power of two.
+     *
+     * @param nanos The value
+     * @return The number of recorded values which are less than the value
+     */
+    public long getCountBelow(long nanos) {
+        long cumulative = 0;
+        for (int i = 0; i < NBUCKETS && lowerBound(i + 1) <= nanos; i++) {
+            cumulative += buckets.get(i);
+        }
+        return cumulative;
+    }
+
+    long[] snapshot() {
+        long[] result = new long[NBUCKETS];
+        for (int i = 0; i < NBUCKETS; i++) {
+            result[i] = buckets.get(i);
+        }
+        return result;
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + (int) ((value >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * The smallest value counted in a bucket, or Long.MAX_VALUE for the
+     * bucket beyond the last.
+     */
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        } else if (bucket >= NBUCKETS) {
+            return Long.MAX_VALUE;
+        }
+        int exp = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exp - SUB_BUCKET_BITS);
+    }
+}
@@ -0,0 +1,21 @@
+package org.lsst.fits.imageio.metrics;
+
+/**
+ * The JMX view of a {@link LatencyHistogram}.
+ */
+public interface LatencyHistogramMXBean {
+
+    long getCount();
+
+    long getTotalNanos();
+
+    long getMaxNanos();
+
+    long getP50Nanos();
+
+    long getP90Nanos();
+
+    long getP99Nanos();
+
+    long getP999Nanos();
+}
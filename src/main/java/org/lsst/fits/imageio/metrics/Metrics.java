@@ -0,0 +1,181 @@
+package org.lsst.fits.imageio.metrics;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics for the image reader: the statistics of each of the caches, latency
+ * histograms for each stage of the read pipeline, and the number of bytes
+ * read and decoded. The metrics are registered as MXBeans (unless
+ * org.lsst.fits.imageio.jmx is false), can be written in the Prometheus text
+ * format, and if org.lsst.fits.imageio.metricsPort is set are served over
+ * HTTP on that port. Other monitoring systems can read them through the
+ * methods of this class.
+ */
+public final class Metrics implements MetricsMXBean {
+
+    /**
+     * The stages of the read pipeline. Stages can be nested, in particular
+     * when a segment is scaled using its own histogram the time spent in
+     * HISTOGRAM is also included in RENDER.
+     */
+    public enum Stage {
+        /**
+         * Reading the (possibly compressed) data of a segment from disk
+         */
+        READ,
+        /**
+         * Decompressing the data of a segment
+         */
+        DECOMPRESS,
+        /**
+         * Computing the bias correction factors of a segment
+         */
+        BIAS,
+        /**
+         * Histogramming the bias corrected data of a segment
+         */
+        HISTOGRAM,
+        /**
+         * Creating the 8 bit (full resolution, binned or subsampled) image of
+         * a segment
+         */
+        RENDER,
+        /**
+         * Drawing the image of a segment into the image being read
+         */
+        COMPOSITE
+    }
+
+    private static final Logger LOG = Logger.getLogger(Metrics.class.getName());
+    private static final boolean USE_JMX = Boolean.parseBoolean(System.getProperty("org.lsst.fits.imageio.jmx", "true"));
+    private static final Integer METRICS_PORT = Integer.getInteger("org.lsst.fits.imageio.metricsPort");
+    static final String DOMAIN = "org.lsst.fits.imageio";
+    private static final Metrics INSTANCE = new Metrics();
+
+    private final Map<Stage, LatencyHistogram> latencies = new EnumMap<>(Stage.class);
+    private final Map<String, CacheMetricsMXBean> caches = new ConcurrentSkipListMap<>();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesDecoded = new LongAdder();
+
+    private Metrics() {
+        for (Stage stage : Stage.values()) {
+            latencies.put(stage, new LatencyHistogram());
+        }
+        if (USE_JMX) {
+            register("type=Metrics", this);
+            for (Map.Entry<Stage, LatencyHistogram> entry : latencies.entrySet()) {
+                register("type=Latency,name=" + entry.getKey(), entry.getValue());
+            }
+        }
+        if (METRICS_PORT != null) {
+            try {
+                PrometheusFormat.serve(this, METRICS_PORT);
+            } catch (IOException x) {
+                LOG.log(Level.WARNING, "Unable to serve metrics on port " + METRICS_PORT, x);
+            }
+        }
+    }
+
+    public static Metrics instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Add a cache to the metrics. A cache registered with the same name as an
+     * existing cache replaces it.
+     *
+     * @param name The name of the cache
+     * @param cache The cache
+     */
+    public void registerCache(String name, Cache<?, ?> cache) {
+        CacheMetrics metrics = new CacheMetrics(cache);
+        caches.put(name, metrics);
+        if (USE_JMX) {
+            register("type=Cache,name=" + name, metrics);
+        }
+    }
+
+    public void registerCache(String name, AsyncCache<?, ?> cache) {
+        registerCache(name, cache.synchronous());
+    }
+
+    /**
+     * Record the time taken by one execution of a stage.
+     *
+     * @param stage The stage
+     * @param nanos The elapsed time in nanoseconds
+     */
+    public void record(Stage stage, long nanos) {
+        latencies.get(stage).record(nanos);
+    }
+
+    public void addBytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    public void addBytesDecoded(long bytes) {
+        bytesDecoded.add(bytes);
+    }
+
+    public LatencyHistogram getLatency(Stage stage) {
+        return latencies.get(stage);
+    }
+
+    /**
+     * @return The registered caches, by name
+     */
+    public Map<String, CacheMetricsMXBean> getCaches() {
+        return Collections.unmodifiableMap(caches);
+    }
+
+    /**
+     * @return The number of bytes read from disk (or from memory mapped
+     * files)
+     */
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * @return The number of bytes of pixel data produced by decompressing
+     * compressed data
+     */
+    @Override
+    public long getBytesDecoded() {
+        return bytesDecoded.sum();
+    }
+
+    @Override
+    public String getPrometheusText() {
+        StringBuilder builder = new StringBuilder();
+        PrometheusFormat.write(this, builder);
+        return builder.toString();
+    }
+
+    private static void register(String properties, Object mbean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(mbean, name);
+        } catch (JMException x) {
+            LOG.log(Level.WARNING, "Unable to register MBean " + properties, x);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.lsst.fits.imageio.metrics;
+
+/**
+ * The JMX view of the totals kept by {@link Metrics}.
+ */
+public interface MetricsMXBean {
+
+    long getBytesRead();
+
+    long getBytesDecoded();
+
+    /**
+     * @return All of the metrics in the Prometheus text exposition format
+     */
+    String getPrometheusText();
+}
@@ -0,0 +1,131 @@
+package org.lsst.fits.imageio.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.lsst.fits.imageio.metrics.Metrics.Stage;
+
+/**
+ * Writes {@link Metrics} in the Prometheus text exposition format. The stage
+ * latencies are written as histograms with buckets at powers of two
+ * nanoseconds, from about 1 microsecond to about 1 minute, so that they can
+ * be aggregated over several servers and used to alert on tail latency.
+ */
+public final class PrometheusFormat {
+
+    private static final Logger LOG = Logger.getLogger(PrometheusFormat.class.getName());
+    private static final String PREFIX = "fits_imageio_";
+    private static final int FIRST_BUCKET_POWER = 10;
+    private static final int LAST_BUCKET_POWER = 36;
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private PrometheusFormat() {
+    }
+
+    /**
+     * Write all of the metrics.
+     *
+     * @param metrics The metrics to write
+     * @param out Where to write them
+     */
+    public static void write(Metrics metrics, Appendable out) {
+        try {
+            Map<String, CacheMetricsMXBean> caches = metrics.getCaches();
+            writeCacheMetric(out, caches, "cache_size", "gauge", "Estimated number of entries in the cache", CacheMetricsMXBean::getEstimatedSize);
+            writeCacheMetric(out, caches, "cache_hits_total", "counter", "Cache hits", CacheMetricsMXBean::getHitCount);
+            writeCacheMetric(out, caches, "cache_misses_total", "counter", "Cache misses", CacheMetricsMXBean::getMissCount);
+            writeCacheMetric(out, caches, "cache_evictions_total", "counter", "Cache evictions", CacheMetricsMXBean::getEvictionCount);
+            writeCacheMetric(out, caches, "cache_eviction_weight_total", "counter", "Total weight of evicted cache entries", CacheMetricsMXBean::getEvictionWeight);
+            writeCacheMetric(out, caches, "cache_load_success_total", "counter", "Successful cache loads", CacheMetricsMXBean::getLoadSuccessCount);
+            writeCacheMetric(out, caches, "cache_load_failure_total", "counter", "Failed cache loads", CacheMetricsMXBean::getLoadFailureCount);
+            header(out, "cache_load_seconds_total", "counter", "Time spent loading cache entries");
+            for (Map.Entry<String, CacheMetricsMXBean> entry : caches.entrySet()) {
+                sample(out, "cache_load_seconds_total", "cache=\"" + entry.getKey() + "\"", entry.getValue().getTotalLoadTimeNanos() / NANOS_PER_SECOND);
+            }
+
+            header(out, "stage_seconds", "histogram", "Time taken by each stage of the read pipeline");
+            for (Stage stage : Stage.values()) {
+                LatencyHistogram latency = metrics.getLatency(stage);
+                String label = "stage=\"" + stage.toString().toLowerCase(Locale.ROOT) + "\"";
+                long count = latency.getCount();
+                for (int power = FIRST_BUCKET_POWER; power <= LAST_BUCKET_POWER; power++) {
+                    long bound = 1L << power;
+                    sample(out, "stage_seconds_bucket", label + ",le=\"" + bound / NANOS_PER_SECOND + "\"", Math.min(latency.getCountBelow(bound), count));
+                }
+                sample(out, "stage_seconds_bucket", label + ",le=\"+Inf\"", count);
+                sample(out, "stage_seconds_sum", label, latency.getTotalNanos() / NANOS_PER_SECOND);
+                sample(out, "stage_seconds_count", label, count);
+            }
+
+            header(out, "read_bytes_total", "counter", "Bytes of segment data read");
+            sample(out, "read_bytes_total", null, metrics.getBytesRead());
+            header(out, "decoded_bytes_total", "counter", "Bytes of pixel data produced by decompression");
+            sample(out, "decoded_bytes_total", null, metrics.getBytesDecoded());
+        } catch (IOException x) {
+            throw new UncheckedIOException(x);
+        }
+    }
+
+    /**
+     * Serve the metrics over HTTP at /metrics. Note that the server's
+     * dispatcher thread is not a daemon thread.
+     *
+     * @param metrics The metrics to serve
+     * @param port The port to listen on
+     * @return The server, which has been started
+     * @throws IOException If the server cannot be created
+     */
+    public static HttpServer serve(Metrics metrics, int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", (HttpExchange exchange) -> {
+            byte[] body = metrics.getPrometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor((Runnable r) -> {
+            Thread thread = new Thread(r, "MetricsEndpoint");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        LOG.log(Level.INFO, "Serving metrics on port {0}", port);
+        return server;
+    }
+
+    private interface CacheValue {
+
+        long get(CacheMetricsMXBean cache);
+    }
+
+    private static void writeCacheMetric(Appendable out, Map<String, CacheMetricsMXBean> caches, String name, String type, String help, CacheValue value) throws IOException {
+        header(out, name, type, help);
+        for (Map.Entry<String, CacheMetricsMXBean> entry : caches.entrySet()) {
+            sample(out, name, "cache=\"" + entry.getKey() + "\"", value.get(entry.getValue()));
+        }
+    }
+
+    private static void header(Appendable out, String name, String type, String help) throws IOException {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(Appendable out, String name, String labels, Number value) throws IOException {
+        out.append(PREFIX).append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value.toString()).append('\n');
+    }
+}
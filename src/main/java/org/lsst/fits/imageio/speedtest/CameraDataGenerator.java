@@ -0,0 +1,349 @@
+package org.lsst.fits.imageio.speedtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.logging.Level;
+import nom.tam.fits.FitsException;
+import nom.tam.fits.FitsUtil;
+import nom.tam.fits.Header;
+import nom.tam.fits.compression.algorithm.api.ICompressor;
+import nom.tam.fits.compression.algorithm.gzip2.GZip2Compressor;
+import nom.tam.fits.compression.algorithm.rice.RiceCompressOption;
+import nom.tam.fits.compression.algorithm.rice.RiceCompressor;
+import nom.tam.util.BufferedFile;
+import org.lsst.fits.imageio.Timed;
+
+/**
+ * Generates synthetic camera data for benchmarks and load tests which need to
+ * run without access to real camera data. Each CCD is written as a
+ * multi-extension FITS file with 16 ITL style segments. The files have the
+ * same headers as the camera data (RAFTBAY, CCDSLOT, EXTNAME, CHANNEL,
+ * DATASEC, PC/CRVAL for the CCD (B), raft (Q) and focal plane (E) WCS and
+ * ZIMAGE/ZCMPTYPE for compressed data), and the data has bias and overscan
+ * levels so that bias correction can be exercised.
+ *
+ * Along with the FITS files the generator writes a .ccd list file for each
+ * CCD, a .raft list file for each raft and a focalplane.fp list file for all
+ * of the CCDs generated. CCDs are generated starting from the center of the
+ * focal plane, raft by raft, up to the 189 CCDs of the 21 science rafts.
+ * FITS files which already exist are not rewritten, so a partially generated
+ * focal plane can be extended.
+ */
+public class CameraDataGenerator {
+
+    public enum Compression {
+        NONE, GZIP_2, RICE_1,
+        /**
+         * GZIP_2 compressed floating point (-32) data
+         */
+        FLOAT
+    }
+
+    public static final int MAX_CCDS = 189;
+    public static final String FOCAL_PLANE_LIST = "focalplane.fp";
+
+    private static final int NAXIS1 = 576;
+    private static final int NAXIS2 = 2048;
+    private static final String DATASEC = "[4:512,1:2000]";
+    private static final int DATASEC_X = 3;
+    private static final int DATASEC_WIDTH = 509;
+    private static final int DATASEC_HEIGHT = 2000;
+    // These match the image sizes and offsets used by the CameraImageReader
+    private static final int CCD_PITCH = 4096 + 100;
+    private static final int CCD_OFFSET = 100;
+    private static final int RAFT_PITCH = 12700;
+    private static final String[] SCIENCE_RAFTS = {
+        "R22", "R21", "R23", "R12", "R32", "R11", "R13", "R31", "R33", "R01", "R02", "R03", "R10", "R14",
+        "R20", "R24", "R30", "R34", "R41", "R42", "R43"
+    };
+
+    private final File dir;
+    private final Compression compression;
+    private final long seed;
+
+    /**
+     * Create a generator
+     *
+     * @param dir The directory into which the files are written
+     * @param compression The compression to use for the FITS files
+     * @param seed The seed for the random noise, combined with the name of
+     * each CCD so that each CCD is the same however many are generated
+     */
+    public CameraDataGenerator(File dir, Compression compression, long seed) {
+        this.dir = dir;
+        this.compression = compression;
+        this.seed = seed;
+    }
+
+    /**
+     * Generate the first nCcds CCDs, and the corresponding list files.
+     *
+     * @param nCcds The number of CCDs, from 1 to {@value #MAX_CCDS}
+     * @return The focal plane list file, listing all of the generated CCDs
+     * @throws IOException If the files cannot be written
+     */
+    public File generate(int nCcds) throws IOException {
+        if (nCcds < 1 || nCcds > MAX_CCDS) {
+            throw new IllegalArgumentException("Number of CCDs must be between 1 and " + MAX_CCDS);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create directory " + dir);
+        }
+        Map<String, List<File>> rafts = new LinkedHashMap<>();
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < nCcds; i++) {
+            String raftBay = SCIENCE_RAFTS[i / 9];
+            String ccdSlot = "S" + (i % 9) / 3 + (i % 3);
+            File file = getFile(raftBay, ccdSlot);
+            files.add(file);
+            rafts.computeIfAbsent(raftBay, r -> new ArrayList<>()).add(file);
+        }
+        try {
+            files.parallelStream().forEach(file -> {
+                if (!file.exists()) {
+                    String name = file.getName();
+                    try {
+                        File tmp = new File(dir, name + ".tmp");
+                        writeCcd(tmp, name.substring(0, 3), name.substring(4, 7), seed ^ name.hashCode());
+                        if (!tmp.renameTo(file)) {
+                            throw new IOException("Unable to rename " + tmp);
+                        }
+                    } catch (IOException | FitsException x) {
+                        throw new UncheckedIOException(new IOException("Error writing " + file, x));
+                    }
+                }
+            });
+        } catch (UncheckedIOException x) {
+            throw x.getCause();
+        }
+        for (File file : files) {
+            writeList(new File(dir, file.getName().replace(".fits", ".ccd")), List.of(file));
+        }
+        for (Map.Entry<String, List<File>> raft : rafts.entrySet()) {
+            writeList(new File(dir, raft.getKey() + ".raft"), raft.getValue());
+        }
+        File fp = new File(dir, FOCAL_PLANE_LIST);
+        writeList(fp, files);
+        return fp;
+    }
+
+    /**
+     * The FITS file for a given CCD
+     *
+     * @param raftBay The raft, e.g. R22
+     * @param ccdSlot The CCD, e.g. S11
+     * @return The file
+     */
+    public File getFile(String raftBay, String ccdSlot) {
+        return new File(dir, raftBay + "_" + ccdSlot + ".fits");
+    }
+
+    private static void writeList(File list, List<File> files) throws IOException {
+        try (PrintWriter out = new PrintWriter(list)) {
+            for (File file : files) {
+                out.println(file.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Write a single CCD file.
+     *
+     * @param file The file to write
+     * @param raftBay The raft, e.g. R22
+     * @param ccdSlot The CCD, e.g. S11
+     * @param seed The seed for the random noise
+     * @throws IOException
+     * @throws FitsException
+     */
+    void writeCcd(File file, String raftBay, String ccdSlot, long seed) throws IOException, FitsException {
+        SplittableRandom random = new SplittableRandom(seed);
+        int raftX = RAFT_PITCH * (raftBay.charAt(2) - '0');
+        int raftY = RAFT_PITCH * (raftBay.charAt(1) - '0');
+        int ccdX = CCD_OFFSET + CCD_PITCH * (ccdSlot.charAt(2) - '0');
+        int ccdY = CCD_OFFSET + CCD_PITCH * (ccdSlot.charAt(1) - '0');
+        try (BufferedFile bf = new BufferedFile(file, "rw")) {
+            Header primary = new Header();
+            primary.addValue("SIMPLE", true, "");
+            primary.addValue("BITPIX", 8, "");
+            primary.addValue("NAXIS", 0, "");
+            primary.addValue("EXTEND", true, "");
+            primary.addValue("RAFTBAY", raftBay, "");
+            primary.addValue("CCDSLOT", ccdSlot, "");
+            primary.write(bf);
+            // Segments are in camera order, bottom row left to right (flipped in x),
+            // then top row right to left (rotated by 180 degrees)
+            for (int channel = 0; channel < 16; channel++) {
+                boolean top = channel >= 8;
+                int column = top ? 15 - channel : channel;
+                String extName = String.format("Segment%d%d", top ? 0 : 1, top ? 7 - column : column);
+                int[] data = segmentData(random, channel);
+                Header header = new Header();
+                if (compression == Compression.NONE) {
+                    header.addValue("XTENSION", "IMAGE", "");
+                    header.addValue("BITPIX", 32, "");
+                    header.addValue("NAXIS", 2, "");
+                    header.addValue("NAXIS1", NAXIS1, "");
+                    header.addValue("NAXIS2", NAXIS2, "");
+                    header.addValue("PCOUNT", 0, "");
+                    header.addValue("GCOUNT", 1, "");
+                    addSegmentKeywords(header, extName, channel, top, column, ccdX, ccdY, raftX, raftY);
+                    header.write(bf);
+                    bf.write(data);
+                    pad(bf, 4L * data.length);
+                } else {
+                    ByteBuffer compressed = compress(data, compression);
+                    int tableLength = 8 * NAXIS2;
+                    header.addValue("XTENSION", "BINTABLE", "");
+                    header.addValue("BITPIX", 8, "");
+                    header.addValue("NAXIS", 2, "");
+                    header.addValue("NAXIS1", 8, "");
+                    header.addValue("NAXIS2", NAXIS2, "");
+                    header.addValue("PCOUNT", compressed.remaining() - tableLength, "");
+                    header.addValue("GCOUNT", 1, "");
+                    header.addValue("TFIELDS", 1, "");
+                    header.addValue("TTYPE1", "COMPRESSED_DATA", "");
+                    header.addValue("TFORM1", "1PB", "");
+                    header.addValue("ZIMAGE", true, "");
+                    header.addValue("ZTILE1", NAXIS1, "");
+                    header.addValue("ZTILE2", 1, "");
+                    header.addValue("ZCMPTYPE", compression == Compression.FLOAT ? "GZIP_2" : compression.toString(), "");
+                    header.addValue("ZBITPIX", compression == Compression.FLOAT ? -32 : 32, "");
+                    header.addValue("ZNAXIS", 2, "");
+                    header.addValue("ZNAXIS1", NAXIS1, "");
+                    header.addValue("ZNAXIS2", NAXIS2, "");
+                    addSegmentKeywords(header, extName, channel, top, column, ccdX, ccdY, raftX, raftY);
+                    header.write(bf);
+                    int length = compressed.remaining();
+                    bf.write(compressed.array(), 0, length);
+                    pad(bf, length);
+                }
+            }
+        }
+    }
+
+    private static void pad(BufferedFile bf, long length) throws IOException {
+        bf.write(new byte[FitsUtil.padding(length)]);
+    }
+
+    /**
+     * Add the segment keywords. The pixel at datasec position (x,y) is mapped
+     * by the reader to pc * (x + datasec.x + 0.5, y + datasec.y + 0.5) + crval.
+     */
+    private static void addSegmentKeywords(Header header, String extName, int channel, boolean top, int column, int ccdX, int ccdY, int raftX, int raftY) throws FitsException {
+        header.addValue("EXTNAME", extName, "");
+        header.addValue("CHANNEL", channel + 1, "");
+        header.addValue("DATASEC", DATASEC, "");
+        double crval1 = (column + 1) * DATASEC_WIDTH + DATASEC_X;
+        double crval2 = top ? 2 * DATASEC_HEIGHT : 0;
+        double pc22 = top ? -1 : 1;
+        String[] letters = {"B", "Q", "E"};
+        double[] x0 = {0, ccdX, ccdX + raftX};
+        double[] y0 = {0, ccdY, ccdY + raftY};
+        for (int i = 0; i < letters.length; i++) {
+            header.addValue("PC1_1" + letters[i], -1.0, "");
+            header.addValue("PC1_2" + letters[i], 0.0, "");
+            header.addValue("PC2_1" + letters[i], 0.0, "");
+            header.addValue("PC2_2" + letters[i], pc22, "");
+            header.addValue("CRVAL1" + letters[i], crval1 + x0[i], "");
+            header.addValue("CRVAL2" + letters[i], crval2 + y0[i], "");
+        }
+    }
+
+    /**
+     * Create the pixel values for one segment. A per segment bias level with
+     * row to row drift, a sky level with a gradient and a few bright spots in
+     * the datasec, and roughly gaussian read noise everywhere.
+     */
+    private static int[] segmentData(SplittableRandom random, int channel) {
+        int[] data = new int[NAXIS1 * NAXIS2];
+        int bias = 15000 + 500 * channel + random.nextInt(200);
+        int sky = 1000 + random.nextInt(500);
+        int spotX = random.nextInt(DATASEC_WIDTH);
+        int spotY = random.nextInt(DATASEC_HEIGHT);
+        for (int y = 0; y < NAXIS2; y++) {
+            int rowBias = bias + y / 64;
+            boolean inDataRows = y < DATASEC_HEIGHT;
+            for (int x = 0; x < NAXIS1; x++) {
+                int noise = random.nextInt(16) + random.nextInt(16) + random.nextInt(16) + random.nextInt(16) - 30;
+                int value = rowBias + noise;
+                if (inDataRows && x >= DATASEC_X && x < DATASEC_X + DATASEC_WIDTH) {
+                    int dx = x - DATASEC_X - spotX;
+                    int dy = y - spotY;
+                    int r2 = dx * dx + dy * dy;
+                    value += sky + y / 8 + (r2 < 2500 ? 50_000 / (1 + r2 / 50) : 0);
+                }
+                data[x + y * NAXIS1] = value;
+            }
+        }
+        return data;
+    }
+
+    private static ByteBuffer compress(int[] data, Compression compression) {
+        ByteBuffer tiles = ByteBuffer.allocate(data.length * 8 + NAXIS2 * 64);
+        ByteBuffer table = ByteBuffer.allocate(8 * NAXIS2);
+        ICompressor<IntBuffer> intCompressor = null;
+        ICompressor<FloatBuffer> floatCompressor = null;
+        float[] floats = null;
+        switch (compression) {
+            case GZIP_2 ->
+                intCompressor = new GZip2Compressor.IntGZip2Compressor();
+            case RICE_1 -> {
+                RiceCompressOption option = new RiceCompressOption();
+                option.setBlockSize(32);
+                option.setBytePix(4);
+                intCompressor = new RiceCompressor.IntRiceCompressor(option);
+            }
+            case FLOAT -> {
+                floatCompressor = new GZip2Compressor.FloatGZip2Compressor();
+                // Float data is treated as already bias corrected
+                floats = new float[data.length];
+                for (int i = 0; i < data.length; i++) {
+                    floats[i] = (data[i] - 15000) / 10.0f;
+                }
+            }
+            default ->
+                throw new IllegalArgumentException("Not a compression: " + compression);
+        }
+        for (int y = 0; y < NAXIS2; y++) {
+            int start = tiles.position();
+            ByteBuffer out = tiles.slice();
+            if (floatCompressor != null) {
+                floatCompressor.compress(FloatBuffer.wrap(floats, y * NAXIS1, NAXIS1).slice(), out);
+            } else {
+                intCompressor.compress(IntBuffer.wrap(data, y * NAXIS1, NAXIS1).slice(), out);
+            }
+            tiles.position(start + out.position());
+            table.putInt(out.position()).putInt(start);
+        }
+        tiles.flip();
+        ByteBuffer result = ByteBuffer.allocate(table.capacity() + tiles.remaining());
+        result.put(table.flip()).put(tiles).flip();
+        return result;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: CameraDataGenerator <dir> [nCcds (1-189)] [NONE|GZIP_2|RICE_1|FLOAT] [seed]");
+            System.exit(1);
+        }
+        File dir = new File(args[0]);
+        int nCcds = args.length > 1 ? Integer.parseInt(args[1]) : MAX_CCDS;
+        Compression compression = args.length > 2 ? Compression.valueOf(args[2].toUpperCase(Locale.ROOT)) : Compression.RICE_1;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        CameraDataGenerator generator = new CameraDataGenerator(dir, compression, seed);
+        File fp = Timed.execute(Level.INFO, () -> generator.generate(nCcds), "Generated %d CCDs in %dms", nCcds);
+        System.out.println(fp);
+    }
+}
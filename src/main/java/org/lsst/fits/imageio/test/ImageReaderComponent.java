@@ -14,12 +14,16 @@ import java.awt.event.MouseWheelEvent;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.swing.JComponent;
 import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
+import org.lsst.fits.imageio.CameraImageReader;
 
 /**
  * Simple component for displaying a buffered image
@@ -39,6 +43,11 @@ public final class ImageReaderComponent extends JComponent {
     private int imageWidth;
     private BufferedImage bi;
     private ImageReadParam param;
+    // The region and subsampling of the image being read progressively
+    private ReadKey readKey;
+    private CompletableFuture<BufferedImage> pendingRead;
+
+    private record ReadKey(Rectangle sourceRegion, int subSamplingX, int subSamplingY) {}
 
     public ImageReaderComponent() {
         this(false);
@@ -87,6 +96,7 @@ public final class ImageReaderComponent extends JComponent {
         this.imageHeight = image.getHeight(0);
         this.imageWidth = image.getWidth(0);
         this.zoomScaleSet = false;
+        this.readKey = null;
         repaint();
     }
 
@@ -204,13 +214,56 @@ public final class ImageReaderComponent extends JComponent {
                 param.setSourceRegion(sourceRegion);
                 param.setSourceSubsampling(subSamplingX, subSamplingY, 0, 0);
                 try {
-                    bi = reader.read(0, param);
+                    if (reader instanceof CameraImageReader cameraReader) {
+                        readProgressively(cameraReader, new ReadKey(sourceRegion, subSamplingX, subSamplingY));
+                    } else {
+                        bi = reader.read(0, param);
+                    }
                     //System.out.printf("BufferedImage: %d %d\n", bi.getWidth(), bi.getHeight());
-                    g2.drawImage(bi, viewRect.x, viewRect.y, viewRect.width, viewRect.height, this);
+                    if (bi != null) {
+                        g2.drawImage(bi, viewRect.x, viewRect.y, viewRect.width, viewRect.height, this);
+                    }
                 } catch (IOException ex) {
                     Logger.getLogger(ImageReaderComponent.class.getName()).log(Level.SEVERE, null, ex);
                 }
             }
         }
+
+        /**
+         * Start reading the image, unless it is already being read, and
+         * repaint as each part of it is drawn. The previous image is painted
+         * until the first part of the new one arrives. Any read of a
+         * different region or subsampling which is still in progress is no
+         * longer wanted, so is cancelled.
+         */
+        private void readProgressively(CameraImageReader cameraReader, ReadKey key) throws IOException {
+            if (key.equals(readKey)) {
+                return;
+            }
+            if (pendingRead != null) {
+                pendingRead.cancel(false);
+            }
+            readKey = key;
+            pendingRead = cameraReader.readAsync(0, param, (image, region) -> SwingUtilities.invokeLater(() -> {
+                if (key.equals(readKey)) {
+                    bi = image;
+                    repaint();
+                }
+            })).whenComplete((image, x) -> SwingUtilities.invokeLater(() -> {
+                if (x instanceof CancellationException) {
+                    // Superseded by a later read
+                } else if (x != null) {
+                    Logger.getLogger(ImageReaderComponent.class.getName()).log(Level.SEVERE, null, x);
+                } else if (key.equals(readKey) && !cameraReader.getGlobalScaleRefinement().isDone()) {
+                    // Drawn with an approximate global scale, read it again once it can be refined
+                    cameraReader.getGlobalScaleRefinement().thenRun(() -> SwingUtilities.invokeLater(() -> {
+                        if (key.equals(readKey)) {
+                            readKey = null;
+                            repaint();
+                        }
+                    }));
+                }
+            }));
+        }
     }
 }
@@ -1,46 +1,33 @@
 package org.lsst.fits.imageio.util;
 
-import java.awt.Rectangle;
-import java.io.BufferedOutputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.IntBuffer;
-import java.util.List;
-import java.util.concurrent.ExecutionException;
 import javax.imageio.stream.FileImageInputStream;
 import javax.imageio.stream.ImageInputStream;
 import org.lsst.fits.imageio.CachingReader;
-import org.lsst.fits.imageio.RawData;
-import org.lsst.fits.imageio.Segment;
+import org.lsst.fits.imageio.GlobalScale;
+import org.lsst.fits.imageio.bias.SerialParallelBiasCorrection;
 
 /**
+ * Compute the global scale of an image, and add it to the global scale store,
+ * so that globally scaled reads of the image do not need to read every
+ * segment first. The store is given by the org.lsst.fits.imageio.globalScaleDir
+ * property. The scale is computed using the default bias correction.
  *
  * @author tonyj
  */
 public class ComputeGlobalScale {
-    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1 || System.getProperty("org.lsst.fits.imageio.globalScaleDir") == null) {
+            System.err.println("Usage: java -Dorg.lsst.fits.imageio.globalScaleDir=<dir> " + ComputeGlobalScale.class.getName() + " <image>");
+            System.exit(1);
+        }
         CachingReader reader = new CachingReader();
         File file = new File(args[0]);
-        ImageInputStream in = new FileImageInputStream(file);
-        List<Segment> segments = reader.readSegments(in, 'Q');
-        long[] count = new long[1 << 18];
-        for(Segment segment : segments) {
-            RawData rawData = reader.getRawData(segment);
-            IntBuffer intBuffer = (IntBuffer) rawData.getBuffer();        
-            Rectangle datasec = segment.getDataSec();
-            // Note: This is hardwired for Camera (18 bit) data
-            for (int x = datasec.x; x < datasec.width + datasec.x; x++) {
-                for (int y = datasec.y; y < datasec.height + datasec.y; y++) {
-                    count[intBuffer.get(x + y * segment.getNAxis1())]++;
-                }
-            }
-        }
-        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(args[0]+".counts")))) {
-            for (long i : count) {
-                out.writeLong(i);
-            }
+        try (ImageInputStream in = new FileImageInputStream(file)) {
+            GlobalScale scale = reader.getGlobalScale(in, new SerialParallelBiasCorrection(), 'Q', null);
+            System.out.printf("Stored %s for %s%n", scale, file);
         }
     }
 }
@@ -0,0 +1,66 @@
+package org.lsst.fits.imageio;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.concurrent.TimeUnit;
+import org.lsst.fits.imageio.bias.BiasCorrection;
+import org.lsst.fits.imageio.bias.BiasCorrection.CorrectionFactors;
+import org.lsst.fits.imageio.speedtest.CameraDataGenerator.Compression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures computing the correction factors for one segment with each of the
+ * bias corrections. Uncompressed data is read from a (memory mapped or
+ * direct) buffer, compressed data from a heap buffer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BiasCorrectionBenchmark {
+
+    @Param({"NullBiasCorrection", "SerialParallelBiasCorrection", "SerialParallelBiasSub", "SerialParallelBiasSubtraction", "SerialParallelBiasSubtraction2"})
+    private String biasCorrection;
+
+    @Param({"NONE", "RICE_1"})
+    private Compression compression;
+
+    private BiasCorrection bc;
+    private RawData rawData;
+
+    @Setup
+    public void setup() throws IOException, ReflectiveOperationException {
+        bc = (BiasCorrection) Class.forName(BiasCorrection.class.getPackageName() + "." + biasCorrection).getDeclaredConstructor().newInstance();
+        rawData = SyntheticFits.ccdSegments(compression).get(0).readRawDataAsync(null).join();
+    }
+
+    @TearDown
+    public void tearDown() {
+        rawData.release();
+    }
+
+    @Benchmark
+    public CorrectionFactors compute() {
+        return bc.compute((IntBuffer) rawData.getBuffer(), rawData.getSegment());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(BiasCorrectionBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,47 @@
+package org.lsst.fits.imageio;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testReuse() {
+        BufferPool pool = new BufferPool(1_000_000);
+        IntBuffer ib = pool.acquireInt(1000);
+        ib.put(1).put(2);
+        pool.release(ib);
+        assertEquals(4000, pool.getPooledBytes());
+        IntBuffer ib2 = pool.acquireInt(1000);
+        assertSame(ib, ib2);
+        assertEquals(0, ib2.position());
+        assertEquals(1000, ib2.limit());
+        assertEquals(0, pool.getPooledBytes());
+        assertNotSame(ib2, pool.acquireInt(1000));
+        assertNotSame(ib2, pool.acquireInt(999));
+    }
+
+    @Test
+    public void testLimit() {
+        BufferPool pool = new BufferPool(1500);
+        ByteBuffer b1 = pool.acquireDirect(1000);
+        ByteBuffer b2 = pool.acquireDirect(1000);
+        pool.release(b1);
+        pool.release(b2);
+        assertEquals(1000, pool.getPooledBytes());
+        assertSame(b1, pool.acquireDirect(1000));
+        assertNotSame(b2, pool.acquireDirect(1000));
+    }
+
+    @Test
+    public void testForeignBuffersIgnored() {
+        BufferPool pool = new BufferPool(1_000_000);
+        pool.release(ByteBuffer.allocate(100));
+        pool.release(ByteBuffer.allocateDirect(100).asIntBuffer());
+        assertEquals(0, pool.getPooledBytes());
+    }
+}
@@ -0,0 +1,96 @@
+package org.lsst.fits.imageio;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lsst.fits.imageio.bias.BiasCorrection;
+import org.lsst.fits.imageio.bias.SerialParallelBiasCorrection;
+import org.lsst.fits.imageio.speedtest.CameraDataGenerator;
+
+/**
+ * Fires hundreds of concurrent focal plane reads at a reader with a single
+ * pipeline thread, starting from empty caches. If any loader or drawing task
+ * waited for another future, the thread would end up waiting on work queued
+ * behind it, and the reads would never complete. A plain executor is used
+ * since a fork join pool would hide the problem by adding threads to
+ * compensate for blocked ones.
+ */
+public class CachingReaderStressTest {
+
+    private static final int READS = 200;
+    // The region (in focal plane coordinates) containing the generated CCDs
+    private static final Rectangle REGION = new Rectangle(24000, 24000, 8192, 8192);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testConcurrentFocalPlaneReads() throws Exception {
+        File fp = new CameraDataGenerator(folder.newFolder(), CameraDataGenerator.Compression.RICE_1, 0).generate(2);
+        ExecutorService pipeline = Executors.newSingleThreadExecutor();
+        ExecutorService clients = Executors.newFixedThreadPool(50);
+        try {
+            CachingReader reader = new CachingReader(pipeline);
+            BiasCorrection bc = new SerialParallelBiasCorrection();
+            List<Future<BufferedImage>> reads = new ArrayList<>();
+            for (int i = 0; i < READS; i++) {
+                // A mix of reads, between them using all of the loaders, starting
+                // with one which needs the full resolution image
+                int kind = (i + 4) % 5;
+                int subsampling = kind % 2 == 0 ? 64 : 16;
+                reads.add(clients.submit(() -> read(reader, fp, bc, kind < 2, kind == 0, kind == 4, subsampling)));
+            }
+            long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+            for (Future<BufferedImage> read : reads) {
+                BufferedImage image = read.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                assertTrue(isDrawn(image));
+            }
+        } finally {
+            clients.shutdownNow();
+            pipeline.shutdownNow();
+        }
+    }
+
+    private static BufferedImage read(CachingReader reader, File fp, BiasCorrection bc, boolean globalScale, boolean approximate, boolean showBiasRegion, int subsampling) throws IOException {
+        int size = REGION.width / subsampling;
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        AffineTransform transform = AffineTransform.getTranslateInstance(0, size);
+        transform.scale(1.0 / subsampling, -1.0 / subsampling);
+        transform.translate(-REGION.getX(), -REGION.getY());
+        Compositor compositor = new Compositor(image, transform);
+        ReadTrace trace = new ReadTrace("Stress test read");
+        try (ImageInputStream in = ImageIO.createImageInputStream(fp)) {
+            if (globalScale) {
+                reader.readImageWithOnTheFlyGlobalScale(in, REGION, compositor, CameraImageReader.DEFAULT_COLOR_MAP, bc, showBiasRegion, 'E', null, subsampling, false, approximate, trace);
+            } else {
+                reader.readImage(in, REGION, compositor, CameraImageReader.DEFAULT_COLOR_MAP, bc, showBiasRegion, 'E', null, null, subsampling, false, trace);
+            }
+        }
+        return image;
+    }
+
+    private static boolean isDrawn(BufferedImage image) {
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                if ((image.getRGB(x, y) & 0xffffff) != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,46 @@
+package org.lsst.fits.imageio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import nom.tam.fits.FitsException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lsst.fits.imageio.speedtest.CameraDataGenerator;
+
+public class CameraDataGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testGenerate() throws IOException, FitsException {
+        File dir = folder.newFolder();
+        CameraDataGenerator generator = new CameraDataGenerator(dir, CameraDataGenerator.Compression.RICE_1, 1);
+        File fp = generator.generate(2);
+        File s00 = generator.getFile("R22", "S00");
+        File s01 = generator.getFile("R22", "S01");
+        assertEquals(List.of(s00.getAbsolutePath(), s01.getAbsolutePath()), Files.readAllLines(fp.toPath()));
+        assertEquals(List.of(s00.getAbsolutePath(), s01.getAbsolutePath()), Files.readAllLines(new File(dir, "R22.raft").toPath()));
+        assertEquals(List.of(s01.getAbsolutePath()), Files.readAllLines(new File(dir, "R22_S01.ccd").toPath()));
+
+        HeaderIndex.FileHeaders headers = HeaderIndex.getHeaders(s01);
+        assertEquals("R22", headers.raftBay());
+        assertEquals("S01", headers.ccdSlot());
+        assertEquals(16, headers.segments().size());
+        for (int i = 0; i < 16; i++) {
+            SegmentHeader header = headers.segments().get(i);
+            assertTrue(header.compressed());
+            assertEquals("RICE_1", header.compressionType());
+            assertEquals(i + 1, header.channel());
+            assertEquals("[4:512,1:2000]", header.datasec());
+        }
+        // Segment10 is the first segment, flipped in x, in the second CCD of the central raft
+        assertEquals(-1.0, headers.segments().get(0).getWCSValue("PC1_1E"), 0);
+        assertEquals(2 * 12700 + 100 + 4196 + 509 + 3, headers.segments().get(0).getWCSValue("CRVAL1E"), 0);
+    }
+}
@@ -0,0 +1,97 @@
+package org.lsst.fits.imageio;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import org.lsst.fits.imageio.speedtest.CameraDataGenerator.Compression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures reading a complete CCD, raft or focal plane image through the
+ * {@link CameraImageReader}, at several subsamplings. With warm caches this
+ * measures scaling and compositing the cached segment images, with cold
+ * caches (all of the in memory caches sized to zero) it measures the full
+ * pipeline from reading the files onwards, although the files will normally
+ * be in the operating system page cache.
+ *
+ * The focal plane uses only the first fpRafts rafts, since writing the
+ * fixture for all 21 science rafts takes several GB of disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class CameraImageReaderBenchmark {
+
+    private static final String[] CACHE_SIZE_PROPERTIES = {
+        "rawDataCacheSizeBytes", "bufferedImageCacheSizeBytes", "pyramidCacheSizeBytes", "levelLookupCacheSizeBytes",
+        "biasCorrectionCacheSize", "globalScalingCacheSize"
+    };
+
+    @Param({"ccd", "raft", "fp"})
+    private String layout;
+
+    @Param({"4", "16", "64"})
+    private int subsampling;
+
+    @Param({"RICE_1"})
+    private Compression compression;
+
+    @Param({"warm", "cold"})
+    private String caches;
+
+    @Param({"3"})
+    private int fpRafts;
+
+    private ImageReader reader;
+    private ImageReadParam param;
+
+    @Setup
+    public void setup() throws IOException {
+        // Each set of parameters runs in its own JVM, so the caches have not been created yet
+        if ("cold".equals(caches)) {
+            for (String property : CACHE_SIZE_PROPERTIES) {
+                System.setProperty("org.lsst.fits.imageio." + property, "0");
+            }
+        }
+        File list = SyntheticFits.fixture(layout, compression, fpRafts);
+        reader = ImageIO.getImageReadersBySuffix("." + layout).next();
+        reader.setInput(ImageIO.createImageInputStream(list));
+        param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        reader.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage read() throws IOException {
+        return reader.read(0, param);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CameraImageReaderBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,129 @@
+package org.lsst.fits.imageio;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures concurrent compositing of the 144 segments of a raft into the
+ * destination image, as done by {@link CachingReader} once the segment images
+ * are cached. Compares all threads drawing through a single shared Graphics2D
+ * (the previous behavior) with the {@link Compositor}, using either Java2D or
+ * direct copying. Segments are laid out and flipped as for real CCDs.
+ *
+ * The interesting results are for threads &gt;= 16, which should be run on a
+ * machine with at least that many cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CompositorBenchmark {
+
+    private static final int SEGMENT_WIDTH = 512;
+    private static final int SEGMENT_HEIGHT = 2002;
+    private static final int CCDS_PER_SIDE = 3;
+
+    @Param({"shared", "java2d", "direct"})
+    private String mode;
+
+    @Param({"1", "4", "16", "32"})
+    private int threads;
+
+    @Param({"2", "4"})
+    private int subsampling;
+
+    private ForkJoinPool pool;
+    private BufferedImage segmentImage;
+    private BufferedImage destination;
+    private AffineTransform wcsToDevice;
+    private final List<AffineTransform> segmentToWCS = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        pool = new ForkJoinPool(threads);
+        segmentImage = CameraImageReader.IMAGE_TYPE.createBufferedImage(SEGMENT_WIDTH, SEGMENT_HEIGHT);
+        int[] data = ((DataBufferInt) segmentImage.getRaster().getDataBuffer()).getData();
+        Random random = new Random(1);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = random.nextInt(0x1000000);
+        }
+        int ccdWidth = 8 * SEGMENT_WIDTH;
+        int ccdHeight = 2 * SEGMENT_HEIGHT;
+        int width = CCDS_PER_SIDE * ccdWidth;
+        int height = CCDS_PER_SIDE * ccdHeight;
+        destination = CameraImageReader.IMAGE_TYPE.createBufferedImage(width / subsampling, height / subsampling);
+        wcsToDevice = AffineTransform.getTranslateInstance(0, height / subsampling);
+        wcsToDevice.scale(1.0 / subsampling, -1.0 / subsampling);
+        for (int ccd = 0; ccd < CCDS_PER_SIDE * CCDS_PER_SIDE; ccd++) {
+            for (int s = 0; s < 16; s++) {
+                // Top row of segments is rotated by 180 degrees, bottom row is flipped in x
+                boolean top = s >= 8;
+                double x = (ccd % CCDS_PER_SIDE) * ccdWidth + (s % 8) * SEGMENT_WIDTH + SEGMENT_WIDTH;
+                double y = (ccd / CCDS_PER_SIDE) * ccdHeight + (top ? 2 * SEGMENT_HEIGHT : 0);
+                AffineTransform transform = AffineTransform.getTranslateInstance(x, y);
+                transform.scale(-1, top ? -1 : 1);
+                segmentToWCS.add(transform);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public BufferedImage composite() {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(segmentToWCS.size());
+        if ("shared".equals(mode)) {
+            Graphics2D g = destination.createGraphics();
+            g.setTransform(wcsToDevice);
+            for (AffineTransform transform : segmentToWCS) {
+                futures.add(CompletableFuture.runAsync(() -> {
+                    Graphics2D g2 = (Graphics2D) g.create();
+                    g2.transform(transform);
+                    g2.drawImage(segmentImage, 0, 0, null);
+                    g2.dispose();
+                }, pool));
+            }
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+            g.dispose();
+        } else {
+            Compositor compositor = new Compositor(destination, wcsToDevice, "direct".equals(mode));
+            for (AffineTransform transform : segmentToWCS) {
+                futures.add(CompletableFuture.runAsync(() -> compositor.draw(segmentImage, transform), pool));
+            }
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+        }
+        return destination;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CompositorBenchmark.class.getSimpleName()).build()).run();
+    }
+}
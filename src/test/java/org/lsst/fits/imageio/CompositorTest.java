@@ -0,0 +1,182 @@
+package org.lsst.fits.imageio;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Checks that direct compositing produces exactly the same pixels as Java2D
+ * nearest neighbor drawing, for all eight combinations of flips and 90 degree
+ * rotations, with and without subsampling, when drawing only part of the
+ * image, and when the image is partly outside the destination. The images are
+ * placed so that no destination pixel center lies exactly on the edge of a
+ * source pixel, where Java2D is not consistent, sometimes leaving gaps between
+ * adjacent images. For those cases the test instead checks that adjacent
+ * images cover every destination pixel exactly once.
+ */
+public class CompositorTest {
+
+    private static final int WIDTH = 37;
+    private static final int HEIGHT = 23;
+    private static final int DESTINATION_SIZE = 48;
+    private static final int BACKGROUND = 0x123456;
+    private static final int[] SUBSAMPLINGS = {1, 2, 3, 5};
+    // Positions of the image in the destination, the last two partly outside it
+    private static final double[][] POSITIONS = {{5.25, 7.75}, {-11.75, -6.25}, {30.25, 33.75}};
+    // Origins of the tiled images, where destination pixel centers lie on source pixel edges
+    private static final double[] TILE_ORIGINS = {2, 2.5};
+
+    @Test
+    public void testRGB() {
+        BufferedImage image = CameraImageReader.IMAGE_TYPE.createBufferedImage(WIDTH, HEIGHT);
+        int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        Random random = new Random(1);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = random.nextInt(0x1000000);
+        }
+        checkAll(image);
+    }
+
+    @Test
+    public void testIndexed() {
+        Random random = new Random(2);
+        byte[] r = new byte[256];
+        byte[] g = new byte[256];
+        byte[] b = new byte[256];
+        random.nextBytes(r);
+        random.nextBytes(g);
+        random.nextBytes(b);
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_INDEXED, new IndexColorModel(8, 256, r, g, b));
+        random.nextBytes(((DataBufferByte) image.getRaster().getDataBuffer()).getData());
+        checkAll(image);
+    }
+
+    @Test
+    public void testTiling() {
+        BufferedImage image = CameraImageReader.IMAGE_TYPE.createBufferedImage(WIDTH, HEIGHT);
+        int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        Random random = new Random(3);
+        for (int i = 0; i < data.length; i++) {
+            // Never the same as the background
+            data[i] = random.nextInt(0x1000000) | 0x800000;
+        }
+        for (int orientation = 0; orientation < 8; orientation++) {
+            for (int subsampling : SUBSAMPLINGS) {
+                for (double origin : TILE_ORIGINS) {
+                    for (boolean flip : new boolean[]{false, true}) {
+                        checkTiling(image, orientation, subsampling, origin, flip);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void checkAll(BufferedImage image) {
+        for (int orientation = 0; orientation < 8; orientation++) {
+            for (int subsampling : SUBSAMPLINGS) {
+                for (double[] position : POSITIONS) {
+                    AffineTransform imageToWCS = orient(orientation, position[0] * subsampling, position[1] * subsampling);
+                    for (boolean flip : new boolean[]{false, true}) {
+                        AffineTransform wcsToDevice = createWCSToDevice(subsampling, flip);
+                        String what = String.format("orientation %d subsampling %d position %s flip %s", orientation, subsampling, Arrays.toString(position), flip);
+                        check(what, image, wcsToDevice, imageToWCS, WIDTH, HEIGHT);
+                        check(what + " partial", image, wcsToDevice, imageToWCS, WIDTH - 0.6, HEIGHT - 1.3);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Draw a 2 by 2 grid of adjacent images, each into its own destination,
+     * and check that together they cover each destination pixel whose center
+     * lies within the grid exactly once, and no others.
+     */
+    private static void checkTiling(BufferedImage image, int orientation, int subsampling, double origin, boolean flip) {
+        boolean swap = (orientation & 4) != 0;
+        int width = swap ? HEIGHT : WIDTH;
+        int height = swap ? WIDTH : HEIGHT;
+        AffineTransform wcsToDevice = createWCSToDevice(subsampling, flip);
+        int[][] counts = new int[DESTINATION_SIZE][DESTINATION_SIZE];
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 2; j++) {
+                BufferedImage destination = createDestination();
+                new Compositor(destination, wcsToDevice, true).draw(image, orient(orientation, origin * subsampling + i * width, origin * subsampling + j * height));
+                for (int y = 0; y < DESTINATION_SIZE; y++) {
+                    for (int x = 0; x < DESTINATION_SIZE; x++) {
+                        if ((destination.getRGB(x, y) & 0xffffff) != BACKGROUND) {
+                            counts[y][x]++;
+                        }
+                    }
+                }
+            }
+        }
+        Rectangle2D grid = wcsToDevice.createTransformedShape(new Rectangle2D.Double(origin * subsampling, origin * subsampling, 2 * width, 2 * height)).getBounds2D();
+        for (int y = 0; y < DESTINATION_SIZE; y++) {
+            for (int x = 0; x < DESTINATION_SIZE; x++) {
+                boolean inside = x + 0.5 >= grid.getMinX() && x + 0.5 < grid.getMaxX() && y + 0.5 >= grid.getMinY() && y + 0.5 < grid.getMaxY();
+                String what = String.format("orientation %d subsampling %d origin %s flip %s pixel %d,%d", orientation, subsampling, origin, flip, x, y);
+                assertEquals(what, inside ? 1 : 0, counts[y][x]);
+            }
+        }
+    }
+
+    /**
+     * Create the transform from WCS to destination coordinates. The
+     * destination is usually flipped vertically, as WCS y increases upwards.
+     */
+    private static AffineTransform createWCSToDevice(int subsampling, boolean flip) {
+        AffineTransform wcsToDevice = AffineTransform.getTranslateInstance(0, flip ? DESTINATION_SIZE : 0);
+        wcsToDevice.scale(1.0 / subsampling, (flip ? -1.0 : 1.0) / subsampling);
+        return wcsToDevice;
+    }
+
+    /**
+     * Create the transform from image to WCS coordinates for one of the eight
+     * orthogonal orientations, with the transformed image having its minimum
+     * corner at the given position.
+     */
+    private static AffineTransform orient(int orientation, double x, double y) {
+        AffineTransform transform = AffineTransform.getTranslateInstance(x, y);
+        boolean swap = (orientation & 4) != 0;
+        int width = swap ? HEIGHT : WIDTH;
+        int height = swap ? WIDTH : HEIGHT;
+        if ((orientation & 1) != 0) {
+            transform.translate(width, 0);
+            transform.scale(-1, 1);
+        }
+        if ((orientation & 2) != 0) {
+            transform.translate(0, height);
+            transform.scale(1, -1);
+        }
+        if (swap) {
+            transform.concatenate(new AffineTransform(0, 1, 1, 0, 0, 0));
+        }
+        return transform;
+    }
+
+    private static void check(String what, BufferedImage image, AffineTransform wcsToDevice, AffineTransform imageToWCS, double width, double height) {
+        BufferedImage expected = createDestination();
+        new Compositor(expected, wcsToDevice, false).draw(image, imageToWCS, width, height);
+        BufferedImage actual = createDestination();
+        new Compositor(actual, wcsToDevice, true).draw(image, imageToWCS, width, height);
+        for (int y = 0; y < DESTINATION_SIZE; y++) {
+            for (int x = 0; x < DESTINATION_SIZE; x++) {
+                assertEquals(String.format("%s pixel %d,%d", what, x, y), expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    private static BufferedImage createDestination() {
+        BufferedImage image = CameraImageReader.IMAGE_TYPE.createBufferedImage(DESTINATION_SIZE, DESTINATION_SIZE);
+        Arrays.fill(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), BACKGROUND);
+        return image;
+    }
+}
@@ -0,0 +1,97 @@
+package org.lsst.fits.imageio;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lsst.fits.imageio.bias.NullBiasCorrection;
+import org.lsst.fits.imageio.bias.SerialParallelBiasCorrection;
+import org.lsst.fits.imageio.speedtest.CameraDataGenerator;
+
+/**
+ * Writes images to the disk cache and reads them back, both from the same
+ * cache and from a new cache on the same directory, as after a restart.
+ */
+public class DiskImageCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPutAndGet() throws IOException, InterruptedException {
+        CameraDataGenerator generator = new CameraDataGenerator(folder.newFolder(), CameraDataGenerator.Compression.RICE_1, 0);
+        generator.generate(1);
+        Segment segment = SyntheticFits.segments(generator.getFile("R22", "S00")).get(0);
+        Path dir = folder.newFolder().toPath();
+        DiskImageCache cache = new DiskImageCache(dir, 1_000_000_000L);
+
+        BufferedImage image = CachingReader.createLevelImage(100, 50);
+        byte[] levels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = (byte) (i * 7);
+        }
+        assertNull(cache.get(segment, new SerialParallelBiasCorrection(), null));
+        cache.put(segment, new SerialParallelBiasCorrection(), null, image);
+        BufferedImage read = awaitEntry(cache, segment);
+        assertLevels(image, read);
+        // Entries depend on the bias correction
+        assertNull(cache.get(segment, new NullBiasCorrection(), null));
+
+        // The entry is a header followed by the levels
+        File[] files = dir.toFile().listFiles();
+        assertEquals(1, files.length);
+        assertEquals(12 + levels.length, files[0].length());
+        try (DataInputStream in = new DataInputStream(new FileInputStream(files[0]))) {
+            assertEquals(0x4C564C49, in.readInt());
+            assertEquals(100, in.readInt());
+            assertEquals(50, in.readInt());
+        }
+
+        // Entries survive a restart
+        assertLevels(image, new DiskImageCache(dir, 1_000_000_000L).get(segment, new SerialParallelBiasCorrection(), null));
+
+        // Reading an entry marks it as recently used, in the background
+        Path entry = files[0].toPath();
+        FileTime old = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(entry, old);
+        assertLevels(image, cache.get(segment, new SerialParallelBiasCorrection(), null));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (Files.getLastModifiedTime(entry).equals(old) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNotEquals(old, Files.getLastModifiedTime(entry));
+    }
+
+    private static BufferedImage awaitEntry(DiskImageCache cache, Segment segment) throws InterruptedException {
+        // Entries are written asynchronously
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        for (;;) {
+            BufferedImage image = cache.get(segment, new SerialParallelBiasCorrection(), null);
+            if (image != null || System.nanoTime() > deadline) {
+                return image;
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static void assertLevels(BufferedImage expected, BufferedImage actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertArrayEquals(((DataBufferByte) expected.getRaster().getDataBuffer()).getData(), ((DataBufferByte) actual.getRaster().getDataBuffer()).getData());
+    }
+}
@@ -0,0 +1,112 @@
+package org.lsst.fits.imageio;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.lsst.fits.imageio.bias.BiasCorrection;
+import org.lsst.fits.imageio.bias.BiasCorrection.CorrectionFactors;
+import org.lsst.fits.imageio.bias.SerialParallelBiasCorrection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures creating the scaled image of a single segment with a local scale.
+ * Compares the previous three pass approach, where the bias correction is
+ * evaluated per pixel once for the histogram and again for the scaling, with
+ * the fused kernel used by {@link CachingReader}, which materialises the bias
+ * vectors once and scales the corrected values kept from the histogram pass.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FusedKernelBenchmark {
+
+    private static final int NAXIS1 = 576;
+    private static final int NAXIS2 = 2048;
+
+    @Param({"fused", "threePass"})
+    private String mode;
+
+    private Segment segment;
+    private IntBuffer data;
+    private BiasCorrection biasCorrection;
+
+    @Setup
+    public void setup() throws IOException {
+        segment = new Segment(new SegmentHeader(0, false, 32, null, NAXIS1, NAXIS2, NAXIS1 * NAXIS2 * 4, 0, 0, 0, 0,
+                "Segment10", "[11:522,1:2002]", 1, Map.of()), new File("test.fits"), "R22", "S11", ' ', null);
+        data = IntBuffer.allocate(NAXIS1 * NAXIS2);
+        Random random = new Random(1);
+        for (int i = 0; i < NAXIS1 * NAXIS2; i++) {
+            data.put(i, 20000 + (int) (random.nextGaussian() * 50) + (i % NAXIS1 < 522 ? random.nextInt(2000) : 0));
+        }
+        biasCorrection = new SerialParallelBiasCorrection();
+    }
+
+    @Benchmark
+    public BufferedImage createImage() {
+        CorrectionFactors factors = biasCorrection.compute(data, segment);
+        if ("fused".equals(mode)) {
+            return CachingReader.createBufferedImage(data, segment, factors, null);
+        } else {
+            return threePass(factors);
+        }
+    }
+
+    private BufferedImage threePass(CorrectionFactors factors) {
+        Rectangle datasec = segment.getDataSec();
+        int nAxis1 = segment.getNAxis1();
+        ScalingUtils su = new ScalingUtils(histogram(datasec, factors));
+        int[] levels = CachingReader.computeLevelLookup(su);
+        int lowest = su.getLowestOccupiedBin();
+        BufferedImage image = CachingReader.createLevelImage(nAxis1, segment.getNAxis2());
+        DataBuffer db = image.getRaster().getDataBuffer();
+        for (int y = datasec.y; y < datasec.height + datasec.y; y++) {
+            int p = datasec.x + y * nAxis1;
+            for (int x = datasec.x; x < datasec.width + datasec.x; x++) {
+                int i = Math.max(data.get(p) - factors.correctionFactor(x, y), 0) - lowest;
+                db.setElem(p, i >= 0 && i < levels.length ? levels[i] : 0);
+                p++;
+            }
+        }
+        return image;
+    }
+
+    private int[] histogram(Rectangle datasec, CorrectionFactors factors) {
+        int[] bins = new int[Histogram.NBINS];
+        int nAxis1 = segment.getNAxis1();
+        for (int y = datasec.y; y < datasec.height + datasec.y; y++) {
+            int p = datasec.x + y * nAxis1;
+            for (int x = datasec.x; x < datasec.width + datasec.x; x++) {
+                bins[Math.max(data.get(p) - factors.correctionFactor(x, y), 0)]++;
+                p++;
+            }
+        }
+        return bins;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FusedKernelBenchmark.class.getSimpleName()).build()).run();
+    }
+}
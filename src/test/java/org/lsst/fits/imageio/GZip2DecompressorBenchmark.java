@@ -0,0 +1,81 @@
+package org.lsst.fits.imageio;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import nom.tam.fits.compression.algorithm.api.ICompressor;
+import nom.tam.fits.compression.algorithm.gzip2.GZip2Compressor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares decompression of one GZIP_2 compressed segment (2048 tiles of 576
+ * pixels) using nom.tam.fits and using {@link GZip2Decompressor}. Parallel
+ * decompression is disabled so that only the decoders are compared.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.lsst.fits.imageio.parallelDecompression=false")
+public class GZip2DecompressorBenchmark {
+
+    private static final int TILE_SIZE = 576;
+    private static final int N_TILES = 2048;
+
+    @Param({"nomtam", "native"})
+    private String decoder;
+
+    private ByteBuffer compressed;
+    private IntBuffer result;
+    private Supplier<ICompressor<IntBuffer>> decoderFactory;
+
+    @Setup
+    public void setup() {
+        // Build the binary table followed by the heap, as stored in the FITS file
+        Random random = new Random(1);
+        ByteBuffer heap = ByteBuffer.allocate(N_TILES * TILE_SIZE * 8);
+        ByteBuffer table = ByteBuffer.allocate(N_TILES * 8);
+        int[] tile = new int[TILE_SIZE];
+        for (int i = 0; i < N_TILES; i++) {
+            for (int j = 0; j < TILE_SIZE; j++) {
+                tile[j] = 20000 + (int) (random.nextGaussian() * 20) + (i + j) % 5000;
+            }
+            int start = heap.position();
+            new GZip2Compressor.IntGZip2Compressor().compress(IntBuffer.wrap(tile), heap);
+            table.putInt(heap.position() - start).putInt(start);
+        }
+        table.flip();
+        heap.flip();
+        compressed = ByteBuffer.allocateDirect(table.remaining() + heap.remaining());
+        compressed.put(table).put(heap).flip();
+        result = IntBuffer.allocate(N_TILES * TILE_SIZE);
+        decoderFactory = "native".equals(decoder) ? GZip2Decompressor::new : GZip2Compressor.IntGZip2Compressor::new;
+    }
+
+    @Benchmark
+    public IntBuffer decompressSegment() {
+        result.clear();
+        TileDecompressor.decompress(compressed.duplicate(), N_TILES, 8, TILE_SIZE, result, decoderFactory);
+        return result;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(GZip2DecompressorBenchmark.class.getSimpleName()).build()).run();
+    }
+}
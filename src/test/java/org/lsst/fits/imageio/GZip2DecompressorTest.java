@@ -0,0 +1,107 @@
+package org.lsst.fits.imageio;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import nom.tam.fits.compression.algorithm.gzip2.GZip2Compressor;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class GZip2DecompressorTest {
+
+    @Test
+    public void testMatchesNomTam() {
+        int[] pixels = createPixels();
+        ByteBuffer compressed = compress(pixels);
+        int length = compressed.remaining();
+
+        IntBuffer expected = IntBuffer.allocate(pixels.length);
+        new GZip2Compressor.IntGZip2Compressor().decompress(compressed.duplicate(), expected);
+        assertArrayEquals(pixels, expected.array());
+
+        IntBuffer heap = IntBuffer.allocate(pixels.length);
+        new GZip2Decompressor().decompress(compressed.duplicate(), heap);
+        assertArrayEquals(pixels, heap.array());
+
+        // Also check decoding into a buffer without a backing array, and that the input is consumed
+        IntBuffer direct = ByteBuffer.allocateDirect(pixels.length * 4).asIntBuffer();
+        ByteBuffer input = compressed.duplicate();
+        new GZip2Decompressor().decompress(input, direct);
+        assertEquals(length, input.position());
+        assertEquals(pixels.length, direct.position());
+        direct.flip();
+        int[] result = new int[pixels.length];
+        direct.get(result);
+        assertArrayEquals(pixels, result);
+    }
+
+    @Test
+    public void testTruncatedTile() {
+        int[] pixels = createPixels();
+        ByteBuffer compressed = compress(pixels);
+        int length = compressed.remaining();
+        // Part of the compressed data, and only part of the trailer
+        assertRejected(compressed.duplicate().limit(length / 2), pixels.length);
+        assertRejected(compressed.duplicate().limit(length - 4), pixels.length);
+        // A valid stream, but of fewer pixels than the tile
+        ByteBuffer shorter = compress(Arrays.copyOf(pixels, pixels.length / 2));
+        assertRejected(shorter, pixels.length);
+    }
+
+    @Test
+    public void testCorruptedTile() {
+        int[] pixels = createPixels();
+        ByteBuffer compressed = compress(pixels);
+        int length = compressed.remaining();
+        // A byte of the compressed data, which is either invalid or fails the CRC
+        ByteBuffer data = copy(compressed);
+        data.put(length / 2, (byte) (data.get(length / 2) ^ 0x10));
+        assertRejected(data, pixels.length);
+        // The CRC32 of the trailer
+        ByteBuffer crc = copy(compressed);
+        crc.put(length - 8, (byte) (crc.get(length - 8) ^ 0x01));
+        assertRejected(crc, pixels.length);
+        // The length in the trailer
+        ByteBuffer size = copy(compressed);
+        size.put(length - 4, (byte) (size.get(length - 4) ^ 0x01));
+        assertRejected(size, pixels.length);
+        // The same scratch space, reused after the failures, still decodes a valid tile
+        IntBuffer result = IntBuffer.allocate(pixels.length);
+        new GZip2Decompressor().decompress(compressed.duplicate(), result);
+        assertArrayEquals(pixels, result.array());
+    }
+
+    private static void assertRejected(ByteBuffer compressed, int nPixels) {
+        try {
+            new GZip2Decompressor().decompress(compressed, IntBuffer.allocate(nPixels));
+            fail("Invalid tile was decoded");
+        } catch (IllegalStateException x) {
+            // Expected
+        }
+    }
+
+    private static int[] createPixels() {
+        int[] pixels = new int[576];
+        Random random = new Random(42);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 20000 + (int) (random.nextGaussian() * 100) + (i % 7 == 0 ? -300000 : 0);
+        }
+        return pixels;
+    }
+
+    private static ByteBuffer compress(int[] pixels) {
+        ByteBuffer compressed = ByteBuffer.allocateDirect(pixels.length * 8);
+        new GZip2Compressor.IntGZip2Compressor().compress(IntBuffer.wrap(pixels), compressed);
+        compressed.flip();
+        return compressed;
+    }
+
+    private static ByteBuffer copy(ByteBuffer compressed) {
+        ByteBuffer copy = ByteBuffer.allocate(compressed.remaining());
+        copy.put(compressed.duplicate()).flip();
+        return copy;
+    }
+}
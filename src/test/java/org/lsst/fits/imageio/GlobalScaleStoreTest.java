@@ -0,0 +1,54 @@
+package org.lsst.fits.imageio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lsst.fits.imageio.bias.NullBiasCorrection;
+import org.lsst.fits.imageio.bias.SerialParallelBiasCorrection;
+import org.lsst.fits.imageio.speedtest.CameraDataGenerator.Compression;
+
+public class GlobalScaleStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStoreAndLoad() throws IOException {
+        Path dir = folder.newFolder().toPath();
+        GlobalScaleStore store = new GlobalScaleStore(dir);
+        List<Segment> segments = SyntheticFits.ccdSegments(Compression.RICE_1);
+        long[] counts = new long[Histogram.NBINS];
+        for (int i = 20000; i < 30000; i++) {
+            counts[i] = 1_000_000_000_000L / (1 + Math.abs(i - 25000));
+        }
+        GlobalScale scale = GlobalScale.of(counts);
+
+        assertNull(store.get(segments, new SerialParallelBiasCorrection()));
+        store.put(segments, new SerialParallelBiasCorrection(), scale);
+        assertSame(scale, store.get(segments, new SerialParallelBiasCorrection()));
+        // Scales depend on the bias correction
+        assertNull(store.get(segments, new NullBiasCorrection()));
+
+        // Only the occupied bins are stored, compressed
+        File[] files = dir.toFile().listFiles();
+        assertEquals(1, files.length);
+        assertTrue(files[0].length() < 10_000 * 8);
+
+        // Damaged scales are discarded
+        byte[] bytes = Files.readAllBytes(files[0].toPath());
+        bytes[bytes.length - 10] ^= 1;
+        Files.write(files[0].toPath(), bytes);
+        assertNull(store.get(segments, new SerialParallelBiasCorrection()));
+        assertFalse(files[0].exists());
+    }
+}
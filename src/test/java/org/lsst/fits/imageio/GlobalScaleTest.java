@@ -0,0 +1,55 @@
+package org.lsst.fits.imageio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class GlobalScaleTest {
+
+    @Test
+    public void testInterning() {
+        long[] counts = new long[Histogram.NBINS];
+        for (int i = 1000; i < 5000; i++) {
+            counts[i] = i * 37L;
+        }
+        GlobalScale scale = GlobalScale.of(counts);
+        // Equal counts from a different array give the same scale
+        assertSame(scale, GlobalScale.of(counts.clone()));
+        // The counts were copied
+        counts[2000]++;
+        assertNotEquals(scale, GlobalScale.of(counts));
+        assertNotEquals(scale.getDigest(), GlobalScale.of(counts).getDigest());
+        counts[2000]--;
+        assertArrayEquals(counts, scale.getCounts());
+        assertNotSame(scale.getCounts(), scale.getCounts());
+    }
+
+    @Test
+    public void testApproximate() {
+        long[] counts = new long[Histogram.NBINS];
+        counts[1000] = 1;
+        GlobalScale exact = GlobalScale.of(counts);
+        GlobalScale approximate = GlobalScale.approximate(counts.clone());
+        assertTrue(approximate.isApproximate());
+        assertFalse(exact.isApproximate());
+        // An approximate scale is never used in place of an exact one, even with the same counts
+        assertNotEquals(exact, approximate);
+        assertSame(exact, GlobalScale.of(counts));
+    }
+
+    @Test
+    public void testDigest() {
+        // The digest depends on the position of each count, not just the total
+        long[] a = new long[Histogram.NBINS];
+        long[] b = new long[Histogram.NBINS];
+        a[10] = 1;
+        b[11] = 1;
+        assertNotEquals(GlobalScale.digest(a), GlobalScale.digest(b));
+        assertEquals(GlobalScale.digest(a), GlobalScale.digest(a.clone()));
+    }
+}
@@ -0,0 +1,40 @@
+package org.lsst.fits.imageio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HeaderIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File fits = folder.newFile("test.fits");
+        Files.write(fits.toPath(), new byte[2880]);
+        SegmentHeader compressed = new SegmentHeader(2880 * 3, true, 32, "GZIP_2", 576, 2048, 123456, 8, 2048, 576, 1,
+                "Segment10", "[11:522,1:2002]", 1, Map.of("PC1_1Q", -1.0, "CRVAL1Q", 4071.5));
+        SegmentHeader uncompressed = new SegmentHeader(2880 * 100, false, 32, null, 576, 2048, 576 * 2048 * 4, 0, 0, 0, 0,
+                "Segment11", null, 2, Map.of());
+        HeaderIndex.FileHeaders headers = new HeaderIndex.FileHeaders("R22", "S11", false, false, List.of(compressed, uncompressed));
+
+        Path index = HeaderIndex.indexPath(fits);
+        HeaderIndex.write(fits, index, headers);
+        assertEquals(headers, HeaderIndex.read(fits, index));
+        assertEquals(-1.0, HeaderIndex.read(fits, index).segments().get(0).getWCSValue("PC1_1Q"), 0);
+        assertEquals(0.0, HeaderIndex.read(fits, index).segments().get(1).getWCSValue("PC1_1Q"), 0);
+
+        // Changing the FITS file must invalidate the index
+        Files.write(fits.toPath(), new byte[2880 * 2]);
+        assertNull(HeaderIndex.read(fits, index));
+    }
+}
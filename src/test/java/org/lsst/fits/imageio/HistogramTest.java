@@ -0,0 +1,141 @@
+package org.lsst.fits.imageio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import org.lsst.fits.imageio.bias.BiasCorrection.CorrectionFactors;
+
+public class HistogramTest {
+
+    private static final int NAXIS1 = 40;
+    private static final int NAXIS2 = 30;
+
+    @Test
+    public void testFill() throws IOException {
+        // Pixels outside the datasec must be ignored
+        Segment segment = createSegment();
+        Random random = new Random(1);
+        IntBuffer data = IntBuffer.allocate(NAXIS1 * NAXIS2);
+        int[] expected = new int[Histogram.NBINS];
+        for (int y = 0; y < NAXIS2; y++) {
+            for (int x = 0; x < NAXIS1; x++) {
+                int value = 20000 + random.nextInt(500);
+                boolean inDatasec = x >= 10 && x < 30 && y < 20;
+                data.put(inDatasec ? value : 100_000);
+                if (inDatasec) {
+                    expected[value]++;
+                }
+            }
+        }
+        Histogram histogram = Histogram.fill(data, segment, null);
+        assertTrue(histogram.getLowestBin() >= 20000);
+        assertTrue(histogram.getHighestBin() < 20500);
+        long[] totals = new long[Histogram.NBINS];
+        histogram.addTo(totals);
+        for (int i = 0; i < Histogram.NBINS; i++) {
+            assertEquals(expected[i], histogram.getCount(i));
+            assertEquals(expected[i], totals[i]);
+        }
+        // The scale computed from the occupied bins must match the one computed from the full histogram
+        assertArrayEquals(new ScalingUtils(expected).computeOccupiedCDF(), new ScalingUtils(histogram).computeOccupiedCDF());
+
+        // The reused bins must have been cleared
+        Histogram again = Histogram.fill(data, segment, null);
+        assertEquals(histogram.getLowestBin(), again.getLowestBin());
+        assertArrayEquals(histogram.getCounts(), again.getCounts());
+
+        // The corrected values kept by the single pass fill must match the per pixel correction
+        CorrectionFactors factors = new CorrectionFactors() {
+            @Override
+            public int correctionFactor(int x, int y) {
+                return 100 + 3 * x + 7 * y;
+            }
+
+            @Override
+            public boolean isSeparable() {
+                return true;
+            }
+        };
+        int[] corrected = new int[20 * 20];
+        Histogram correctedHistogram = Histogram.fill(data, segment, factors, corrected);
+        int[] expectedCounts = new int[Histogram.NBINS];
+        for (int y = 0; y < 20; y++) {
+            for (int x = 10; x < 30; x++) {
+                int value = Math.max(data.get(x + y * NAXIS1) - factors.correctionFactor(x, y), 0);
+                assertEquals(value, corrected[(x - 10) + y * 20]);
+                expectedCounts[value]++;
+            }
+        }
+        for (int i = 0; i < Histogram.NBINS; i++) {
+            assertEquals(expectedCounts[i], correctedHistogram.getCount(i));
+        }
+    }
+
+    @Test
+    public void testOutOfRangeValues() throws IOException {
+        Segment segment = createSegment();
+        IntBuffer data = IntBuffer.allocate(NAXIS1 * NAXIS2);
+        for (int i = 0; i < data.capacity(); i++) {
+            data.put(i, i % 3 == 0 ? -5 : i % 3 == 1 ? Histogram.NBINS + 10 : 1000);
+        }
+        // Values below and above the range are counted in the first and last bins
+        Histogram raw = Histogram.fill(data, segment, null);
+        assertEquals(0, raw.getLowestBin());
+        assertEquals(Histogram.NBINS - 1, raw.getHighestBin());
+        assertEquals(20 * 20, raw.getCount(0) + raw.getCount(1000) + raw.getCount(Histogram.NBINS - 1));
+
+        int[] corrected = new int[20 * 20];
+        Histogram correctedHistogram = Histogram.fill(data, segment, new NullCorrectionFactors(), corrected);
+        assertArrayEquals(raw.getCounts(), correctedHistogram.getCounts());
+        for (int value : corrected) {
+            assertTrue(value >= 0 && value < Histogram.NBINS);
+        }
+    }
+
+    @Test
+    public void testFailureLeavesBinsEmpty() throws IOException {
+        Segment segment = createSegment();
+        IntBuffer data = IntBuffer.allocate(NAXIS1 * NAXIS2);
+        for (int i = 0; i < data.capacity(); i++) {
+            data.put(i, 20000 + i);
+        }
+        Histogram expected = Histogram.fill(data, segment, null);
+        // Data which ends part way through the datasec
+        try {
+            Histogram.fill(data.slice(0, NAXIS1 * 10), segment, null);
+            fail("Histogrammed missing data");
+        } catch (IndexOutOfBoundsException x) {
+            // Expected
+        }
+        // The counts from the failed segment are not added to the next one on the same thread
+        Histogram after = Histogram.fill(data, segment, null);
+        assertEquals(expected.getLowestBin(), after.getLowestBin());
+        assertArrayEquals(expected.getCounts(), after.getCounts());
+    }
+
+    private static Segment createSegment() throws IOException {
+        // Datasec is [11:30,1:20]
+        return new Segment(new SegmentHeader(0, false, 32, null, NAXIS1, NAXIS2, NAXIS1 * NAXIS2 * 4, 0, 0, 0, 0,
+                "Segment10", "[11:30,1:20]", 1, Map.of()), new File("test.fits"), "R22", "S11", ' ', null);
+    }
+
+    private static class NullCorrectionFactors implements CorrectionFactors {
+
+        @Override
+        public int correctionFactor(int x, int y) {
+            return 0;
+        }
+
+        @Override
+        public boolean isSeparable() {
+            return true;
+        }
+    }
+}
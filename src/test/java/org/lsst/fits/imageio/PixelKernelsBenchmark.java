@@ -0,0 +1,105 @@
+package org.lsst.fits.imageio;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the scalar and vector pixel kernels over the data of one segment
+ * (512x2002 pixels), for both heap buffers (as produced by decompression) and
+ * direct buffers (as produced by reading uncompressed data). The speedup
+ * depends on the vector width, so should be measured on AVX2 and AVX-512
+ * hosts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class PixelKernelsBenchmark {
+
+    private static final int WIDTH = 512;
+    private static final int HEIGHT = 2002;
+
+    @Param({"scalar", "vector"})
+    private String kernels;
+
+    @Param({"heap", "direct"})
+    private String buffer;
+
+    private PixelKernels pixelKernels;
+    private IntBuffer data;
+    private final int[] parallel = new int[WIDTH];
+    private final int[] levels = new int[2000];
+    private final int[] corrected = new int[WIDTH * HEIGHT];
+    private final byte[] pixels = new byte[WIDTH * HEIGHT];
+    private final int[] sums = new int[WIDTH];
+
+    @Setup
+    public void setup() {
+        pixelKernels = "vector".equals(kernels) ? new VectorPixelKernels() : new ScalarPixelKernels();
+        data = "heap".equals(buffer) ? IntBuffer.allocate(WIDTH * HEIGHT) : ByteBuffer.allocateDirect(4 * WIDTH * HEIGHT).asIntBuffer();
+        Random random = new Random(1);
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            data.put(i, 20000 + random.nextInt(2000));
+        }
+        for (int i = 0; i < WIDTH; i++) {
+            parallel[i] = 19500 + random.nextInt(100);
+        }
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = i * 256 / levels.length;
+        }
+        pixelKernels.subtractAndClamp(data, 0, 0, parallel, corrected, 0, WIDTH);
+    }
+
+    @Benchmark
+    public int overscanRows() {
+        int total = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            total += pixelKernels.sum(data, y * WIDTH, WIDTH);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int[] overscanColumns() {
+        for (int y = 0; y < HEIGHT; y++) {
+            pixelKernels.add(data, y * WIDTH, sums, WIDTH);
+        }
+        return sums;
+    }
+
+    @Benchmark
+    public int[] subtractAndClamp() {
+        for (int y = 0; y < HEIGHT; y++) {
+            pixelKernels.subtractAndClamp(data, y * WIDTH, y % 7, parallel, corrected, y * WIDTH, WIDTH);
+        }
+        return corrected;
+    }
+
+    @Benchmark
+    public byte[] lookup() {
+        pixelKernels.lookup(corrected, 0, levels, 100, pixels, 0, WIDTH * HEIGHT);
+        return pixels;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PixelKernelsBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,67 @@
+package org.lsst.fits.imageio;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Test;
+
+/**
+ * Checks the vector kernels give the same results as the scalar ones. Only
+ * runs if the <code>jdk.incubator.vector</code> module is available.
+ */
+public class PixelKernelsTest {
+
+    // Deliberately not a multiple of any vector length
+    private static final int LENGTH = 1001;
+
+    @Test
+    public void testVectorMatchesScalar() {
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() && VectorPixelKernels.isSupported());
+        assertTrue(PixelKernels.getInstance() instanceof VectorPixelKernels);
+        PixelKernels scalar = new ScalarPixelKernels();
+        PixelKernels vector = new VectorPixelKernels();
+
+        Random random = new Random(1);
+        IntBuffer heap = IntBuffer.allocate(LENGTH + 7);
+        IntBuffer direct = ByteBuffer.allocateDirect(4 * (LENGTH + 7)).asIntBuffer();
+        int[] parallel = new int[LENGTH];
+        for (int i = 0; i < LENGTH + 7; i++) {
+            int value = 20000 + random.nextInt(1000);
+            heap.put(i, value);
+            direct.put(i, value);
+        }
+        for (int i = 0; i < LENGTH; i++) {
+            parallel[i] = 19000 + random.nextInt(1500);
+        }
+        for (IntBuffer data : new IntBuffer[]{heap, direct}) {
+            assertEquals(scalar.sum(data, 7, LENGTH), vector.sum(data, 7, LENGTH));
+
+            int[] expectedSums = new int[LENGTH];
+            int[] sums = new int[LENGTH];
+            scalar.add(data, 3, expectedSums, LENGTH);
+            vector.add(data, 3, sums, LENGTH);
+            assertArrayEquals(expectedSums, sums);
+
+            int[] expectedCorrected = new int[LENGTH + 5];
+            int[] corrected = new int[LENGTH + 5];
+            scalar.subtractAndClamp(data, 7, 100, parallel, expectedCorrected, 5, LENGTH);
+            vector.subtractAndClamp(data, 7, 100, parallel, corrected, 5, LENGTH);
+            assertArrayEquals(expectedCorrected, corrected);
+
+            // Levels which only cover part of the values
+            int[] levels = new int[600];
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] = i * 256 / levels.length;
+            }
+            byte[] expectedLevels = new byte[LENGTH + 2];
+            byte[] result = new byte[LENGTH + 2];
+            scalar.lookup(corrected, 5, levels, 200, expectedLevels, 2, LENGTH);
+            vector.lookup(corrected, 5, levels, 200, result, 2, LENGTH);
+            assertArrayEquals(expectedLevels, result);
+        }
+    }
+}
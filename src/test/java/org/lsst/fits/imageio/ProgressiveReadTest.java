@@ -0,0 +1,150 @@
+package org.lsst.fits.imageio;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.event.IIOReadUpdateListener;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lsst.fits.imageio.speedtest.CameraDataGenerator;
+
+public class ProgressiveReadTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testProgressiveRead() throws Exception {
+        File dir = folder.newFolder();
+        new CameraDataGenerator(dir, CameraDataGenerator.Compression.RICE_1, 0).generate(1);
+        File list = new File(dir, "R22_S00.ccd");
+        CameraImageReader reader = (CameraImageReader) ImageIO.getImageReadersBySuffix(".ccd").next();
+        reader.setInput(ImageIO.createImageInputStream(list));
+        CameraImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(4, 4, 0, 0);
+
+        List<Rectangle> updates = new ArrayList<>();
+        AtomicInteger completed = new AtomicInteger();
+        reader.addIIOReadUpdateListener(new UpdateListener(updates));
+        reader.addIIOReadProgressListener(new ProgressListener(completed));
+
+        List<Rectangle> regions = new ArrayList<>();
+        List<BufferedImage> images = new ArrayList<>();
+        BufferedImage image = reader.readAsync(0, param, (drawing, region) -> {
+            images.add(drawing);
+            regions.add(region);
+        }).get(1, TimeUnit.MINUTES);
+
+        // One region per segment, each reported to the listeners for this read, and to the reader's listeners
+        assertEquals(16, regions.size());
+        assertEquals(regions, updates);
+        assertEquals(1, completed.get());
+        Rectangle bounds = new Rectangle(image.getWidth(), image.getHeight());
+        for (int i = 0; i < regions.size(); i++) {
+            assertSame(image, images.get(i));
+            assertTrue(bounds.contains(regions.get(i)));
+            for (int j = 0; j < i; j++) {
+                assertFalse(regions.get(i).intersects(regions.get(j)));
+            }
+        }
+        // The same image as a blocking read
+        BufferedImage blocking = reader.read(0, param);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                assertEquals(blocking.getRGB(x, y), image.getRGB(x, y));
+            }
+        }
+    }
+
+    private static class UpdateListener implements IIOReadUpdateListener {
+
+        private final List<Rectangle> updates;
+
+        UpdateListener(List<Rectangle> updates) {
+            this.updates = updates;
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY, int width, int height, int periodX, int periodY, int[] bands) {
+            updates.add(new Rectangle(minX, minY, width, height));
+        }
+
+        @Override
+        public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass, int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void passComplete(ImageReader source, BufferedImage theImage) {
+        }
+
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass, int minPass, int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY, int width, int height, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {
+        }
+    }
+
+    private static class ProgressListener implements IIOReadProgressListener {
+
+        private final AtomicInteger completed;
+
+        ProgressListener(AtomicInteger completed) {
+            this.completed = completed;
+        }
+
+        @Override
+        public void imageComplete(ImageReader source) {
+            completed.incrementAndGet();
+        }
+
+        @Override
+        public void sequenceStarted(ImageReader source, int minIndex) {
+        }
+
+        @Override
+        public void sequenceComplete(ImageReader source) {
+        }
+
+        @Override
+        public void imageStarted(ImageReader source, int imageIndex) {
+        }
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageReader source) {
+        }
+
+        @Override
+        public void readAborted(ImageReader source) {
+        }
+    }
+}
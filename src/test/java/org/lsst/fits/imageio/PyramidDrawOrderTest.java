@@ -0,0 +1,78 @@
+package org.lsst.fits.imageio;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import static org.junit.Assert.assertEquals;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lsst.fits.imageio.bias.SerialParallelBiasCorrection;
+import org.lsst.fits.imageio.speedtest.CameraDataGenerator;
+
+/**
+ * Reads a region from binned pyramid images with the segments composited in
+ * opposite orders. Segment sizes are not multiples of the binning factor, so
+ * the last row and column of each binned image are only partly covered by
+ * data, and if they were drawn in full they would overlap the adjacent
+ * segments, making the result depend on the order of drawing.
+ */
+public class PyramidDrawOrderTest {
+
+    private static final Rectangle REGION = new Rectangle(24000, 24000, 8192, 8192);
+    private static final int SUBSAMPLING = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDrawOrder() throws IOException {
+        File fp = new CameraDataGenerator(folder.newFolder(), CameraDataGenerator.Compression.RICE_1, 0).generate(2);
+        ExecutorService fifo = Executors.newSingleThreadExecutor();
+        // Runs the most recently submitted task first
+        ExecutorService lifo = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingDeque<>() {
+            @Override
+            public Runnable take() throws InterruptedException {
+                return takeLast();
+            }
+
+            @Override
+            public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+                return pollLast(timeout, unit);
+            }
+        });
+        try {
+            BufferedImage first = read(new CachingReader(fifo), fp);
+            BufferedImage second = read(new CachingReader(lifo), fp);
+            for (int y = 0; y < first.getHeight(); y++) {
+                for (int x = 0; x < first.getWidth(); x++) {
+                    assertEquals(String.format("Pixel %d,%d", x, y), first.getRGB(x, y), second.getRGB(x, y));
+                }
+            }
+        } finally {
+            fifo.shutdownNow();
+            lifo.shutdownNow();
+        }
+    }
+
+    private static BufferedImage read(CachingReader reader, File fp) throws IOException {
+        int size = REGION.width / SUBSAMPLING;
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        AffineTransform transform = AffineTransform.getTranslateInstance(0, size);
+        transform.scale(1.0 / SUBSAMPLING, -1.0 / SUBSAMPLING);
+        transform.translate(-REGION.getX(), -REGION.getY());
+        try (ImageInputStream in = ImageIO.createImageInputStream(fp)) {
+            reader.readImage(in, REGION, new Compositor(image, transform), CameraImageReader.DEFAULT_COLOR_MAP, new SerialParallelBiasCorrection(), false, 'E', null, null, SUBSAMPLING, false, new ReadTrace("Draw order test"));
+        }
+        return image;
+    }
+}
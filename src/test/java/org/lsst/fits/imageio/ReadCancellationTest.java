@@ -0,0 +1,264 @@
+package org.lsst.fits.imageio;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lsst.fits.imageio.bias.BiasCorrection;
+import org.lsst.fits.imageio.bias.SerialParallelBiasCorrection;
+import org.lsst.fits.imageio.speedtest.CameraDataGenerator;
+
+/**
+ * Cancels reads before the pipeline has done any of their work, and checks
+ * that nothing is drawn for them, and that the cache entries they started
+ * loading are still usable by a later read of the same region. Also checks
+ * that loads which are no longer wanted are deferred, and brought back when
+ * the region is read again, and that reads are ended by aborting them, and by
+ * their deadlines.
+ */
+public class ReadCancellationTest {
+
+    // The region (in focal plane coordinates) containing the generated CCDs
+    private static final Rectangle REGION = new Rectangle(24000, 24000, 8192, 8192);
+    private static final int SUBSAMPLING = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCancelledReads() throws Exception {
+        File fp = new CameraDataGenerator(folder.newFolder(), CameraDataGenerator.Compression.RICE_1, 0).generate(2);
+        ExecutorService pipeline = Executors.newSingleThreadExecutor();
+        try (ImageInputStream in = ImageIO.createImageInputStream(fp)) {
+            CachingReader reader = new CachingReader(pipeline);
+            BiasCorrection bc = new SerialParallelBiasCorrection();
+            // Hold up the pipeline until the reads have been cancelled
+            CountDownLatch gate = hold(pipeline);
+            BufferedImage cancelledImage = createImage();
+            BufferedImage cancelledGlobalImage = createImage();
+            CompletableFuture<Void> cancelled = reader.readImageAsync(in, REGION, createCompositor(cancelledImage), CameraImageReader.DEFAULT_COLOR_MAP, bc, false, 'E', null, null, SUBSAMPLING, false, new ReadTrace("Cancelled read"));
+            CompletableFuture<CompletableFuture<GlobalScale>> cancelledGlobal = reader.readImageWithOnTheFlyGlobalScaleAsync(in, REGION, createCompositor(cancelledGlobalImage), CameraImageReader.DEFAULT_COLOR_MAP, bc, false, 'E', null, SUBSAMPLING, false, false, new ReadTrace("Cancelled global read"));
+            cancelled.cancel(false);
+            cancelledGlobal.cancel(false);
+            gate.countDown();
+
+            BufferedImage image = createImage();
+            BufferedImage globalImage = createImage();
+            reader.readImage(in, REGION, createCompositor(image), CameraImageReader.DEFAULT_COLOR_MAP, bc, false, 'E', null, null, SUBSAMPLING, false, new ReadTrace("Read"));
+            reader.readImageWithOnTheFlyGlobalScale(in, REGION, createCompositor(globalImage), CameraImageReader.DEFAULT_COLOR_MAP, bc, false, 'E', null, SUBSAMPLING, false, false, new ReadTrace("Global read"));
+            assertTrue(isDrawn(image));
+            assertTrue(isDrawn(globalImage));
+
+            // Once everything queued has run, nothing has been drawn for the cancelled reads
+            drain(pipeline);
+            assertTrue(isCancelled(cancelled));
+            assertTrue(isCancelled(cancelledGlobal));
+            assertFalse(isDrawn(cancelledImage));
+            assertFalse(isDrawn(cancelledGlobalImage));
+        } finally {
+            pipeline.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDeferredLoads() throws Exception {
+        File fp = new CameraDataGenerator(folder.newFolder(), CameraDataGenerator.Compression.RICE_1, 0).generate(2);
+        ExecutorService pipeline = Executors.newSingleThreadExecutor();
+        // Holds on to the deferred loads, without ever running them
+        Queue<Runnable> background = new ConcurrentLinkedQueue<>();
+        try (ImageInputStream in = ImageIO.createImageInputStream(fp)) {
+            CachingReader reader = new CachingReader(pipeline, background::add);
+            BiasCorrection bc = new SerialParallelBiasCorrection();
+            // Read the headers, by reading a region with no segments, so the loads are started by the next read itself
+            reader.readImage(in, new Rectangle(0, 0, 1, 1), createCompositor(createImage()), CameraImageReader.DEFAULT_COLOR_MAP, bc, false, 'E', null, null, SUBSAMPLING, false, new ReadTrace("Headers"));
+            CountDownLatch gate = hold(pipeline);
+            BufferedImage cancelledImage = createImage();
+            CompletableFuture<Void> cancelled = reader.readImageAsync(in, REGION, createCompositor(cancelledImage), CameraImageReader.DEFAULT_COLOR_MAP, bc, false, 'E', null, null, SUBSAMPLING, false, new ReadTrace("Cancelled read"));
+            cancelled.cancel(false);
+            gate.countDown();
+            drain(pipeline);
+            assertFalse(background.isEmpty());
+            assertFalse(isDrawn(cancelledImage));
+
+            // Reading the region again moves the deferred loads back to the pipeline
+            BufferedImage image = createImage();
+            reader.readImageAsync(in, REGION, createCompositor(image), CameraImageReader.DEFAULT_COLOR_MAP, bc, false, 'E', null, null, SUBSAMPLING, false, new ReadTrace("Read")).get(30, TimeUnit.SECONDS);
+            assertTrue(isDrawn(image));
+            // The deferred tasks have already been run
+            background.forEach(Runnable::run);
+        } finally {
+            pipeline.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAbort() throws Exception {
+        CameraImageReader reader = createReader();
+        CameraImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(4, 4, 0, 0);
+        ProgressListener progress = new ProgressListener();
+        reader.addIIOReadProgressListener(progress);
+
+        // Abort once the first segment has been drawn
+        AtomicInteger regions = new AtomicInteger();
+        CompletableFuture<BufferedImage> read = reader.readAsync(0, param, (drawing, region) -> {
+            if (regions.getAndIncrement() == 0) {
+                reader.abort();
+            }
+        });
+        BufferedImage image = read.get(1, TimeUnit.MINUTES);
+        // The image is returned as far as it was drawn
+        assertTrue(isDrawn(image));
+        assertEquals(1, progress.aborted.get());
+        assertEquals(0, progress.completed.get());
+
+        // The loads the aborted read started are still usable
+        assertTrue(isDrawn(reader.read(0, param)));
+        assertEquals(1, progress.completed.get());
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        CameraImageReader reader = createReader();
+        CameraImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(4, 4, 0, 0);
+        param.setDeadline(Duration.ofNanos(1));
+        try {
+            reader.read(0, param);
+            fail("Read completed after its deadline");
+        } catch (IOException x) {
+            // Expected
+        }
+        param.setDeadline(null);
+        assertTrue(isDrawn(reader.read(0, param)));
+    }
+
+    private CameraImageReader createReader() throws IOException {
+        File dir = folder.newFolder();
+        new CameraDataGenerator(dir, CameraDataGenerator.Compression.RICE_1, 0).generate(1);
+        CameraImageReader reader = (CameraImageReader) ImageIO.getImageReadersBySuffix(".ccd").next();
+        reader.setInput(ImageIO.createImageInputStream(new File(dir, "R22_S00.ccd")));
+        return reader;
+    }
+
+    /**
+     * Hold up a single threaded executor until the returned latch is released.
+     */
+    private static CountDownLatch hold(ExecutorService pipeline) {
+        CountDownLatch gate = new CountDownLatch(1);
+        pipeline.execute(() -> {
+            try {
+                gate.await();
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        return gate;
+    }
+
+    /**
+     * Wait for everything queued on a single threaded executor to run.
+     */
+    private static void drain(ExecutorService pipeline) throws Exception {
+        CompletableFuture.runAsync(() -> {
+        }, pipeline).get(1, TimeUnit.MINUTES);
+    }
+
+    private static boolean isCancelled(CompletableFuture<?> read) {
+        try {
+            read.join();
+            return false;
+        } catch (CancellationException x) {
+            return true;
+        }
+    }
+
+    private static BufferedImage createImage() {
+        int size = REGION.width / SUBSAMPLING;
+        return new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+    }
+
+    private static Compositor createCompositor(BufferedImage image) {
+        AffineTransform transform = AffineTransform.getTranslateInstance(0, image.getHeight());
+        transform.scale(1.0 / SUBSAMPLING, -1.0 / SUBSAMPLING);
+        transform.translate(-REGION.getX(), -REGION.getY());
+        return new Compositor(image, transform);
+    }
+
+    private static boolean isDrawn(BufferedImage image) {
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                if ((image.getRGB(x, y) & 0xffffff) != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static class ProgressListener implements IIOReadProgressListener {
+
+        private final AtomicInteger completed = new AtomicInteger();
+        private final AtomicInteger aborted = new AtomicInteger();
+
+        @Override
+        public void imageComplete(ImageReader source) {
+            completed.incrementAndGet();
+        }
+
+        @Override
+        public void readAborted(ImageReader source) {
+            aborted.incrementAndGet();
+        }
+
+        @Override
+        public void sequenceStarted(ImageReader source, int minIndex) {
+        }
+
+        @Override
+        public void sequenceComplete(ImageReader source) {
+        }
+
+        @Override
+        public void imageStarted(ImageReader source, int imageIndex) {
+        }
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageReader source) {
+        }
+    }
+}
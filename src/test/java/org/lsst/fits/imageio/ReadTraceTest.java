@@ -0,0 +1,82 @@
+package org.lsst.fits.imageio;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReadTraceTest {
+
+    private final Logger logger = Logger.getLogger(ReadTrace.class.getName());
+    private final List<LogRecord> records = new ArrayList<>();
+    private final Handler handler = new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+            records.add(record);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+    private Level savedLevel;
+
+    @Before
+    public void addHandler() {
+        savedLevel = logger.getLevel();
+        logger.setLevel(Level.ALL);
+        logger.addHandler(handler);
+    }
+
+    @After
+    public void removeHandler() {
+        logger.removeHandler(handler);
+        logger.setLevel(savedLevel);
+    }
+
+    @Test
+    public void testCancelled() {
+        new ReadTrace("Cancelled read").finish(new CancellationException());
+        new ReadTrace("Cancelled read").finish(new CompletionException(new CancellationException()));
+        assertEquals(2, records.size());
+        for (LogRecord record : records) {
+            assertEquals(Level.FINE, record.getLevel());
+            assertNull(record.getThrown());
+            assertTrue(record.getMessage(), record.getMessage().startsWith("Cancelled read of 0 segments cancelled"));
+        }
+    }
+
+    @Test
+    public void testFailed() {
+        IOException failure = new IOException("Test failure");
+        new ReadTrace("Failed read").finish(new CompletionException(failure));
+        assertEquals(1, records.size());
+        assertEquals(Level.INFO, records.get(0).getLevel());
+        assertSame(failure, records.get(0).getThrown());
+        assertTrue(records.get(0).getMessage().startsWith("Failed read of 0 segments failed"));
+    }
+
+    @Test
+    public void testCompleted() {
+        new ReadTrace("Read").finish(null);
+        assertEquals(1, records.size());
+        assertEquals(Level.FINE, records.get(0).getLevel());
+        assertNull(records.get(0).getThrown());
+    }
+}
@@ -0,0 +1,83 @@
+package org.lsst.fits.imageio;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.lsst.fits.imageio.bias.BiasCorrection;
+import org.lsst.fits.imageio.bias.SerialParallelBiasCorrection;
+import org.lsst.fits.imageio.speedtest.CameraDataGenerator.Compression;
+
+public class SampledRawDataTest {
+
+    private static final int STRIDE = 32;
+
+    @Test
+    public void testRiceSampling() throws IOException {
+        checkSampling(Compression.RICE_1);
+    }
+
+    @Test
+    public void testGZip2Sampling() throws IOException {
+        checkSampling(Compression.GZIP_2);
+    }
+
+    private static void checkSampling(Compression compression) throws IOException {
+        BiasCorrection bc = new SerialParallelBiasCorrection();
+        long[] exact = new long[Histogram.NBINS];
+        long[] approximate = new long[Histogram.NBINS];
+        for (Segment segment : SyntheticFits.ccdSegments(compression)) {
+            RawData<IntBuffer> full = segment.readRawDataAsync(null).join();
+            RawData<IntBuffer> sampled = segment.readSampledRawDataAsync(STRIDE, null).join();
+            try {
+                IntBuffer fullData = full.getBuffer();
+                IntBuffer sampledData = sampled.getBuffer();
+                // The sampled rows and the rows outside the datasec are decoded exactly
+                Rectangle datasec = segment.getDataSec();
+                int nAxis1 = segment.getNAxis1();
+                for (int row = 0; row < segment.getNAxis2(); row++) {
+                    boolean decoded = row < datasec.y || row >= datasec.y + datasec.height || (row - datasec.y) % STRIDE == 0;
+                    if (decoded) {
+                        assertEquals(fullData.slice(row * nAxis1, nAxis1), sampledData.slice(row * nAxis1, nAxis1));
+                    }
+                }
+                Histogram.fill(fullData, segment, bc.compute(fullData, segment)).addTo(exact);
+                Histogram.fill(sampledData, segment, bc.compute(sampledData, segment)).addTo(approximate);
+            } finally {
+                full.release();
+                sampled.release();
+            }
+        }
+        // Each sampled row stands in for the rows after it, so the totals match
+        assertEquals(total(exact), total(approximate));
+        for (double fraction : new double[]{0.01, 0.5, 0.99}) {
+            int exactBin = percentile(exact, fraction);
+            int approximateBin = percentile(approximate, fraction);
+            assertTrue(String.format("%s percentile %g exact %d approximate %d", compression, fraction, exactBin, approximateBin),
+                    Math.abs(exactBin - approximateBin) <= Math.max(5, exactBin / 100));
+        }
+    }
+
+    private static long total(long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    private static int percentile(long[] counts, double fraction) {
+        long target = (long) (total(counts) * fraction);
+        long sum = 0;
+        for (int bin = 0; bin < counts.length; bin++) {
+            sum += counts[bin];
+            if (sum > target) {
+                return bin;
+            }
+        }
+        return counts.length - 1;
+    }
+}
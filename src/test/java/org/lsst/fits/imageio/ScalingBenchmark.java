@@ -0,0 +1,93 @@
+package org.lsst.fits.imageio;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.TimeUnit;
+import org.lsst.fits.imageio.bias.BiasCorrection.CorrectionFactors;
+import org.lsst.fits.imageio.bias.SerialParallelBiasCorrection;
+import org.lsst.fits.imageio.cmap.SAOColorMap;
+import org.lsst.fits.imageio.speedtest.CameraDataGenerator.Compression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the stages which turn the raw data of one segment into an image:
+ * histogramming the bias corrected data, creating the 8 bit image for integer
+ * and floating point data, and looking up the color of each level of the
+ * image in an SAO color map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScalingBenchmark {
+
+    private RawData<IntBuffer> intData;
+    private RawData<FloatBuffer> floatData;
+    private CorrectionFactors factors;
+    private SAOColorMap colorMap;
+    private byte[] levels;
+    private int[] rgb;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() throws IOException {
+        intData = SyntheticFits.ccdSegments(Compression.RICE_1).get(0).readRawDataAsync(null).join();
+        floatData = SyntheticFits.ccdSegments(Compression.FLOAT).get(0).readRawDataAsync(null).join();
+        factors = new SerialParallelBiasCorrection().compute(intData.getBuffer(), intData.getSegment());
+        colorMap = new SAOColorMap(256, "rainbow.sao");
+        BufferedImage image = CachingReader.createBufferedImage(intData.getBuffer(), intData.getSegment(), factors, null);
+        levels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        rgb = new int[levels.length];
+    }
+
+    @TearDown
+    public void tearDown() {
+        intData.release();
+        floatData.release();
+    }
+
+    @Benchmark
+    public Histogram histogram() {
+        return Histogram.fill(intData.getBuffer(), intData.getSegment(), factors);
+    }
+
+    @Benchmark
+    public BufferedImage createBufferedImage() {
+        return CachingReader.createBufferedImage(intData.getBuffer(), intData.getSegment(), factors, null);
+    }
+
+    @Benchmark
+    public BufferedImage createFloatBufferedImage() {
+        return CachingReader.createBufferedImage(floatData);
+    }
+
+    @Benchmark
+    public int[] colorMapLookup() {
+        for (int i = 0; i < levels.length; i++) {
+            rgb[i] = colorMap.getRGB(levels[i] & 0xff);
+        }
+        return rgb;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ScalingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
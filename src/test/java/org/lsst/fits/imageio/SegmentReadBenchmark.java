@@ -0,0 +1,65 @@
+package org.lsst.fits.imageio;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.lsst.fits.imageio.speedtest.CameraDataGenerator.Compression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures reading and decoding the raw data of all 16 segments of a CCD with
+ * {@link Segment#readRawDataAsync}, for each of the supported data formats.
+ * The data is read without going through any of the caches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SegmentReadBenchmark {
+
+    @Param({"NONE", "GZIP_2", "RICE_1", "FLOAT"})
+    private Compression compression;
+
+    private List<Segment> segments;
+
+    @Setup
+    public void setup() throws IOException {
+        segments = SyntheticFits.ccdSegments(compression);
+    }
+
+    @Benchmark
+    public int readRawData() {
+        List<CompletableFuture<RawData>> futures = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            futures.add(segment.readRawDataAsync(null));
+        }
+        int pixels = 0;
+        for (CompletableFuture<RawData> future : futures) {
+            RawData rawData = future.join();
+            pixels += rawData.getBuffer().limit();
+            rawData.release();
+        }
+        return pixels;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SegmentReadBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,235 @@
+package org.lsst.fits.imageio;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Map;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lsst.fits.imageio.SubsampledRenderer.LevelLookup;
+import org.lsst.fits.imageio.SubsampledRenderer.Rendered;
+import org.lsst.fits.imageio.bias.BiasCorrection.CorrectionFactors;
+import org.lsst.fits.imageio.speedtest.CameraDataGenerator;
+
+/**
+ * Checks segments rendered directly at the subsampled resolution, without
+ * filtering against Java2D nearest neighbor drawing of the full resolution
+ * image, and with box filtering against the mean of the pixels covered by
+ * each destination pixel.
+ */
+public class SubsampledRendererTest {
+
+    private static final int NAXIS1 = 40;
+    private static final int NAXIS2 = 40;
+    // Datasec is [11:34,1:37], 24 by 37 pixels
+    private static final Rectangle DATASEC = new Rectangle(10, 0, 24, 37);
+    private static final int DESTINATION_SIZE = 32;
+    // Levels are the same as the values, except for this one which marks undrawn pixels
+    private static final int UNDRAWN = 255;
+    private static final int[] SUBSAMPLINGS = {3, 6};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testNearestNeighbor() throws IOException {
+        Segment segment = createSegment();
+        IntBuffer data = createData();
+        BufferedImage full = new BufferedImage(DATASEC.width, DATASEC.height, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = full.getRaster();
+        for (int y = 0; y < DATASEC.height; y++) {
+            for (int x = 0; x < DATASEC.width; x++) {
+                raster.setSample(x, y, 0, data.get(DATASEC.x + x + (DATASEC.y + y) * NAXIS1));
+            }
+        }
+        for (int subsampling : SUBSAMPLINGS) {
+            for (int orientation = 0; orientation < 8; orientation++) {
+                // Placed so that no destination pixel center lies on the edge of a segment pixel
+                AffineTransform segmentToDevice = orient(orientation, subsampling, 3.25, 2.75);
+                String what = String.format("subsampling %d orientation %d", subsampling, orientation);
+                Raster actual = render(segment, data, segmentToDevice, false);
+                BufferedImage expected = createDestination();
+                Graphics2D g2 = expected.createGraphics();
+                g2.transform(segmentToDevice);
+                g2.drawImage(full, 0, 0, null);
+                g2.dispose();
+                assertRastersEqual(what, expected.getRaster(), actual);
+            }
+        }
+    }
+
+    @Test
+    public void testBoxFilter() throws IOException, NoninvertibleTransformException {
+        Segment segment = createSegment();
+        IntBuffer data = createData();
+        for (int subsampling : SUBSAMPLINGS) {
+            for (int orientation = 0; orientation < 8; orientation++) {
+                // Placed so that each destination pixel covers whole segment pixels
+                AffineTransform segmentToDevice = orient(orientation, subsampling, 3, 2);
+                String what = String.format("subsampling %d orientation %d", subsampling, orientation);
+                Raster actual = render(segment, data, segmentToDevice, true);
+                // The mean of the segment pixels within each destination pixel whose center lies within the segment
+                AffineTransform inverse = segmentToDevice.createInverse();
+                Rectangle2D extent = segmentToDevice.createTransformedShape(new Rectangle(DATASEC.width, DATASEC.height)).getBounds2D();
+                WritableRaster expected = createDestination().getRaster();
+                int drawn = 0;
+                for (int v = 0; v < DESTINATION_SIZE; v++) {
+                    for (int u = 0; u < DESTINATION_SIZE; u++) {
+                        if (extent.contains(u + 0.5, v + 0.5)) {
+                            Rectangle box = inverse.createTransformedShape(new Rectangle(u, v, 1, 1)).getBounds();
+                            long sum = 0;
+                            for (int y = box.y; y < box.y + box.height; y++) {
+                                for (int x = box.x; x < box.x + box.width; x++) {
+                                    sum += data.get(DATASEC.x + x + (DATASEC.y + y) * NAXIS1);
+                                }
+                            }
+                            expected.setSample(u, v, 0, (int) (sum / (box.width * box.height)));
+                            drawn++;
+                        }
+                    }
+                }
+                assertEquals(what, (DATASEC.width / subsampling) * (DATASEC.height / subsampling), drawn);
+                assertRastersEqual(what, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testBoxFilterReadParam() throws IOException {
+        File dir = folder.newFolder();
+        new CameraDataGenerator(dir, CameraDataGenerator.Compression.RICE_1, 0).generate(1);
+        File list = new File(dir, "R22_S00.ccd");
+        ImageReader reader = ImageIO.getImageReadersBySuffix(".ccd").next();
+        reader.setInput(ImageIO.createImageInputStream(list));
+        CameraImageReadParam param = (CameraImageReadParam) reader.getDefaultReadParam();
+        assertFalse(param.isBoxFilter());
+        param.setSourceSubsampling(6, 6, 0, 0);
+        BufferedImage sampled = reader.read(0, param);
+        param.setBoxFilter(true);
+        assertTrue(param.isBoxFilter());
+        BufferedImage filtered = reader.read(0, param);
+        // Averaging 36 pixels removes most of the pixel to pixel noise
+        assertTrue(roughness(filtered) < roughness(sampled) / 2);
+    }
+
+    /**
+     * The mean absolute difference between horizontally adjacent pixels
+     */
+    private static double roughness(BufferedImage image) {
+        long sum = 0;
+        long n = 0;
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 1; x < image.getWidth(); x++) {
+                sum += Math.abs((image.getRGB(x, y) & 0xff) - (image.getRGB(x - 1, y) & 0xff));
+                n++;
+            }
+        }
+        return (double) sum / n;
+    }
+
+    /**
+     * Render the segment, and draw the result into a destination
+     */
+    private static Raster render(Segment segment, IntBuffer data, AffineTransform segmentToDevice, boolean boxFilter) {
+        byte[] levels = new byte[UNDRAWN];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = (byte) i;
+        }
+        Rendered rendered = SubsampledRenderer.render(data, segment, new NullCorrectionFactors(), new LevelLookup(0, levels), segmentToDevice,
+                new Rectangle(DESTINATION_SIZE, DESTINATION_SIZE), boxFilter);
+        assertNotNull(rendered);
+        WritableRaster result = createDestination().getRaster();
+        result.setRect(rendered.bounds().x, rendered.bounds().y, rendered.image().getRaster());
+        return result;
+    }
+
+    /**
+     * Create the transform from segment to device coordinates for one of the
+     * eight combinations of flips and 90 degree rotations, with the
+     * transformed segment having its minimum corner at the given position.
+     */
+    private static AffineTransform orient(int orientation, int subsampling, double x, double y) {
+        boolean swap = (orientation & 4) != 0;
+        int width = swap ? DATASEC.height : DATASEC.width;
+        int height = swap ? DATASEC.width : DATASEC.height;
+        AffineTransform transform = AffineTransform.getTranslateInstance(x, y);
+        transform.scale(1.0 / subsampling, 1.0 / subsampling);
+        if ((orientation & 1) != 0) {
+            transform.translate(width, 0);
+            transform.scale(-1, 1);
+        }
+        if ((orientation & 2) != 0) {
+            transform.translate(0, height);
+            transform.scale(1, -1);
+        }
+        if (swap) {
+            transform.concatenate(new AffineTransform(0, 1, 1, 0, 0, 0));
+        }
+        return transform;
+    }
+
+    private static void assertRastersEqual(String what, Raster expected, Raster actual) {
+        for (int y = 0; y < DESTINATION_SIZE; y++) {
+            for (int x = 0; x < DESTINATION_SIZE; x++) {
+                assertEquals(String.format("%s pixel %d,%d", what, x, y), expected.getSample(x, y, 0), actual.getSample(x, y, 0));
+            }
+        }
+    }
+
+    private static BufferedImage createDestination() {
+        BufferedImage image = new BufferedImage(DESTINATION_SIZE, DESTINATION_SIZE, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = image.getRaster();
+        for (int y = 0; y < DESTINATION_SIZE; y++) {
+            for (int x = 0; x < DESTINATION_SIZE; x++) {
+                raster.setSample(x, y, 0, UNDRAWN);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Values below {@link #UNDRAWN}, including outside the datasec
+     */
+    private static IntBuffer createData() {
+        IntBuffer data = IntBuffer.allocate(NAXIS1 * NAXIS2);
+        Random random = new Random(1);
+        for (int i = 0; i < data.capacity(); i++) {
+            data.put(i, random.nextInt(UNDRAWN));
+        }
+        return data;
+    }
+
+    private static Segment createSegment() throws IOException {
+        return new Segment(new SegmentHeader(0, false, 32, null, NAXIS1, NAXIS2, NAXIS1 * NAXIS2 * 4, 0, 0, 0, 0,
+                "Segment10", "[11:34,1:37]", 1, Map.of()), new File("test.fits"), "R22", "S11", ' ', null);
+    }
+
+    private static class NullCorrectionFactors implements CorrectionFactors {
+
+        @Override
+        public int correctionFactor(int x, int y) {
+            return 0;
+        }
+
+        @Override
+        public boolean isSeparable() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.lsst.fits.imageio;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import nom.tam.fits.FitsException;
+import org.lsst.fits.imageio.speedtest.CameraDataGenerator;
+import org.lsst.fits.imageio.speedtest.CameraDataGenerator.Compression;
+
+/**
+ * Fixtures for the benchmarks, written by the {@link CameraDataGenerator} once
+ * to a directory under java.io.tmpdir, and reused by later runs.
+ */
+public class SyntheticFits {
+
+    private SyntheticFits() {
+    }
+
+    /**
+     * Get the list file for a CCD (R22/S00), a raft (R22) or a number of
+     * rafts, starting from the central raft, writing the FITS files if needed.
+     *
+     * @param suffix The type of list, one of ccd, raft or fp
+     * @param compression The compression to use for the FITS files
+     * @param nRafts The number of rafts to include in a fp list
+     * @return The list file
+     * @throws IOException If the fixture cannot be written
+     */
+    static File fixture(String suffix, Compression compression, int nRafts) throws IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "fits-imageio-fixtures/" + compression);
+        CameraDataGenerator generator = new CameraDataGenerator(dir, compression, 0);
+        return switch (suffix) {
+            case "ccd" -> {
+                generator.generate(1);
+                yield new File(dir, "R22_S00.ccd");
+            }
+            case "raft" -> {
+                generator.generate(9);
+                yield new File(dir, "R22.raft");
+            }
+            case "fp" ->
+                generator.generate(Math.min(9 * nRafts, CameraDataGenerator.MAX_CCDS));
+            default ->
+                throw new IllegalArgumentException("Unknown list type: " + suffix);
+        };
+    }
+
+    /**
+     * Get the segments of the single CCD fixture, using CCD (B) coordinates.
+     *
+     * @param compression The compression of the fixture
+     * @return The segments
+     * @throws IOException If the fixture cannot be written or read
+     */
+    static List<Segment> ccdSegments(Compression compression) throws IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "fits-imageio-fixtures/" + compression);
+        File file = new CameraDataGenerator(dir, compression, 0).getFile("R22", "S00");
+        fixture("ccd", compression, 0);
+        return segments(file);
+    }
+
+    /**
+     * Get the segments of a CCD file written by the {@link CameraDataGenerator},
+     * using CCD (B) coordinates.
+     *
+     * @param file The file
+     * @return The segments
+     * @throws IOException If the file cannot be read
+     */
+    static List<Segment> segments(File file) throws IOException {
+        try {
+            HeaderIndex.FileHeaders headers = HeaderIndex.getHeaders(file);
+            List<Segment> segments = new ArrayList<>();
+            for (SegmentHeader header : headers.segments()) {
+                segments.add(new Segment(header, file, headers.raftBay(), headers.ccdSlot(), 'B', null));
+            }
+            return segments;
+        } catch (FitsException x) {
+            throw new IOException("Error reading " + file, x);
+        }
+    }
+}
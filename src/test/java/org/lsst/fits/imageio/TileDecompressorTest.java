@@ -0,0 +1,87 @@
+package org.lsst.fits.imageio;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import nom.tam.fits.compression.algorithm.api.ICompressor;
+import nom.tam.fits.compression.algorithm.gzip2.GZip2Compressor;
+import nom.tam.fits.compression.algorithm.rice.RiceCompressOption;
+import nom.tam.fits.compression.algorithm.rice.RiceCompressor.IntRiceCompressor;
+import static org.junit.Assert.assertArrayEquals;
+import org.junit.Test;
+
+/**
+ * Checks that decompressing the tiles in parallel gives exactly the same
+ * result as decompressing them serially. The tile count is chosen so that it
+ * does not divide evenly between the tasks.
+ */
+public class TileDecompressorTest {
+
+    private static final int TILE_SIZE = 100;
+    private static final int N_TILES = 1001;
+    private static final int[] TASKS = {2, 3, 7, 64};
+
+    @Test
+    public void testGZip2() throws InterruptedException, ExecutionException {
+        check(GZip2Compressor.IntGZip2Compressor::new, GZip2Decompressor::new);
+    }
+
+    @Test
+    public void testRice() throws InterruptedException, ExecutionException {
+        RiceCompressOption option = new RiceCompressOption();
+        option.setBlockSize(32);
+        option.setBytePix(4);
+        check(() -> new IntRiceCompressor(option), () -> new IntRiceCompressor(option));
+    }
+
+    private static void check(Supplier<ICompressor<IntBuffer>> compressorFactory, Supplier<ICompressor<IntBuffer>> decompressorFactory) throws InterruptedException, ExecutionException {
+        int[] pixels = new int[N_TILES * TILE_SIZE];
+        Random random = new Random(1);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 20000 + (int) (random.nextGaussian() * 20) + i % 5000;
+        }
+        ByteBuffer compressed = compress(pixels, compressorFactory.get());
+        int[] serial = decompress(compressed, decompressorFactory, 1);
+        assertArrayEquals(pixels, serial);
+        // Use a pool with several threads, so that the tasks run concurrently even on a single core
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int nTasks : TASKS) {
+                int[] parallel = pool.submit(() -> decompress(compressed, decompressorFactory, nTasks)).get();
+                assertArrayEquals("Tasks " + nTasks, serial, parallel);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Build the binary table followed by the heap, as stored in the FITS file
+     */
+    private static ByteBuffer compress(int[] pixels, ICompressor<IntBuffer> compressor) {
+        ByteBuffer heap = ByteBuffer.allocate(pixels.length * 8);
+        ByteBuffer table = ByteBuffer.allocate(N_TILES * 8);
+        for (int i = 0; i < N_TILES; i++) {
+            int start = heap.position();
+            // The Rice compressor writes from the start of the buffer, so give each tile its own slice
+            ByteBuffer out = heap.slice();
+            compressor.compress(IntBuffer.wrap(pixels, i * TILE_SIZE, TILE_SIZE).slice(), out);
+            heap.position(start + out.position());
+            table.putInt(out.position()).putInt(start);
+        }
+        table.flip();
+        heap.flip();
+        ByteBuffer compressed = ByteBuffer.allocateDirect(table.remaining() + heap.remaining());
+        compressed.put(table).put(heap).flip();
+        return compressed;
+    }
+
+    private static int[] decompress(ByteBuffer compressed, Supplier<ICompressor<IntBuffer>> decompressorFactory, int nTasks) {
+        IntBuffer result = IntBuffer.allocate(N_TILES * TILE_SIZE);
+        TileDecompressor.decompress(compressed.duplicate(), N_TILES, 8, TILE_SIZE, result, decompressorFactory, nTasks);
+        return result.array();
+    }
+}
@@ -0,0 +1,51 @@
+package org.lsst.fits.imageio.metrics;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class MetricsTest {
+
+    @Test
+    public void testBuckets() {
+        for (long value = 0; value < 1_000_000; value += 1 + value / 100) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(LatencyHistogram.lowerBound(bucket) <= value);
+            assertTrue(LatencyHistogram.lowerBound(bucket + 1) > value);
+        }
+        assertEquals(LatencyHistogram.NBUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testQuantiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMaxNanos());
+        assertEquals(500_500_000, histogram.getTotalNanos());
+        assertEquals(500_000, histogram.getP50Nanos(), 500_000 / 8);
+        assertEquals(990_000, histogram.getP99Nanos(), 990_000 / 8);
+        assertEquals(1_000_000, histogram.getValueAtQuantile(1));
+        assertEquals(65, histogram.getCountBelow(1 << 16));
+    }
+
+    @Test
+    public void testPrometheusFormat() {
+        Metrics metrics = Metrics.instance();
+        LoadingCache<Integer, Integer> cache = Caffeine.newBuilder().recordStats().build(i -> i * i);
+        metrics.registerCache("test", cache);
+        cache.get(2);
+        cache.get(2);
+        metrics.record(Metrics.Stage.READ, 2_000_000);
+        String text = metrics.getPrometheusText();
+        assertTrue(text.contains("fits_imageio_cache_hits_total{cache=\"test\"} 1\n"));
+        assertTrue(text.contains("fits_imageio_cache_misses_total{cache=\"test\"} 1\n"));
+        assertTrue(text.contains("# TYPE fits_imageio_stage_seconds histogram\n"));
+        assertTrue(text.contains("fits_imageio_stage_seconds_bucket{stage=\"read\",le=\"+Inf\"} "));
+        assertTrue(text.contains("fits_imageio_read_bytes_total "));
+    }
+}